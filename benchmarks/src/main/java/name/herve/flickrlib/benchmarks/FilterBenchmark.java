@@ -0,0 +1,120 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.benchmarks;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import name.herve.flickrlib.FlickrException;
+import name.herve.flickrlib.FlickrImage;
+import name.herve.flickrlib.FlickrXmlStreamParser;
+import name.herve.flickrlib.filters.ChainedFilters;
+import name.herve.flickrlib.filters.FlickrSearchResponseFilter;
+import name.herve.flickrlib.filters.HasTagsFilter;
+import name.herve.flickrlib.filters.MinSizeFilter;
+import name.herve.flickrlib.filters.NoDuplicateAuthorFilter;
+import name.herve.flickrlib.util.BloomFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Filters applied to millions of synthetic images, whose sizes come from the search extras so that
+ * no size is ever resolved. Throughput is in images per second.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class FilterBenchmark {
+	private final static int NB_IMAGES = 2000000;
+	private final static int NB_OWNERS = 500000;
+	private final static int PAGE_SIZE = 500;
+
+	private List<FlickrImage> images;
+
+	private int apply(FlickrSearchResponseFilter filter) {
+		int accepted = 0;
+		for (int i = 0; i < NB_IMAGES; i++) {
+			if (filter.match(images.get(i))) {
+				accepted++;
+			}
+		}
+		return accepted;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NB_IMAGES)
+	public int chained() {
+		ChainedFilters filter = new ChainedFilters();
+		filter.add(new MinSizeFilter(400));
+		filter.add(new HasTagsFilter());
+		filter.add(new NoDuplicateAuthorFilter());
+		return apply(filter);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NB_IMAGES)
+	public int hasTags() {
+		return apply(new HasTagsFilter());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NB_IMAGES)
+	public int minSize() {
+		return apply(new MinSizeFilter(400));
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NB_IMAGES)
+	public int noDuplicateAuthor() {
+		return apply(new NoDuplicateAuthorFilter());
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NB_IMAGES)
+	public int noDuplicateAuthorBloom() {
+		return apply(new NoDuplicateAuthorFilter(new BloomFilter(NB_OWNERS, 0.001)));
+	}
+
+	@Setup
+	public void setup() throws FlickrException {
+		FlickrSyntheticData data = new FlickrSyntheticData(42, NB_IMAGES, NB_OWNERS);
+		images = new ArrayList<FlickrImage>(NB_IMAGES);
+		for (int page = 1; images.size() < NB_IMAGES; page++) {
+			images.addAll(FlickrXmlStreamParser.asResponseData(new StringReader(data.getSearchResponse(page, PAGE_SIZE, FlickrSyntheticData.SEARCH_EXTRAS))).getPictures());
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs the JMH benchmarks with the gc profiler, to report the allocation rate along with the
+ * throughput. Any JMH command line option may be given, e.g. a benchmark name pattern.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrBenchmarks {
+	public static void main(String[] args) throws Exception {
+		List<String> jmhArgs = new ArrayList<String>(Arrays.asList(args));
+		if (!jmhArgs.contains("-prof")) {
+			jmhArgs.add("-prof");
+			jmhArgs.add("gc");
+		}
+		org.openjdk.jmh.Main.main(jmhArgs.toArray(new String[jmhArgs.size()]));
+	}
+}
@@ -0,0 +1,138 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import name.herve.flickrlib.FlickrException;
+import name.herve.flickrlib.FlickrImage;
+import name.herve.flickrlib.FlickrImageSize;
+import name.herve.flickrlib.FlickrLicense;
+import name.herve.flickrlib.FlickrXmlStreamParser;
+
+import org.openjdk.jol.info.ClassLayout;
+import org.openjdk.jol.info.GraphLayout;
+import org.openjdk.jol.vm.VM;
+
+/**
+ * Retained heap per photo of the compact {@link FlickrImage}, compared to the previous model (one
+ * String per field and a HashMap of sizes holding their URLs), measured with JOL on parsed
+ * synthetic search results.
+ * 
+ * <pre>
+ * java -cp target/benchmarks.jar name.herve.flickrlib.benchmarks.FlickrImageFootprint [nb photos]
+ * </pre>
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrImageFootprint {
+	private static class LegacyImage {
+		private String farm;
+		private String id;
+		private FlickrLicense license;
+		private String licenseId;
+		private String owner;
+		private String secret;
+		private String server;
+		private Map<String, LegacySize> sizes;
+		private String tags;
+		private String title;
+	}
+
+	private static class LegacySize {
+		private int height;
+		private String label;
+		private String source;
+		private String url;
+		private int width;
+	}
+
+	private static String copy(String s) {
+		return (s == null) ? null : new String(s.toCharArray());
+	}
+
+	/**
+	 * Same content as the parser used to build, each attribute in its own String.
+	 */
+	private static List<LegacyImage> toLegacy(List<FlickrImage> images) {
+		List<LegacyImage> legacy = new ArrayList<LegacyImage>(images.size());
+		for (FlickrImage img : images) {
+			LegacyImage li = new LegacyImage();
+			li.farm = copy(img.getFarm());
+			li.id = copy(img.getId());
+			li.license = img.getLicense();
+			li.licenseId = copy(img.getLicenseId());
+			li.owner = img.getOwner();
+			li.secret = copy(img.getSecret());
+			li.server = copy(img.getServer());
+			li.tags = img.getTags();
+			li.title = img.getTitle();
+			li.sizes = new HashMap<String, LegacySize>();
+			if (img.getSizes() != null) {
+				for (FlickrImageSize sz : img.getSizes()) {
+					LegacySize ls = new LegacySize();
+					ls.label = sz.getLabel();
+					ls.width = sz.getWidth();
+					ls.height = sz.getHeight();
+					ls.source = sz.getSource();
+					ls.url = sz.getUrl();
+					li.sizes.put(ls.label, ls);
+				}
+			}
+			legacy.add(li);
+		}
+		return legacy;
+	}
+
+	public static void main(String[] args) throws FlickrException {
+		int nbPhotos = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+
+		System.out.println(VM.current().details());
+		System.out.println(ClassLayout.parseClass(FlickrImage.class).toPrintable());
+
+		FlickrSyntheticData data = new FlickrSyntheticData(42, nbPhotos, nbPhotos / 5);
+		report(data, nbPhotos, "search extras", FlickrSyntheticData.SEARCH_EXTRAS);
+		report(data, nbPhotos, "all extras", FlickrSyntheticData.ALL_EXTRAS);
+	}
+
+	private static void report(FlickrSyntheticData data, int nbPhotos, String name, String[] extras) throws FlickrException {
+		String xml = data.getSearchResponse(1, nbPhotos, extras);
+		List<FlickrImage> images = FlickrXmlStreamParser.parseImages(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+		List<LegacyImage> legacy = toLegacy(images);
+
+		// owner, tags and title are the same String instances in both models
+		long strings = 0;
+		for (FlickrImage img : images) {
+			strings += GraphLayout.parseInstance(img.getOwner(), img.getTags(), img.getTitle()).totalSize();
+		}
+
+		long compact = GraphLayout.parseInstance(images.toArray()).totalSize() - strings;
+		long previous = GraphLayout.parseInstance(legacy.toArray()).totalSize() - strings;
+
+		System.out.println(name + " (" + images.size() + " photos, excluding owner, title and tags)");
+		System.out.println("  previous model : " + (previous / images.size()) + " bytes / photo");
+		System.out.println("  compact model  : " + (compact / images.size()) + " bytes / photo");
+	}
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.benchmarks;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import name.herve.flickrlib.FlickrDownload;
+import name.herve.flickrlib.FlickrException;
+import name.herve.flickrlib.FlickrFrontend;
+import name.herve.flickrlib.FlickrImage;
+import name.herve.flickrlib.FlickrSearchQuery;
+import name.herve.flickrlib.FlickrSearchResponse;
+
+/**
+ * End-to-end load test : pages through a search and downloads the images with a pool of
+ * workers, as FlickrGrab does, against the stand-in server (started in-process unless --url is
+ * given). Reports images/s, MB/s, the download latency percentiles and the heap use.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrLoadTest {
+	private static class DiscardChannel implements WritableByteChannel {
+		@Override
+		public void close() {
+			// nothing to close
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			int n = src.remaining();
+			src.position(src.limit());
+			return n;
+		}
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws Exception {
+		String url = null;
+		int nbImages = 5000;
+		int nbWorkers = 8;
+		int perpage = 500;
+		int preferedSurface = 1000 * 800;
+
+		try {
+			for (int a = 0; a < args.length - 1; a++) {
+				if ("--url".equals(args[a])) {
+					url = args[++a];
+				} else if ("--images".equals(args[a])) {
+					nbImages = Integer.parseInt(args[++a]);
+				} else if ("--workers".equals(args[a])) {
+					nbWorkers = Integer.parseInt(args[++a]);
+				} else if ("--perpage".equals(args[a])) {
+					perpage = Integer.parseInt(args[++a]);
+				} else if ("--surface".equals(args[a])) {
+					preferedSurface = Integer.parseInt(args[++a]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			nbImages = -1;
+		}
+
+		FlickrStandInServer server = null;
+		if ((nbImages > 0) && (url == null)) {
+			try {
+				server = FlickrStandInServer.configure(args, new FlickrSyntheticData(42, Math.max(nbImages, 1000), Math.max(nbImages, 1000) / 5), 0);
+			} catch (IllegalArgumentException e) {
+				nbImages = -1;
+			}
+		}
+
+		if ((nbImages < 1) || (nbWorkers < 1) || (perpage < 1)) {
+			System.err.println("Usage : FlickrLoadTest [--images n] [--workers n] [--perpage n] [--surface n] [--url api url | server options]");
+			System.err.println("        server options : [--seed n] [--photos n] [--owners n] [--latency ms] [--jitter ms] [--error-rate r] [--max-perpage n] [--threads n]");
+			System.err.println("e.g.  : FlickrLoadTest --images 20000 --workers 16 --latency 30 --jitter 10 --error-rate 0.01");
+			System.err.println("e.g.  : FlickrLoadTest --images 20000 --url http://127.0.0.1:8080/services/rest/");
+			System.exit(1);
+		}
+
+		if (server != null) {
+			server.start();
+			url = server.getApiUrl();
+		}
+
+		try {
+			new FlickrLoadTest(url, nbWorkers).run(nbImages, perpage, preferedSurface);
+		} finally {
+			if (server != null) {
+				server.stop();
+			}
+		}
+	}
+
+	private AtomicLong bytes;
+	private AtomicInteger errors;
+	private FlickrFrontend flickr;
+	private AtomicInteger nbLatencies;
+	private long[] latencies;
+	private int nbWorkers;
+	private AtomicLong peakHeap;
+
+	public FlickrLoadTest(String url, int nbWorkers) {
+		super();
+		this.nbWorkers = nbWorkers;
+		flickr = new FlickrFrontend("loadtest");
+		flickr.setApiUrl(url);
+	}
+
+	private void download(FlickrImage img, int preferedSurface) {
+		long start = System.nanoTime();
+		try {
+			FlickrDownload d = flickr.downloadImage(img, img.getClosestSize(preferedSurface), new DiscardChannel(), null);
+			if (d == null) {
+				errors.incrementAndGet();
+				return;
+			}
+			bytes.addAndGet(d.getBytes());
+			latencies[nbLatencies.getAndIncrement()] = System.nanoTime() - start;
+		} catch (FlickrException e) {
+			errors.incrementAndGet();
+		}
+	}
+
+	private double percentile(long[] sorted, int nb, double p) {
+		if (nb == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(p * nb) - 1;
+		return sorted[Math.max(0, Math.min(nb - 1, rank))] / 1e6;
+	}
+
+	public void run(int nbImages, int perpage, final int preferedSurface) throws IOException, InterruptedException {
+		bytes = new AtomicLong();
+		errors = new AtomicInteger();
+		latencies = new long[nbImages];
+		nbLatencies = new AtomicInteger();
+		peakHeap = new AtomicLong();
+
+		final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+		sampler.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				long used = memory.getHeapMemoryUsage().getUsed();
+				long peak = peakHeap.get();
+				while ((used > peak) && !peakHeap.compareAndSet(peak, used)) {
+					peak = peakHeap.get();
+				}
+			}
+		}, 0, 50, TimeUnit.MILLISECONDS);
+
+		long gcCount = 0;
+		long gcTime = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount -= gc.getCollectionCount();
+			gcTime -= gc.getCollectionTime();
+		}
+
+		ThreadPoolExecutor workers = new ThreadPoolExecutor(nbWorkers, nbWorkers, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(nbWorkers * 4), new ThreadPoolExecutor.CallerRunsPolicy());
+
+		FlickrSearchQuery q = new FlickrSearchQuery("text=loadtest", nbImages);
+		q.setPerpage(perpage);
+		FlickrSearchResponse response = new FlickrSearchResponse(flickr, q);
+		response.setPrefetch(2);
+
+		long start = System.nanoTime();
+		int nbQueued = 0;
+		for (final FlickrImage img : response) {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					download(img, preferedSurface);
+				}
+			});
+			nbQueued++;
+		}
+		workers.shutdown();
+		workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		sampler.shutdownNow();
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			gcCount += gc.getCollectionCount();
+			gcTime += gc.getCollectionTime();
+		}
+
+		int nb = nbLatencies.get();
+		long[] sorted = Arrays.copyOf(latencies, nb);
+		Arrays.sort(sorted);
+
+		System.out.println("images     : " + nb + " downloaded, " + errors.get() + " failed, " + nbQueued + " found");
+		System.out.println("duration   : " + String.format("%.2f", elapsed) + " s");
+		System.out.println("throughput : " + String.format("%.1f", nb / elapsed) + " images/s, " + String.format("%.2f", bytes.get() / elapsed / (1024 * 1024)) + " MB/s");
+		System.out.println("latency    : p50 " + String.format("%.1f", percentile(sorted, nb, 0.5)) + " ms, p99 " + String.format("%.1f", percentile(sorted, nb, 0.99)) + " ms, max " + String.format("%.1f", percentile(sorted, nb, 1)) + " ms");
+		System.out.println("heap       : peak " + (peakHeap.get() / (1024 * 1024)) + " MB, " + gcCount + " GC, " + gcTime + " ms in GC");
+	}
+}
@@ -0,0 +1,365 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * A local stand-in for the Flickr API and its static image servers, serving synthetic data. It
+ * answers flickr.photos.search, flickr.photos.getRecent, flickr.interestingness.getList,
+ * flickr.photos.getSizes, flickr.photos.licenses.getInfo and flickr.test.echo under
+ * /services/rest/, and the images under /static/. Latency and failures can be injected.
+ * 
+ * The images are not decodable : they hold a JPEG header with the right dimensions followed by
+ * filler bytes, which is enough for FlickrFrontend.downloadImage.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrStandInServer {
+	private final static String API_PATH = "/services/rest/";
+	private final static String STATIC_PATH = "/static/";
+	private final static byte[] FILLER = new byte[64 * 1024];
+	/**
+	 * Filler ending with the EOI marker, so that an image ends with a large write rather than a
+	 * tiny one held back by Nagle's algorithm.
+	 */
+	private final static byte[] TAIL;
+
+	static {
+		new Random(0).nextBytes(FILLER);
+		for (int i = 0; i < FILLER.length; i++) {
+			// no marker in the filler
+			if (FILLER[i] == (byte) 0xFF) {
+				FILLER[i] = 0;
+			}
+		}
+		TAIL = FILLER.clone();
+		TAIL[TAIL.length - 2] = (byte) 0xFF;
+		TAIL[TAIL.length - 1] = (byte) 0xD9;
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) throws IOException {
+		FlickrSyntheticData data = new FlickrSyntheticData(42, 100000, 20000);
+		FlickrStandInServer server = null;
+		try {
+			server = configure(args, data, 8080);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println("Usage : FlickrStandInServer [--port n] [--seed n] [--photos n] [--owners n] [--latency ms] [--jitter ms] [--error-rate r] [--max-perpage n] [--threads n]");
+			System.err.println("e.g.  : FlickrStandInServer --port 8080 --photos 1000000 --latency 50 --jitter 20 --error-rate 0.01");
+			System.exit(1);
+		}
+		server.start();
+		System.out.println("Flickr stand-in server running on " + server.getApiUrl() + " (" + server.getData().getNbPhotos() + " photos)");
+	}
+
+	/**
+	 * Reads the server options shared with the load test.
+	 */
+	static FlickrStandInServer configure(String[] args, FlickrSyntheticData defaultData, int defaultPort) {
+		int port = defaultPort;
+		long seed = -1;
+		int photos = -1;
+		int owners = -1;
+		long latency = 0;
+		long jitter = 0;
+		double errorRate = 0;
+		int maxPerPage = InMemoryFlickrTransport.MAX_PER_PAGE;
+		int threads = 64;
+
+		try {
+			for (int a = 0; a < args.length; a++) {
+				if (a + 1 >= args.length) {
+					break;
+				}
+				if ("--port".equals(args[a])) {
+					port = Integer.parseInt(args[++a]);
+				} else if ("--seed".equals(args[a])) {
+					seed = Long.parseLong(args[++a]);
+				} else if ("--photos".equals(args[a])) {
+					photos = Integer.parseInt(args[++a]);
+				} else if ("--owners".equals(args[a])) {
+					owners = Integer.parseInt(args[++a]);
+				} else if ("--latency".equals(args[a])) {
+					latency = Long.parseLong(args[++a]);
+				} else if ("--jitter".equals(args[a])) {
+					jitter = Long.parseLong(args[++a]);
+				} else if ("--error-rate".equals(args[a])) {
+					errorRate = Double.parseDouble(args[++a]);
+				} else if ("--max-perpage".equals(args[a])) {
+					maxPerPage = Integer.parseInt(args[++a]);
+				} else if ("--threads".equals(args[a])) {
+					threads = Integer.parseInt(args[++a]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number : " + e.getMessage());
+		}
+
+		FlickrSyntheticData data = defaultData;
+		if ((seed >= 0) || (photos > 0) || (owners > 0)) {
+			data = new FlickrSyntheticData(seed >= 0 ? seed : 42, photos > 0 ? photos : defaultData.getNbPhotos(), owners > 0 ? owners : Math.max(1, (photos > 0 ? photos : defaultData.getNbPhotos()) / 5));
+		}
+
+		FlickrStandInServer server = new FlickrStandInServer(data, port);
+		server.setLatency(latency, jitter);
+		server.setErrorRate(errorRate);
+		server.setMaxPerPage(maxPerPage);
+		server.setThreads(threads);
+		return server;
+	}
+
+	private static String[] getRequestedExtras(String query) {
+		String extras = InMemoryFlickrTransport.getParameter(query, "extras");
+		if (extras == null) {
+			return null;
+		}
+		List<String> requested = new ArrayList<String>();
+		for (String e : extras.split(",")) {
+			if (e.startsWith("url_")) {
+				requested.add(e.substring(4));
+			}
+		}
+		return requested.toArray(new String[requested.size()]);
+	}
+
+	private static byte[] getJpegHeader(int width, int height) {
+		return new byte[] {
+				// SOI
+				(byte) 0xFF, (byte) 0xD8,
+				// APP0 JFIF
+				(byte) 0xFF, (byte) 0xE0, 0, 16, 'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0,
+				// SOF0, 8 bits, 3 components
+				(byte) 0xFF, (byte) 0xC0, 0, 17, 8, (byte) (height >> 8), (byte) height, (byte) (width >> 8), (byte) width, 3, 1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1 };
+	}
+
+	private double bytesPerPixel;
+	private FlickrSyntheticData data;
+	private double errorRate;
+	private ExecutorService executor;
+	private long jitter;
+	private long latency;
+	private int maxPerPage;
+	private int port;
+	private HttpServer server;
+	private int threads;
+
+	public FlickrStandInServer(FlickrSyntheticData data, int port) {
+		super();
+		this.data = data;
+		this.port = port;
+		bytesPerPixel = 0.25;
+		errorRate = 0;
+		latency = 0;
+		jitter = 0;
+		maxPerPage = InMemoryFlickrTransport.MAX_PER_PAGE;
+		threads = 64;
+	}
+
+	private boolean delayAndFail(HttpExchange exchange) throws IOException {
+		ThreadLocalRandom rand = ThreadLocalRandom.current();
+		long delay = latency;
+		if (jitter > 0) {
+			delay += rand.nextLong(-jitter, jitter + 1);
+		}
+		if (delay > 0) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		if ((errorRate > 0) && (rand.nextDouble() < errorRate)) {
+			exchange.sendResponseHeaders(503, -1);
+			exchange.close();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * URL to give to FlickrFrontend.setApiUrl().
+	 */
+	public String getApiUrl() {
+		return "http://127.0.0.1:" + getPort() + API_PATH;
+	}
+
+	public FlickrSyntheticData getData() {
+		return data;
+	}
+
+	public int getPort() {
+		if (server != null) {
+			return server.getAddress().getPort();
+		}
+		return port;
+	}
+
+	private void handleApi(HttpExchange exchange) throws IOException {
+		if (delayAndFail(exchange)) {
+			return;
+		}
+
+		String query = exchange.getRequestURI().getRawQuery();
+		try {
+			query = URLDecoder.decode(query == null ? "" : query, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			// UTF-8 is always there
+		}
+
+		byte[] body = InMemoryFlickrTransport.getResponse(data, query, getRequestedExtras(query), maxPerPage).getBytes(StandardCharsets.UTF_8);
+		exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+		exchange.sendResponseHeaders(200, body.length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(body);
+		} finally {
+			out.close();
+		}
+	}
+
+	private void handleStatic(HttpExchange exchange) throws IOException {
+		if (delayAndFail(exchange)) {
+			return;
+		}
+
+		// /static/{server}/{id}_{secret}_{size}.jpg
+		String path = exchange.getRequestURI().getPath();
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		String[] parts = name.replace(".jpg", "").split("_");
+		long index = -1;
+		if (parts.length == 3) {
+			try {
+				index = data.getIndex(Long.parseLong(parts[0]));
+			} catch (NumberFormatException e) {
+				// not found
+			}
+		}
+		int[] dim = null;
+		if (index >= 0) {
+			try {
+				dim = data.getDimensions(index, parts[2]);
+			} catch (IllegalArgumentException e) {
+				// not found
+			}
+		}
+		if (dim == null) {
+			exchange.sendResponseHeaders(404, -1);
+			exchange.close();
+			return;
+		}
+
+		byte[] header = getJpegHeader(dim[0], dim[1]);
+		long length = Math.max(header.length + 2 + 1024, (long) (dim[0] * (double) dim[1] * bytesPerPixel));
+
+		exchange.getResponseHeaders().set("Content-Type", "image/jpeg");
+		exchange.sendResponseHeaders(200, length);
+		OutputStream out = exchange.getResponseBody();
+		try {
+			out.write(header);
+			long remaining = length - header.length;
+			while (remaining > TAIL.length) {
+				out.write(FILLER);
+				remaining -= FILLER.length;
+			}
+			out.write(TAIL, TAIL.length - (int) remaining, (int) remaining);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Size of the served images, 0.25 bytes per pixel by default.
+	 */
+	public void setBytesPerPixel(double bytesPerPixel) {
+		this.bytesPerPixel = bytesPerPixel;
+	}
+
+	/**
+	 * Fraction of the requests answered with a 503 error.
+	 */
+	public void setErrorRate(double errorRate) {
+		this.errorRate = errorRate;
+	}
+
+	/**
+	 * Delay added to every request, in milliseconds, plus or minus a uniform jitter.
+	 */
+	public void setLatency(long latency, long jitter) {
+		this.latency = latency;
+		this.jitter = jitter;
+	}
+
+	public void setMaxPerPage(int maxPerPage) {
+		this.maxPerPage = maxPerPage;
+	}
+
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	public void start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+		server.createContext(API_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleApi(exchange);
+			}
+		});
+		server.createContext(STATIC_PATH, new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				handleStatic(exchange);
+			}
+		});
+		executor = Executors.newFixedThreadPool(threads);
+		server.setExecutor(executor);
+		server.start();
+
+		data.setStaticBaseUrl("http://127.0.0.1:" + getPort() + "/static");
+	}
+
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			executor.shutdownNow();
+			server = null;
+		}
+	}
+}
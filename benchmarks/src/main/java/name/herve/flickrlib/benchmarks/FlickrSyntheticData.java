@@ -0,0 +1,257 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.benchmarks;
+
+/**
+ * Deterministic synthetic Flickr responses. Every photo is derived from the seed and its index
+ * only, so that any page or any photo can be generated again without keeping state.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrSyntheticData {
+	public final static String[] ALL_EXTRAS = { "sq", "q", "t", "s", "n", "m", "z", "c", "l", "h", "k", "o" };
+	public final static String[] SEARCH_EXTRAS = { "m", "l" };
+
+	private final static long BASE_ID = 50000000000L;
+	private final static String[] LABELS = { "Square", "Large Square", "Thumbnail", "Small", "Small 320", "Medium", "Medium 640", "Medium 800", "Large", "Large 1600", "Large 2048", "Original" };
+	private final static int[] LONGEST_SIDES = { 75, 150, 100, 240, 320, 500, 640, 800, 1024, 1600, 2048, 0 };
+	private final static String[] LICENSES = { "All Rights Reserved", "Attribution-NonCommercial-ShareAlike License", "Attribution-NonCommercial License", "Attribution-NonCommercial-NoDerivs License", "Attribution License", "Attribution-ShareAlike License", "Attribution-NoDerivs License", "No known copyright restrictions", "United States Government Work", "Public Domain Dedication (CC0)", "Public Domain Mark" };
+	private final static String[] WORDS = { "sunset", "beach", "city", "night", "bridge", "mountain", "snow", "river", "street", "portrait", "market", "forest", "lake", "cathedral", "harbour", "desert", "festival", "train", "garden", "sky" };
+
+	private static long mix(long z) {
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+
+	private int nbOwners;
+	private int nbPhotos;
+	private long seed;
+	private String staticBaseUrl;
+
+	public FlickrSyntheticData(long seed, int nbPhotos, int nbOwners) {
+		super();
+		this.seed = seed;
+		this.nbPhotos = nbPhotos;
+		this.nbOwners = nbOwners;
+		this.staticBaseUrl = "https://live.staticflickr.com";
+	}
+
+	private void appendAttribute(StringBuilder sb, String name, Object value) {
+		sb.append(' ').append(name).append("=\"").append(value).append('"');
+	}
+
+	private void appendPhoto(StringBuilder sb, long index, String[] extras) {
+		long h = hash(index, 0);
+		long id = getId(index);
+		String owner = getOwner(index);
+		String secret = Long.toHexString(hash(index, 1) & 0xffffffffffL);
+		int server = 65535 - (int) ((h >>> 8) & 0xff);
+		int license = (int) ((h >>> 16) & 0xffff) % LICENSES.length;
+
+		sb.append("<photo");
+		appendAttribute(sb, "id", id);
+		appendAttribute(sb, "owner", owner);
+		appendAttribute(sb, "secret", secret);
+		appendAttribute(sb, "server", server);
+		appendAttribute(sb, "farm", 66);
+		appendAttribute(sb, "title", getWords(index, 2, 1 + (int) ((h >>> 32) & 3)));
+		appendAttribute(sb, "ispublic", 1);
+		appendAttribute(sb, "isfriend", 0);
+		appendAttribute(sb, "isfamily", 0);
+		appendAttribute(sb, "license", license);
+		appendAttribute(sb, "tags", ((h >>> 40) & 7) == 0 ? "" : getWords(index, 3, (int) ((h >>> 44) & 7) + 1));
+		if (extras != null) {
+			int[] original = getOriginalDimensions(index);
+			for (String e : extras) {
+				int s = getExtraIndex(e);
+				int[] dim = getDimensions(original, s);
+				appendAttribute(sb, "url_" + e, getSource(server, id, secret, e));
+				appendAttribute(sb, "height_" + e, dim[1]);
+				appendAttribute(sb, "width_" + e, dim[0]);
+			}
+		}
+		sb.append(" />");
+	}
+
+	private int[] getDimensions(int[] original, int extra) {
+		int longest = LONGEST_SIDES[extra];
+		if ((longest == 0) || (longest >= Math.max(original[0], original[1]))) {
+			return original;
+		}
+		if (extra <= 1) {
+			return new int[] { longest, longest };
+		}
+		if (original[0] >= original[1]) {
+			return new int[] { longest, (int) Math.round(original[1] * (double) longest / original[0]) };
+		}
+		return new int[] { (int) Math.round(original[0] * (double) longest / original[1]), longest };
+	}
+
+	/**
+	 * Width and height of one of the sizes of a photo.
+	 */
+	public int[] getDimensions(long index, String extra) {
+		return getDimensions(getOriginalDimensions(index), getExtraIndex(extra));
+	}
+
+	private int getExtraIndex(String extra) {
+		for (int i = 0; i < ALL_EXTRAS.length; i++) {
+			if (ALL_EXTRAS[i].equals(extra)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("Unknown size " + extra);
+	}
+
+	public long getId(long index) {
+		return BASE_ID + index;
+	}
+
+	/**
+	 * @return the index of the photo, -1 if the id does not belong to the data set
+	 */
+	public long getIndex(long id) {
+		long index = id - BASE_ID;
+		if ((index < 0) || (index >= nbPhotos)) {
+			return -1;
+		}
+		return index;
+	}
+
+	public String getLicensesResponse() {
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<rsp stat=\"ok\">\n<licenses>\n");
+		for (int l = 0; l < LICENSES.length; l++) {
+			sb.append("<license");
+			appendAttribute(sb, "id", l);
+			appendAttribute(sb, "name", LICENSES[l]);
+			appendAttribute(sb, "url", l == 0 ? "" : "https://creativecommons.org/licenses/" + l + "/");
+			sb.append(" />\n");
+		}
+		sb.append("</licenses>\n</rsp>\n");
+		return sb.toString();
+	}
+
+	public int getNbPhotos() {
+		return nbPhotos;
+	}
+
+	/**
+	 * Width and height of the original image.
+	 */
+	public int[] getOriginalDimensions(long index) {
+		long h = hash(index, 4);
+		int longest = 2048 + (int) ((h & 0xffff) % 4096);
+		int shortest = (int) (longest * (0.5 + ((h >>> 16) & 0xff) / 512d));
+		if (((h >>> 24) & 3) == 0) {
+			return new int[] { shortest, longest };
+		}
+		return new int[] { longest, shortest };
+	}
+
+	private String getOwner(long index) {
+		long o = (hash(index, 5) & Long.MAX_VALUE) % nbOwners;
+		return (10000000 + o) + "@N0" + (o % 8);
+	}
+
+	/**
+	 * One page of a flickr.photos.search like response.
+	 */
+	public String getSearchResponse(int page, int perpage, String[] extras) {
+		int pages = (nbPhotos + perpage - 1) / perpage;
+		StringBuilder sb = new StringBuilder(512 + perpage * (300 + (extras == null ? 0 : extras.length * 120)));
+		sb.append("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<rsp stat=\"ok\">\n<photos");
+		appendAttribute(sb, "page", page);
+		appendAttribute(sb, "pages", pages);
+		appendAttribute(sb, "perpage", perpage);
+		appendAttribute(sb, "total", nbPhotos);
+		sb.append(">\n");
+		long first = (long) (page - 1) * perpage;
+		for (long index = first; (index < first + perpage) && (index < nbPhotos); index++) {
+			sb.append('\t');
+			appendPhoto(sb, index, extras);
+			sb.append('\n');
+		}
+		sb.append("</photos>\n</rsp>\n");
+		return sb.toString();
+	}
+
+	/**
+	 * A flickr.photos.getSizes like response, null if the id is unknown.
+	 */
+	public String getSizesResponse(long id) {
+		long index = getIndex(id);
+		if (index < 0) {
+			return null;
+		}
+
+		long h = hash(index, 0);
+		String owner = getOwner(index);
+		String secret = Long.toHexString(hash(index, 1) & 0xffffffffffL);
+		int server = 65535 - (int) ((h >>> 8) & 0xff);
+		int[] original = getOriginalDimensions(index);
+
+		StringBuilder sb = new StringBuilder("<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<rsp stat=\"ok\">\n<sizes canblog=\"0\" canprint=\"0\" candownload=\"1\">\n");
+		for (int s = 0; s < ALL_EXTRAS.length; s++) {
+			int[] dim = getDimensions(original, s);
+			sb.append("<size");
+			appendAttribute(sb, "label", LABELS[s]);
+			appendAttribute(sb, "width", dim[0]);
+			appendAttribute(sb, "height", dim[1]);
+			appendAttribute(sb, "source", getSource(server, id, secret, ALL_EXTRAS[s]));
+			appendAttribute(sb, "url", "https://www.flickr.com/photos/" + owner + "/" + id + "/sizes/" + ALL_EXTRAS[s] + "/");
+			appendAttribute(sb, "media", "photo");
+			sb.append(" />\n");
+		}
+		sb.append("</sizes>\n</rsp>\n");
+		return sb.toString();
+	}
+
+	private String getSource(int server, long id, String secret, String extra) {
+		return staticBaseUrl + "/" + server + "/" + id + "_" + secret + "_" + extra + ".jpg";
+	}
+
+	public String getStaticBaseUrl() {
+		return staticBaseUrl;
+	}
+
+	private String getWords(long index, int salt, int nb) {
+		long h = hash(index, salt);
+		StringBuilder sb = new StringBuilder();
+		for (int w = 0; w < nb; w++) {
+			if (w > 0) {
+				sb.append(' ');
+			}
+			sb.append(WORDS[(int) ((h >>> (w * 5)) & 0x1f) % WORDS.length]);
+		}
+		return sb.toString();
+	}
+
+	private long hash(long index, int salt) {
+		return mix(seed * 31 + index * 0x9e3779b97f4a7c15L + salt);
+	}
+
+	/**
+	 * Base of the image URLs, to serve them from a local server.
+	 */
+	public void setStaticBaseUrl(String staticBaseUrl) {
+		this.staticBaseUrl = staticBaseUrl;
+	}
+}
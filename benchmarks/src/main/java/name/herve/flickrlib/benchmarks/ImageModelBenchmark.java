@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import name.herve.flickrlib.FlickrException;
+import name.herve.flickrlib.FlickrImage;
+import name.herve.flickrlib.FlickrImageSize;
+import name.herve.flickrlib.FlickrXmlStreamParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Cost of reading the compact image model : the size lookups work on primitives, the sources
+ * are rebuilt on each call.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageModelBenchmark {
+	private final static int NB_PHOTOS = 500;
+
+	private List<FlickrImage> images;
+
+	@Benchmark
+	public void closestSize(Blackhole bh) {
+		for (FlickrImage img : images) {
+			bh.consume(img.getClosestSize(1000 * 800));
+		}
+	}
+
+	@Setup
+	public void setup() throws FlickrException {
+		FlickrSyntheticData data = new FlickrSyntheticData(42, NB_PHOTOS, NB_PHOTOS / 2);
+		String xml = data.getSearchResponse(1, NB_PHOTOS, FlickrSyntheticData.ALL_EXTRAS);
+		images = FlickrXmlStreamParser.parseImages(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Benchmark
+	public void sizes(Blackhole bh) {
+		for (FlickrImage img : images) {
+			for (FlickrImageSize sz : img.getSizes()) {
+				bh.consume(sz.getWidth());
+			}
+		}
+	}
+
+	@Benchmark
+	public void sources(Blackhole bh) {
+		for (FlickrImage img : images) {
+			for (FlickrImageSize sz : img.getSizes()) {
+				bh.consume(sz.getSource());
+			}
+		}
+	}
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntPredicate;
+
+import name.herve.flickrlib.FlickrException;
+import name.herve.flickrlib.FlickrImage;
+import name.herve.flickrlib.FlickrImageStore;
+import name.herve.flickrlib.FlickrXmlStreamParser;
+import name.herve.flickrlib.filters.MinSizeFilter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scanning the images of a search for a minimal size : over the image objects, over the column
+ * store through the filter and its view, and over the store columns directly.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ImageStoreBenchmark {
+	private final static int MIN_SIZE = 800;
+	private final static int NB_PAGES = 200;
+	private final static int NB_PHOTOS = 500;
+
+	private List<FlickrImage> images;
+	@Param({ "false", "true" })
+	private boolean offHeap;
+	private FlickrImageStore store;
+
+	@Benchmark
+	public int objects() {
+		MinSizeFilter filter = new MinSizeFilter(MIN_SIZE);
+		int nb = 0;
+		for (FlickrImage img : images) {
+			if (filter.match(img)) {
+				nb++;
+			}
+		}
+		return nb;
+	}
+
+	@Setup
+	public void setup() throws FlickrException {
+		FlickrSyntheticData data = new FlickrSyntheticData(42, NB_PHOTOS * NB_PAGES, NB_PHOTOS * NB_PAGES / 10);
+		images = new ArrayList<FlickrImage>();
+		store = new FlickrImageStore(NB_PHOTOS * NB_PAGES, offHeap);
+		for (int p = 1; p <= NB_PAGES; p++) {
+			String xml = data.getSearchResponse(p, NB_PHOTOS, FlickrSyntheticData.SEARCH_EXTRAS);
+			List<FlickrImage> page = FlickrXmlStreamParser.parseImages(new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+			images.addAll(page);
+			store.addAll(page);
+		}
+	}
+
+	@Benchmark
+	public int storeColumns() {
+		return store.selectRows(new IntPredicate() {
+			@Override
+			public boolean test(int row) {
+				return (store.getMaxWidth(row) >= MIN_SIZE) && (store.getMaxHeight(row) >= MIN_SIZE);
+			}
+		}).length;
+	}
+
+	@Benchmark
+	public int storeFilter() {
+		return store.select(new MinSizeFilter(MIN_SIZE)).length;
+	}
+}
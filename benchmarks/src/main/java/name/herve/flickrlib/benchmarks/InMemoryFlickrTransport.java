@@ -0,0 +1,116 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import name.herve.flickrlib.transport.FlickrTransport;
+import name.herve.flickrlib.transport.FlickrTransportResponse;
+
+/**
+ * Serves the synthetic API responses from memory. Each distinct request is generated once and
+ * then kept, so that the benchmarks measure the client side only.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class InMemoryFlickrTransport implements FlickrTransport {
+	static String getParameter(String query, String name) {
+		if (query == null) {
+			return null;
+		}
+		for (String p : query.split("&")) {
+			int eq = p.indexOf('=');
+			if ((eq > 0) && p.substring(0, eq).equals(name)) {
+				return p.substring(eq + 1);
+			}
+		}
+		return null;
+	}
+
+	static int getParameter(String query, String name, int defaultValue) {
+		String value = getParameter(query, name);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	static String getResponse(FlickrSyntheticData data, String query, String[] extras, int maxPerPage) {
+		String method = getParameter(query, "method");
+		if ("flickr.photos.search".equals(method) || "flickr.photos.getRecent".equals(method) || "flickr.interestingness.getList".equals(method)) {
+			int perpage = Math.max(1, Math.min(maxPerPage, getParameter(query, "per_page", 100)));
+			return data.getSearchResponse(Math.max(1, getParameter(query, "page", 1)), perpage, extras);
+		}
+		if ("flickr.photos.getSizes".equals(method)) {
+			try {
+				String sizes = data.getSizesResponse(Long.parseLong(getParameter(query, "photo_id")));
+				if (sizes != null) {
+					return sizes;
+				}
+			} catch (NumberFormatException e) {
+				// unknown photo
+			}
+			return "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<rsp stat=\"fail\">\n<err code=\"1\" msg=\"Photo not found\" />\n</rsp>\n";
+		}
+		if ("flickr.photos.licenses.getInfo".equals(method)) {
+			return data.getLicensesResponse();
+		}
+		if ("flickr.test.echo".equals(method)) {
+			return "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<rsp stat=\"ok\">\n<method>flickr.test.echo</method>\n</rsp>\n";
+		}
+		return "<?xml version=\"1.0\" encoding=\"utf-8\" ?>\n<rsp stat=\"fail\">\n<err code=\"112\" msg=\"Method &quot;" + method + "&quot; not found\" />\n</rsp>\n";
+	}
+
+	/**
+	 * Flickr never returns more than 500 photos per page.
+	 */
+	final static int MAX_PER_PAGE = 500;
+
+	private FlickrSyntheticData data;
+	private String[] extras;
+	private ConcurrentMap<String, byte[]> responses;
+
+	public InMemoryFlickrTransport(FlickrSyntheticData data, String[] extras) {
+		super();
+		this.data = data;
+		this.extras = extras;
+		responses = new ConcurrentHashMap<String, byte[]>();
+	}
+
+	@Override
+	public FlickrTransportResponse get(URL url) throws IOException {
+		String query = url.getQuery();
+		byte[] body = responses.get(query);
+		if (body == null) {
+			body = getResponse(data, query, extras, MAX_PER_PAGE).getBytes(StandardCharsets.UTF_8);
+			responses.put(query, body);
+		}
+		return new FlickrTransportResponse(200, body.length, new ByteArrayInputStream(body));
+	}
+}
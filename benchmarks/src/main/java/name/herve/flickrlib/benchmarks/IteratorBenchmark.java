@@ -0,0 +1,85 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import name.herve.flickrlib.FlickrFrontend;
+import name.herve.flickrlib.FlickrImage;
+import name.herve.flickrlib.FlickrSearchQuery;
+import name.herve.flickrlib.FlickrSearchResponse;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Paging through a whole search with FlickrSearchResponseIterator, against an in-memory
+ * transport. Throughput is in images per second.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IteratorBenchmark {
+	private final static int NB_PHOTOS = 10000;
+
+	private FlickrFrontend flickr;
+
+	@Param({ "100", "500" })
+	private int perpage;
+
+	@Param({ "0", "2" })
+	private int prefetch;
+
+	@Benchmark
+	@OperationsPerInvocation(NB_PHOTOS)
+	public void iterate(Blackhole bh) {
+		FlickrSearchQuery q = new FlickrSearchQuery("text=benchmark", NB_PHOTOS);
+		q.setPerpage(perpage);
+
+		FlickrSearchResponse response = new FlickrSearchResponse(flickr, q);
+		response.setPrefetch(prefetch);
+
+		for (FlickrImage i : response) {
+			bh.consume(i);
+		}
+	}
+
+	@Setup
+	public void setup() {
+		FlickrSyntheticData data = new FlickrSyntheticData(42, NB_PHOTOS, NB_PHOTOS / 4);
+		flickr = new FlickrFrontend("benchmark", new InMemoryFlickrTransport(data, FlickrSyntheticData.ALL_EXTRAS));
+	}
+}
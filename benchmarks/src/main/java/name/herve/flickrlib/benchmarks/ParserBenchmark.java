@@ -0,0 +1,92 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import name.herve.flickrlib.FlickrException;
+import name.herve.flickrlib.FlickrSearchResponseData;
+import name.herve.flickrlib.FlickrXmlParser;
+import name.herve.flickrlib.FlickrXmlStreamParser;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parsing of canned flickr.photos.search responses, with all the url_* extras, through the
+ * string based facade and through the streaming parser.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+	@Param({ "100", "500" })
+	private int nbPhotos;
+
+	private byte[] bytes;
+	private String xml;
+
+	@Benchmark
+	public FlickrSearchResponseData asResponseData() throws FlickrException {
+		return FlickrXmlParser.asResponseData(xml);
+	}
+
+	@Benchmark
+	public FlickrSearchResponseData asResponseDataStream() throws FlickrException {
+		return FlickrXmlStreamParser.asResponseData(new ByteArrayInputStream(bytes));
+	}
+
+	@Setup
+	public void setup() {
+		FlickrSyntheticData data = new FlickrSyntheticData(42, nbPhotos, nbPhotos / 2);
+		xml = data.getSearchResponse(1, nbPhotos, FlickrSyntheticData.ALL_EXTRAS);
+		bytes = xml.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public List<String> splitImagesXml() throws FlickrException {
+		return FlickrXmlParser.splitImagesXml(xml);
+	}
+
+	@Benchmark
+	public void splitAndParseImages(Blackhole bh) throws FlickrException {
+		for (String photo : FlickrXmlParser.splitImagesXml(xml)) {
+			bh.consume(FlickrXmlParser.parseImage(photo));
+		}
+	}
+}
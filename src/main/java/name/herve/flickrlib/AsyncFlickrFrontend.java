@@ -0,0 +1,200 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib;
+
+import java.awt.image.BufferedImage;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Asynchronous access to a {@link FlickrFrontend}. Calls are run on a bounded executor and their
+ * results are delivered through {@link CompletableFuture}s. A call never runs on, nor blocks, the
+ * caller's thread : when the executor rejects it, because its queue is full or it was shut down,
+ * the future completes exceptionally with the {@link RejectedExecutionException}.
+ * <p>
+ * The calls are the blocking ones of the frontend, run on the executor's threads : each request in
+ * flight holds one thread until its response is read, so the number of concurrent requests is the
+ * number of threads. The others wait in the queue.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class AsyncFlickrFrontend {
+	private final static int DEFAULT_QUEUE_SIZE = 1000;
+
+	private Executor executor;
+	private FlickrFrontend flickr;
+	private boolean ownExecutor;
+
+	public AsyncFlickrFrontend(FlickrFrontend flickr, Executor executor) {
+		super();
+
+		this.flickr = flickr;
+		this.executor = executor;
+		this.ownExecutor = false;
+	}
+
+	public AsyncFlickrFrontend(FlickrFrontend flickr, int nbThreads) {
+		this(flickr, nbThreads, DEFAULT_QUEUE_SIZE);
+	}
+
+	public AsyncFlickrFrontend(FlickrFrontend flickr, int nbThreads, int queueSize) {
+		this(flickr, createExecutor(nbThreads, queueSize));
+		this.ownExecutor = true;
+	}
+
+	private static ExecutorService createExecutor(int nbThreads, int queueSize) {
+		final AtomicInteger threadNumber = new AtomicInteger(0);
+
+		ThreadFactory tf = new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "AsyncFlickrFrontend-" + threadNumber.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		};
+
+		return new ThreadPoolExecutor(nbThreads, nbThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), tf, new ThreadPoolExecutor.AbortPolicy());
+	}
+
+	/**
+	 * Streams the original bytes of the image to the given file, see
+	 * {@link FlickrFrontend#downloadImage(FlickrImage, String, Path, FlickrProgressListener)}.
+	 */
+	public CompletableFuture<FlickrDownload> downloadImage(final FlickrImage fi, final String size, final Path target, final FlickrProgressListener l) {
+		return submit(new FlickrCall<FlickrDownload>() {
+			@Override
+			public FlickrDownload call() throws FlickrException {
+				return flickr.downloadImage(fi, size, target, l);
+			}
+		});
+	}
+
+	public FlickrFrontend getFrontend() {
+		return flickr;
+	}
+
+	public CompletableFuture<FlickrLicense> getLicense(final int id) {
+		return submit(new FlickrCall<FlickrLicense>() {
+			@Override
+			public FlickrLicense call() throws FlickrException {
+				return flickr.getLicense(id);
+			}
+		});
+	}
+
+	public CompletableFuture<List<FlickrImage>> getRandomInterestingImage(final int max, final FlickrProgressListener l) {
+		return submit(new FlickrCall<List<FlickrImage>>() {
+			@Override
+			public List<FlickrImage> call() throws FlickrException {
+				return flickr.getRandomInterestingImage(max, l);
+			}
+		});
+	}
+
+	public CompletableFuture<FlickrImage> getRandomRecentImage(final FlickrProgressListener l) {
+		return submit(new FlickrCall<FlickrImage>() {
+			@Override
+			public FlickrImage call() throws FlickrException {
+				return flickr.getRandomRecentImage(l);
+			}
+		});
+	}
+
+	public CompletableFuture<List<FlickrImage>> getRandomRecentImage(final int max, final FlickrProgressListener l) {
+		return submit(new FlickrCall<List<FlickrImage>>() {
+			@Override
+			public List<FlickrImage> call() throws FlickrException {
+				return flickr.getRandomRecentImage(max, l);
+			}
+		});
+	}
+
+	public CompletableFuture<BufferedImage> loadImage(final FlickrImage fi, final String size, final FlickrProgressListener l) {
+		return submit(new FlickrCall<BufferedImage>() {
+			@Override
+			public BufferedImage call() throws FlickrException {
+				return flickr.loadImage(fi, size, l);
+			}
+		});
+	}
+
+	public CompletableFuture<FlickrImage> populateAvailableSizes(final FlickrImage img) {
+		return submit(new FlickrCall<FlickrImage>() {
+			@Override
+			public FlickrImage call() throws FlickrException {
+				flickr.populateAvailableSizes(img, null);
+				return img;
+			}
+		});
+	}
+
+	/**
+	 * Fetches a single page of results. The following pages are obtained with
+	 * {@link FlickrSearchQuery#nextPageQuery()}.
+	 */
+	public CompletableFuture<FlickrSearchResponseData> search(final FlickrSearchQuery query) {
+		return submit(new FlickrCall<FlickrSearchResponseData>() {
+			@Override
+			public FlickrSearchResponseData call() throws FlickrException {
+				return flickr.searchAsData(query);
+			}
+		});
+	}
+
+	public void shutdown() {
+		if (ownExecutor) {
+			((ExecutorService) executor).shutdown();
+		}
+	}
+
+	private <T> CompletableFuture<T> submit(final FlickrCall<T> call) {
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					if (result.isDone()) {
+						return;
+					}
+					try {
+						result.complete(call.call());
+					} catch (Exception e) {
+						result.completeExceptionally(e);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			result.completeExceptionally(e);
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of download buffers, shared by the threads of a {@link FlickrFrontend}. The buffers are
+ * heap arrays whose sizes are powers of two, from {@link #MIN_BUFFER_SIZE} to the maximum buffer
+ * size. A request for a larger buffer is served with a fresh array that is not kept. Once the
+ * released buffers reach the maximum retained size, the next ones are left to the garbage
+ * collector.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrBufferPool {
+	public final static int DEFAULT_MAX_BUFFER_SIZE = 16 * 1024 * 1024;
+	public final static long DEFAULT_MAX_RETAINED = 64L * 1024 * 1024;
+	public final static int MIN_BUFFER_SIZE = 64 * 1024;
+
+	private final static int MIN_SHIFT = 16;
+
+	private static int getBucket(int size) {
+		if (size <= MIN_BUFFER_SIZE) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+	private List<ConcurrentLinkedQueue<byte[]>> free;
+	private int maxBufferSize;
+	private long maxRetained;
+	private AtomicLong retained;
+
+	public FlickrBufferPool() {
+		this(DEFAULT_MAX_BUFFER_SIZE, DEFAULT_MAX_RETAINED);
+	}
+
+	/**
+	 * @param maxBufferSize
+	 *            rounded up to a power of two
+	 * @param maxRetained
+	 *            bytes kept in the pool at most
+	 */
+	public FlickrBufferPool(int maxBufferSize, long maxRetained) {
+		super();
+
+		int nbBuckets = getBucket(maxBufferSize) + 1;
+		this.maxBufferSize = MIN_BUFFER_SIZE << (nbBuckets - 1);
+		this.maxRetained = maxRetained;
+
+		free = new ArrayList<ConcurrentLinkedQueue<byte[]>>(nbBuckets);
+		for (int b = 0; b < nbBuckets; b++) {
+			free.add(new ConcurrentLinkedQueue<byte[]>());
+		}
+		retained = new AtomicLong();
+	}
+
+	/**
+	 * @return a buffer of at least the given size, with unspecified content
+	 */
+	public byte[] acquire(int size) {
+		if (size > maxBufferSize) {
+			return new byte[size];
+		}
+
+		int bucket = getBucket(size);
+		byte[] buffer = free.get(bucket).poll();
+		if (buffer != null) {
+			retained.addAndGet(-buffer.length);
+			return buffer;
+		}
+		return new byte[MIN_BUFFER_SIZE << bucket];
+	}
+
+	public int getMaxBufferSize() {
+		return maxBufferSize;
+	}
+
+	public long getMaxRetained() {
+		return maxRetained;
+	}
+
+	/**
+	 * @return the bytes currently kept in the pool
+	 */
+	public long getRetained() {
+		return retained.get();
+	}
+
+	/**
+	 * Gives a buffer back to the pool. It must not be used by the caller afterwards.
+	 */
+	public void release(byte[] buffer) {
+		int length = buffer.length;
+		if ((length < MIN_BUFFER_SIZE) || (length > maxBufferSize) || (Integer.bitCount(length) != 1)) {
+			return;
+		}
+		if (retained.addAndGet(length) > maxRetained) {
+			retained.addAndGet(-length);
+			return;
+		}
+		free.get(getBucket(length)).offer(buffer);
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib;
+
+import java.io.IOException;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Image stream reading directly from a byte array. Unlike the streams built by
+ * {@link javax.imageio.ImageIO#read(java.io.InputStream)}, it neither copies the data to a memory
+ * cache nor to a temporary file.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+class FlickrByteArrayImageInputStream extends ImageInputStreamImpl {
+	private byte[] data;
+	private int length;
+	private int offset;
+
+	FlickrByteArrayImageInputStream(byte[] data, int offset, int length) {
+		super();
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	@Override
+	public long length() {
+		return length;
+	}
+
+	@Override
+	public int read() throws IOException {
+		checkClosed();
+		bitOffset = 0;
+		if (streamPos >= length) {
+			return -1;
+		}
+		return data[offset + (int) streamPos++] & 0xff;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		checkClosed();
+		bitOffset = 0;
+		if (len == 0) {
+			return 0;
+		}
+		if (streamPos >= length) {
+			return -1;
+		}
+		int n = (int) Math.min(len, length - streamPos);
+		System.arraycopy(data, offset + (int) streamPos, b, off, n);
+		streamPos += n;
+		return n;
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib;
+
+/**
+ * Stops sending requests to an endpoint whose recent error rate is too high. After a while, a
+ * single trial request is let through : its success closes the circuit again.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrCircuitBreaker {
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	private String endpoint;
+	private double errorRateThreshold;
+	private int minCalls;
+	private long openDuration;
+	private long openedAt;
+	private boolean[] outcomes;
+	private int nbCalls;
+	private int nbErrors;
+	private int next;
+	private State state;
+
+	/**
+	 * @param window
+	 *            number of recent calls on which the error rate is computed
+	 * @param minCalls
+	 *            minimum number of calls in the window before the circuit can open
+	 * @param errorRateThreshold
+	 *            error rate, between 0 and 1, above which the circuit opens
+	 * @param openDuration
+	 *            time, in milliseconds, before a trial request is allowed
+	 */
+	public FlickrCircuitBreaker(String endpoint, int window, int minCalls, double errorRateThreshold, long openDuration) {
+		super();
+
+		this.endpoint = endpoint;
+		this.minCalls = minCalls;
+		this.errorRateThreshold = errorRateThreshold;
+		this.openDuration = openDuration;
+
+		outcomes = new boolean[window];
+		nbCalls = 0;
+		nbErrors = 0;
+		next = 0;
+		state = State.CLOSED;
+	}
+
+	/**
+	 * @throws FlickrCircuitOpenException
+	 *             if the circuit is open
+	 */
+	public synchronized void acquire() throws FlickrCircuitOpenException {
+		if (state == State.OPEN) {
+			long elapsed = System.currentTimeMillis() - openedAt;
+			if (elapsed < openDuration) {
+				throw new FlickrCircuitOpenException("Circuit open for " + endpoint, openDuration - elapsed);
+			}
+			state = State.HALF_OPEN;
+		} else if (state == State.HALF_OPEN) {
+			throw new FlickrCircuitOpenException("Circuit half open for " + endpoint + ", waiting for the trial request", 0);
+		}
+	}
+
+	public String getEndpoint() {
+		return endpoint;
+	}
+
+	public synchronized double getErrorRate() {
+		return nbCalls == 0 ? 0 : nbErrors / (double) nbCalls;
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openedAt = System.currentTimeMillis();
+	}
+
+	private void record(boolean error) {
+		if (nbCalls == outcomes.length) {
+			if (outcomes[next]) {
+				nbErrors--;
+			}
+		} else {
+			nbCalls++;
+		}
+		outcomes[next] = error;
+		if (error) {
+			nbErrors++;
+		}
+		next = (next + 1) % outcomes.length;
+	}
+
+	public synchronized void recordFailure() {
+		record(true);
+		if (state == State.HALF_OPEN) {
+			open();
+		} else if ((state == State.CLOSED) && (nbCalls >= minCalls) && (getErrorRate() >= errorRateThreshold)) {
+			open();
+		}
+	}
+
+	public synchronized void recordSuccess() {
+		record(false);
+		if (state == State.HALF_OPEN) {
+			state = State.CLOSED;
+			nbCalls = 0;
+			nbErrors = 0;
+			next = 0;
+		}
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Growable column of fixed width values, on the heap or in a direct buffer outside of it. Values
+ * are addressed by row for ints and longs, by byte offset for raw bytes. The capacity doubles when
+ * needed, up to 2 GB per column.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+class FlickrColumn {
+	private final static int MIN_CAPACITY = 64;
+
+	private ByteBuffer buffer;
+	private boolean direct;
+
+	FlickrColumn(int capacity, boolean direct) {
+		super();
+		this.direct = direct;
+		this.buffer = allocate(Math.max(capacity, MIN_CAPACITY));
+	}
+
+	private ByteBuffer allocate(int capacity) {
+		ByteBuffer b = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+		return b.order(ByteOrder.nativeOrder());
+	}
+
+	private void ensure(long bytes) {
+		if (bytes <= buffer.capacity()) {
+			return;
+		}
+		if (bytes > Integer.MAX_VALUE - 8) {
+			throw new IllegalStateException("Column full (" + buffer.capacity() + " bytes)");
+		}
+		long capacity = Math.min(Math.max(bytes, 2L * buffer.capacity()), Integer.MAX_VALUE - 8);
+		ByteBuffer grown = allocate((int) capacity);
+		ByteBuffer old = buffer.duplicate();
+		old.clear();
+		grown.put(old);
+		grown.clear();
+		buffer = grown;
+	}
+
+	void get(int offset, byte[] dst) {
+		ByteBuffer b = buffer.duplicate();
+		b.position(offset);
+		b.get(dst);
+	}
+
+	int getCapacity() {
+		return buffer.capacity();
+	}
+
+	int getInt(int row) {
+		return buffer.getInt(row << 2);
+	}
+
+	long getLong(int row) {
+		return buffer.getLong(row << 3);
+	}
+
+	boolean isDirect() {
+		return direct;
+	}
+
+	void put(int offset, byte[] src) {
+		ensure((long) offset + src.length);
+		ByteBuffer b = buffer.duplicate();
+		b.position(offset);
+		b.put(src);
+	}
+
+	void setInt(int row, int value) {
+		ensure(((long) row + 1) << 2);
+		buffer.putInt(row << 2, value);
+	}
+
+	void setLong(int row, long value) {
+		ensure(((long) row + 1) << 3);
+		buffer.putLong(row << 3, value);
+	}
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib;
+
+/**
+ * Outcome of {@link FlickrFrontend#downloadImage(FlickrImage, String, java.nio.file.Path, FlickrProgressListener)}.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrDownload {
+	private long bytes;
+	private int height;
+	private int width;
+
+	public FlickrDownload(int width, int height, long bytes) {
+		super();
+
+		this.width = width;
+		this.height = height;
+		this.bytes = bytes;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+}
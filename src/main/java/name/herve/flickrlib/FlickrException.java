@@ -26,10 +26,25 @@ package name.herve.flickrlib;
 public class FlickrException extends Exception {
 	private static final long serialVersionUID = -1723265347410627757L;
 
+	private int errorCode = -1;
+	private int httpStatus = -1;
+
 	public FlickrException() {
 		super();
 	}
 
+	/**
+	 * @param httpStatus
+	 *            HTTP status of the response, -1 if not relevant
+	 * @param errorCode
+	 *            Flickr error code of a <code>stat="fail"</code> response, -1 if not relevant
+	 */
+	public FlickrException(String message, int httpStatus, int errorCode) {
+		super(message);
+		this.httpStatus = httpStatus;
+		this.errorCode = errorCode;
+	}
+
 	public FlickrException(String message, Throwable cause) {
 		super(message, cause);
 	}
@@ -42,4 +57,12 @@ public class FlickrException extends Exception {
 		super(cause);
 	}
 
+	public int getErrorCode() {
+		return errorCode;
+	}
+
+	public int getHttpStatus() {
+		return httpStatus;
+	}
+
 }
@@ -20,16 +20,22 @@
 package name.herve.flickrlib;
 
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -39,7 +45,16 @@ import java.util.StringTokenizer;
 
 import javax.imageio.ImageIO;
 
+import name.herve.flickrlib.cache.FlickrResponseCache;
 import name.herve.flickrlib.filters.FlickrSearchResponseFilter;
+import name.herve.flickrlib.jfr.FlickrApiCallEvent;
+import name.herve.flickrlib.jfr.FlickrEvents;
+import name.herve.flickrlib.jfr.FlickrImageDownloadEvent;
+import name.herve.flickrlib.metrics.FlickrMetrics;
+import name.herve.flickrlib.transport.DefaultFlickrTransport;
+import name.herve.flickrlib.transport.FlickrTransport;
+import name.herve.flickrlib.transport.FlickrTransportResponse;
+import name.herve.flickrlib.util.PhotoIds;
 import plugins.nherve.toolbox.Algorithm;
 
 /**
@@ -48,95 +63,223 @@ import plugins.nherve.toolbox.Algorithm;
  */
 public class FlickrFrontend {
 	private final static String API_URL = "https://api.flickr.com/services/rest/";
+	private final static String STAT_OK = "stat=\"ok\"";
 
+	/**
+	 * System property overriding the default API base URL, e.g. to point the grab tools at a local
+	 * server.
+	 */
+	public final static String API_URL_PROPERTY = "flickrlib.api.url";
+
+	private String apiUrl;
 	private String applicationKey;
+	private FlickrBufferPool bufferPool;
+	private FlickrResponseCache cache;
 	private boolean debug;
 	private String endpoint;
-	private Map<Integer, FlickrLicense> licenses;
+	private volatile Map<Integer, FlickrLicense> licenses;
+	private FlickrMetrics metrics;
+	private boolean offline;
 	private Random rand;
+	private FlickrRateLimiter rateLimiter;
+	private FlickrResilience resilience;
+	private FlickrSizeIndex sizeIndex;
+	private FlickrSizeResolver sizeResolver;
+	private FlickrTransport transport;
 
 	public FlickrFrontend(String key) {
+		this(key, new DefaultFlickrTransport());
+	}
+
+	public FlickrFrontend(String key, FlickrTransport transport) {
 		super();
 		setDebug(false);
+		this.transport = transport;
 		rand = new Random(System.currentTimeMillis());
 
 		applicationKey = key;
-		endpoint = API_URL + "?api_key=" + applicationKey;
+		setApiUrl(System.getProperty(API_URL_PROPERTY, API_URL));
 		licenses = null;
+		cache = null;
+		offline = false;
+		sizeIndex = null;
+		rateLimiter = null;
+		metrics = null;
+		resilience = new FlickrResilience();
+		bufferPool = new FlickrBufferPool();
+		sizeResolver = new FlickrSizeResolver() {
+			@Override
+			public void resolveSizes(FlickrImage img) throws FlickrException {
+				populateAvailableSizes(img, null);
+			}
+		};
+	}
+
+	private void acquire(FlickrRateLimiter.Kind kind) throws FlickrException {
+		if (rateLimiter != null) {
+			try {
+				rateLimiter.acquire(kind);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new FlickrException(e);
+			}
+		}
 	}
 
 	public void checkConnection() throws FlickrException {
-		send("flickr.test.echo", null);
+		execute("flickr.test.echo", new FlickrCall<Void>() {
+			@Override
+			public Void call() throws FlickrException {
+				InputStream in = send("flickr.test.echo", null);
+				try {
+					FlickrXmlStreamParser.parseImages(in);
+				} finally {
+					close(in);
+				}
+				return null;
+			}
+		});
+	}
+
+	private void close(InputStream in) {
+		try {
+			in.close();
+		} catch (IOException e) {
+			// ignore
+		}
+	}
+
+	private void commit(FlickrImageDownloadEvent event, FlickrImage fi, String size, URL url) {
+		if (event == null) {
+			return;
+		}
+		event.end();
+		if (event.shouldCommit()) {
+			event.photoId = fi.getId();
+			event.size = size;
+			event.host = url.getHost();
+			event.commit();
+		}
 	}
 
-	private List<FlickrImage> getFromXml(String fullXml, FlickrProgressListener l) throws FlickrException {
+	private <T> T execute(String endpoint, FlickrCall<T> call) throws FlickrException {
+		return execute(endpoint, call, true);
+	}
+
+	private <T> T execute(String endpoint, FlickrCall<T> call, boolean retry) throws FlickrException {
+		FlickrMetrics m = metrics;
+		long start = 0;
+		if (m != null) {
+			m.requestStarted();
+			start = System.nanoTime();
+		}
+
+		boolean error = true;
+		try {
+			T result = null;
+			if (resilience == null) {
+				result = call.call();
+			} else if (retry) {
+				result = resilience.execute(endpoint, call);
+			} else {
+				result = resilience.executeOnce(endpoint, call);
+			}
+			error = false;
+			return result;
+		} finally {
+			if (m != null) {
+				m.requestDone(endpoint, System.nanoTime() - start, error);
+			}
+		}
+	}
+
+	private List<FlickrImage> getFromXml(InputStream in, FlickrProgressListener l) throws FlickrException {
 		List<FlickrImage> result = new ArrayList<FlickrImage>();
 
-		result.addAll(getFromXmlAsList(fullXml, l));
+		result.addAll(getFromXmlAsList(in, l));
 
 		return result;
 	}
 
-	private FlickrSearchResponseData getFromXmlAsData(String fullXml) throws FlickrException {
-		FlickrSearchResponseData data = FlickrXmlParser.asResponseData(fullXml);
+	private FlickrSearchResponseData getFromXmlAsData(InputStream in) throws FlickrException {
+		FlickrSearchResponseData data = null;
+		try {
+			data = FlickrXmlStreamParser.asResponseData(in);
+		} finally {
+			close(in);
+		}
 
 		for (FlickrImage img : data.getPictures()) {
-			populateLicense(img);
-			populateAvailableSizes(img, null);
+			if (!img.isSizesDone()) {
+				img.setSizeResolver(sizeResolver);
+			}
 		}
 
 		return data;
 	}
 
-	private List<FlickrImage> getFromXmlAsList(String fullXml, FlickrProgressListener l) throws FlickrException {
+	private List<FlickrImage> getFromXmlAsList(InputStream in, FlickrProgressListener l) throws FlickrException {
 		l.notifyNewProgressionStep("Parsing images response");
-		List<String> imagesXml = FlickrXmlParser.splitImagesXml(fullXml);
-		if (imagesXml.size() == 0) {
-			throw new FlickrException("No image found");
+		List<FlickrImage> images = null;
+		try {
+			images = FlickrXmlStreamParser.parseImages(in);
+		} finally {
+			close(in);
 		}
-
-		List<FlickrImage> result = new ArrayList<FlickrImage>();
-
-		for (String xml : imagesXml) {
-			FlickrImage img = FlickrXmlParser.parseImage(xml);
-			populateLicense(img);
-			result.add(img);
+		if (images.size() == 0) {
+			throw new FlickrException("No image found");
 		}
 
-		return result;
+		return images;
 	}
 
+	/**
+	 * The licenses are fetched on the first call, without holding a lock : threads that ask for them
+	 * at the same time may each send the request.
+	 */
 	public FlickrLicense getLicense(int id) throws FlickrException {
-		if (licenses == null) {
-			String fullXml = send("flickr.photos.licenses.getInfo", null);
+		Map<Integer, FlickrLicense> known = licenses;
+		if (known == null) {
+			List<FlickrLicense> all = execute("flickr.photos.licenses.getInfo", new FlickrCall<List<FlickrLicense>>() {
+				@Override
+				public List<FlickrLicense> call() throws FlickrException {
+					InputStream in = send("flickr.photos.licenses.getInfo", null);
+					try {
+						return FlickrXmlStreamParser.parseLicenses(in);
+					} finally {
+						close(in);
+					}
+				}
+			});
 
-			licenses = new HashMap<Integer, FlickrLicense>();
-			for (String xml : FlickrXmlParser.splitLicensesXml(fullXml)) {
-				FlickrLicense l = FlickrXmlParser.parseLicense(xml);
-				licenses.put(l.getId(), l);
+			known = new HashMap<Integer, FlickrLicense>();
+			for (FlickrLicense l : all) {
+				known.put(l.getId(), l);
 			}
+			licenses = known;
 		}
 
-		return licenses.get(id);
+		return known.get(id);
 	}
 
-	private List<FlickrImage> getRandomFromXml(String fullXml, int max, FlickrProgressListener l) throws FlickrException {
+	private List<FlickrImage> getRandomFromXml(InputStream in, int max, FlickrProgressListener l) throws FlickrException {
 		l.notifyNewProgressionStep("Parsing images response");
-		List<String> imagesXml = FlickrXmlParser.splitImagesXml(fullXml);
-		if (imagesXml.size() == 0) {
+		List<FlickrImage> images = null;
+		try {
+			images = FlickrXmlStreamParser.parseImages(in);
+		} finally {
+			close(in);
+		}
+		if (images.size() == 0) {
 			throw new FlickrException("No image found");
 		}
 
 		List<FlickrImage> result = new ArrayList<FlickrImage>();
 
 		do {
-			int choosen = rand.nextInt(imagesXml.size());
-			String xmlChoosen = imagesXml.get(choosen);
-			FlickrImage img = FlickrXmlParser.parseImage(xmlChoosen);
-			populateLicense(img);
-			imagesXml.remove(choosen);
-			result.add(img);
-		} while (!imagesXml.isEmpty() && (result.size() < max));
+			int choosen = rand.nextInt(images.size());
+			result.add(images.remove(choosen));
+		} while (!images.isEmpty() && (result.size() < max));
 
 		return result;
 	}
@@ -145,98 +288,377 @@ public class FlickrFrontend {
 		return getRandomInterestingImage(1, l).get(0);
 	}
 
-	public List<FlickrImage> getRandomInterestingImage(int max, FlickrProgressListener l) throws FlickrException {
-		String fullXml = send("flickr.interestingness.getList&extras=license", l);
-		return getRandomFromXml(fullXml, max, l);
+	public List<FlickrImage> getRandomInterestingImage(final int max, final FlickrProgressListener l) throws FlickrException {
+		return populateLicenses(execute("flickr.interestingness.getList", new FlickrCall<List<FlickrImage>>() {
+			@Override
+			public List<FlickrImage> call() throws FlickrException {
+				return getRandomFromXml(send("flickr.interestingness.getList&extras=license", l), max, l);
+			}
+		}));
 	}
 
 	public FlickrImage getRandomRecentImage(FlickrProgressListener l) throws FlickrException {
 		return getRandomRecentImage(1, l).get(0);
 	}
 
-	public List<FlickrImage> getRandomRecentImage(int max, FlickrProgressListener l) throws FlickrException {
-		String fullXml = send("flickr.photos.getRecent&extras=license", l);
-		return getRandomFromXml(fullXml, max, l);
+	public List<FlickrImage> getRandomRecentImage(final int max, final FlickrProgressListener l) throws FlickrException {
+		return populateLicenses(execute("flickr.photos.getRecent", new FlickrCall<List<FlickrImage>>() {
+			@Override
+			public List<FlickrImage> call() throws FlickrException {
+				return getRandomFromXml(send("flickr.photos.getRecent&extras=license", l), max, l);
+			}
+		}));
 	}
 
 	public FlickrImage getRandomSearchByTagImage(String tags, FlickrProgressListener l) throws FlickrException {
 		return getRandomSearchByTagImage(tags, 1, l).get(0);
 	}
 
-	public List<FlickrImage> getRandomSearchByTagImage(String tags, int max, FlickrProgressListener l) throws FlickrException {
-		return getRandomFromXml(searchByTags(tags, l), max, l);
+	public List<FlickrImage> getRandomSearchByTagImage(final String tags, final int max, final FlickrProgressListener l) throws FlickrException {
+		return populateLicenses(execute("flickr.photos.search", new FlickrCall<List<FlickrImage>>() {
+			@Override
+			public List<FlickrImage> call() throws FlickrException {
+				return getRandomFromXml(searchByTags(tags, l), max, l);
+			}
+		}));
 	}
 
-	public List<FlickrImage> getSearchByExpertQuery(String query, FlickrProgressListener l) throws FlickrException {
-		return getFromXml(searchByExpertQuery(query, l), l);
+	public List<FlickrImage> getSearchByExpertQuery(final String query, final FlickrProgressListener l) throws FlickrException {
+		return populateLicenses(execute("flickr.photos.search", new FlickrCall<List<FlickrImage>>() {
+			@Override
+			public List<FlickrImage> call() throws FlickrException {
+				return getFromXml(searchByExpertQuery(query, l), l);
+			}
+		}));
 	}
 
-	public boolean isDebug() {
-		return debug;
+	/**
+	 * Streams the original bytes of the image to the given file, without decoding them.
+	 * 
+	 * @return null if interrupted by the listener
+	 */
+	public FlickrDownload downloadImage(final FlickrImage fi, final String size, final Path target, final FlickrProgressListener l) throws FlickrException {
+		return execute(fi.getImageURL(size).getHost(), new FlickrCall<FlickrDownload>() {
+			@Override
+			public FlickrDownload call() throws FlickrException {
+				FileChannel out = null;
+				try {
+					out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+					return transferImage(fi, size, out, l);
+				} catch (IOException e) {
+					throw new FlickrException(e);
+				} finally {
+					if (out != null) {
+						try {
+							out.close();
+						} catch (IOException e) {
+							// ignore
+						}
+					}
+				}
+			}
+		});
 	}
 
-	public BufferedImage loadImage(FlickrImage fi, String size, FlickrProgressListener l) throws FlickrException {
-		URL url = fi.getImageURL(size);
-		log("Loading " + fi.getId() + " - " + url);
-		return loadImage(url, l);
+	/**
+	 * Streams the original bytes of the image to the given channel, without decoding them. The
+	 * dimensions are read from the image header. As bytes may already have been written, a failed
+	 * download is not retried.
+	 * 
+	 * @return null if interrupted by the listener
+	 */
+	public FlickrDownload downloadImage(final FlickrImage fi, final String size, final WritableByteChannel target, final FlickrProgressListener l) throws FlickrException {
+		return execute(fi.getImageURL(size).getHost(), new FlickrCall<FlickrDownload>() {
+			@Override
+			public FlickrDownload call() throws FlickrException {
+				return transferImage(fi, size, target, l);
+			}
+		}, false);
 	}
 
-	private BufferedImage loadImage(URL url, FlickrProgressListener l) throws FlickrException {
+	private FlickrDownload transferImage(FlickrImage fi, String size, WritableByteChannel target, FlickrProgressListener l) throws FlickrException {
+		URL url = fi.getImageURL(size);
+		log("Downloading " + fi.getId() + " - " + url);
+
+		FlickrImageDownloadEvent event = FlickrEvents.newImageDownloadEvent();
 		try {
 			if (l != null) {
 				l.notifyNewProgressionStep("Downloading image");
 			}
 
-			URLConnection uc = url.openConnection();
-			uc.setDefaultUseCaches(false);
-			uc.setUseCaches(false);
-			uc.setRequestProperty("Cache-Control", "no-cache");
-			uc.setRequestProperty("Pragma", "no-cache");
+			long start = System.nanoTime();
+			acquire(FlickrRateLimiter.Kind.IMAGE);
+			if (event != null) {
+				event.rateLimitWait = System.nanoTime() - start;
+			}
+
+			FlickrTransportResponse response = transport.get(url);
+			setTimings(event, response);
+			if (!response.isSuccess()) {
+				response.close();
+				throw new FlickrException("HTTP error " + response.getStatus() + " for " + url, response.getStatus(), -1);
+			}
 
-			InputStream in = uc.getInputStream();
-			int len = uc.getContentLength();
+			long len = response.getContentLength();
+			ReadableByteChannel in = Channels.newChannel(response.getBody());
+			start = System.nanoTime();
 
-			final int READ_BLOCKSIZE = 64 * 1024;
-			final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-			final byte[] data = new byte[READ_BLOCKSIZE];
+			final int HEADER_SIZE = 64 * 1024;
+			final byte[] pooled = bufferPool.acquire(FlickrBufferPool.MIN_BUFFER_SIZE);
+			final ByteBuffer buffer = ByteBuffer.wrap(pooled);
+			final byte[] header = bufferPool.acquire(HEADER_SIZE);
+			int headerLen = 0;
+			long off = 0;
+			int[] dim = null;
 
 			try {
-				int off = 0;
 				int count = 0;
-
-				while (count >= 0) {
-					count = in.read(data);
-					if (count < 0) {
-						if ((len != -1) && (off != len))
-							throw new EOFException("Unexpected end of data at " + off + " (" + len + " expected)");
-					} else {
-						off += count;
+				while ((count = in.read(buffer)) >= 0) {
+					buffer.flip();
+					if (headerLen < HEADER_SIZE) {
+						int h = Math.min(count, HEADER_SIZE - headerLen);
+						System.arraycopy(buffer.array(), 0, header, headerLen, h);
+						headerLen += h;
 					}
-
-					if (count > 0) {
-						buffer.write(data, 0, count);
+					while (buffer.hasRemaining()) {
+						target.write(buffer);
 					}
+					buffer.clear();
+					off += count;
 
 					if (l != null) {
 						if (!l.notifyProgress(off, len)) {
-							in.close();
-							System.out.println("Interrupted by user.");
+							log("Download of " + fi.getId() + " interrupted by user");
 							return null;
 						}
 					}
 				}
+
+				if ((len != -1) && (off != len)) {
+					throw new EOFException("Unexpected end of data at " + off + " (" + len + " expected)");
+				}
+
+				dim = FlickrImageHeader.readDimensions(header, headerLen);
 			} finally {
 				in.close();
+				bufferPool.release(pooled);
+				bufferPool.release(header);
+				if (event != null) {
+					event.transfer = System.nanoTime() - start;
+					event.bytes = off;
+				}
 			}
 
-			ByteArrayInputStream is = new ByteArrayInputStream(buffer.toByteArray());
+			if (dim == null) {
+				FlickrImageSize sz = fi.getAvailableSize(size);
+				dim = new int[] { sz.getWidth(), sz.getHeight() };
+			}
 
-			BufferedImage img = ImageIO.read(is);
-			is.close();
+			if (metrics != null) {
+				metrics.recordImage(off);
+			}
 
-			return img;
-		} catch (Throwable e) {
+			return new FlickrDownload(dim[0], dim[1], off);
+		} catch (IOException e) {
 			throw new FlickrException(e);
+		} finally {
+			commit(event, fi, size, url);
+		}
+	}
+
+	private static String getParameter(String method, String name) {
+		String key = "&" + name + "=";
+		int start = method.indexOf(key);
+		if (start < 0) {
+			return null;
+		}
+		start += key.length();
+		int end = method.indexOf('&', start);
+		return (end < 0) ? method.substring(start) : method.substring(start, end);
+	}
+
+	public FlickrBufferPool getBufferPool() {
+		return bufferPool;
+	}
+
+	public FlickrMetrics getMetrics() {
+		return metrics;
+	}
+
+	public FlickrRateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	public String getApiUrl() {
+		return apiUrl;
+	}
+
+	public FlickrResilience getResilience() {
+		return resilience;
+	}
+
+	public FlickrSizeIndex getSizeIndex() {
+		return sizeIndex;
+	}
+
+	public FlickrTransport getTransport() {
+		return transport;
+	}
+
+	public FlickrResponseCache getCache() {
+		return cache;
+	}
+
+	public boolean isDebug() {
+		return debug;
+	}
+
+	public boolean isOffline() {
+		return offline;
+	}
+
+	private boolean isOk(byte[] response) {
+		final byte[] ok = STAT_OK.getBytes();
+		int max = Math.min(response.length, 512) - ok.length;
+		for (int i = 0; i <= max; i++) {
+			int j = 0;
+			while ((j < ok.length) && (response[i + j] == ok[j])) {
+				j++;
+			}
+			if (j == ok.length) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public BufferedImage loadImage(FlickrImage fi, String size, final FlickrProgressListener l) throws FlickrException {
+		final URL url = fi.getImageURL(size);
+		log("Loading " + fi.getId() + " - " + url);
+		return execute(url.getHost(), new FlickrCall<BufferedImage>() {
+			@Override
+			public BufferedImage call() throws FlickrException {
+				return loadImage(fi, size, url, l);
+			}
+		});
+	}
+
+	private BufferedImage loadImage(FlickrImage fi, String size, URL url, FlickrProgressListener l) throws FlickrException {
+		FlickrImageDownloadEvent event = FlickrEvents.newImageDownloadEvent();
+		try {
+			if (l != null) {
+				l.notifyNewProgressionStep("Downloading image");
+			}
+
+			long start = System.nanoTime();
+			acquire(FlickrRateLimiter.Kind.IMAGE);
+			if (event != null) {
+				event.rateLimitWait = System.nanoTime() - start;
+			}
+
+			FlickrTransportResponse response = transport.get(url);
+			setTimings(event, response);
+			if (!response.isSuccess()) {
+				response.close();
+				throw new FlickrException("HTTP error " + response.getStatus() + " for " + url, response.getStatus(), -1);
+			}
+
+			InputStream in = response.getBody();
+			long len = response.getContentLength();
+
+			// presized from the content length, bodies too large for a pooled buffer go to a temporary file
+			int maxBufferSize = bufferPool.getMaxBufferSize();
+			byte[] buffer = bufferPool.acquire(((len > 0) && (len <= maxBufferSize)) ? (int) len : FlickrBufferPool.MIN_BUFFER_SIZE);
+			int filled = 0;
+			long off = 0;
+			Path spill = null;
+			OutputStream spillOut = null;
+			start = System.nanoTime();
+
+			try {
+				try {
+					if (len > maxBufferSize) {
+						spill = Files.createTempFile("flickrlib-", ".img");
+						spillOut = Files.newOutputStream(spill);
+					}
+
+					int count = 0;
+					while ((count >= 0) && ((len == -1) || (off < len))) {
+						if (filled == buffer.length) {
+							if ((spillOut == null) && (buffer.length < maxBufferSize)) {
+								byte[] larger = bufferPool.acquire(buffer.length * 2);
+								System.arraycopy(buffer, 0, larger, 0, filled);
+								bufferPool.release(buffer);
+								buffer = larger;
+							} else {
+								if (spillOut == null) {
+									spill = Files.createTempFile("flickrlib-", ".img");
+									spillOut = Files.newOutputStream(spill);
+								}
+								spillOut.write(buffer, 0, filled);
+								filled = 0;
+							}
+						}
+
+						count = in.read(buffer, filled, buffer.length - filled);
+						if (count < 0) {
+							if ((len != -1) && (off != len))
+								throw new EOFException("Unexpected end of data at " + off + " (" + len + " expected)");
+						} else {
+							filled += count;
+							off += count;
+						}
+
+						if (l != null) {
+							if (!l.notifyProgress(off, len)) {
+								System.out.println("Interrupted by user.");
+								return null;
+							}
+						}
+					}
+
+					if (spillOut != null) {
+						spillOut.write(buffer, 0, filled);
+					}
+				} finally {
+					in.close();
+					if (spillOut != null) {
+						spillOut.close();
+					}
+					if (event != null) {
+						event.transfer = System.nanoTime() - start;
+						event.bytes = off;
+					}
+				}
+
+				if (metrics != null) {
+					metrics.recordImage(off);
+				}
+
+				start = System.nanoTime();
+				BufferedImage img = null;
+				if (spill != null) {
+					img = ImageIO.read(spill.toFile());
+				} else {
+					img = ImageIO.read(new FlickrByteArrayImageInputStream(buffer, 0, filled));
+				}
+				if (event != null) {
+					event.decode = System.nanoTime() - start;
+				}
+
+				return img;
+			} finally {
+				bufferPool.release(buffer);
+				if (spill != null) {
+					Files.deleteIfExists(spill);
+				}
+			}
+		} catch (IOException e) {
+			throw new FlickrException(e);
+		} catch (RuntimeException e) {
+			throw new FlickrException(e);
+		} finally {
+			commit(event, fi, size, url);
 		}
 	}
 
@@ -258,15 +680,51 @@ public class FlickrFrontend {
 
 	void populateAvailableSizes(FlickrImage img, FlickrProgressListener l) throws FlickrException {
 		if (!img.isSizesDone()) {
+			long photoId = -1;
+			if (sizeIndex != null) {
+				try {
+					photoId = PhotoIds.parse(img.getId());
+					List<FlickrImageSize> sizes = (photoId > 0) ? sizeIndex.get(photoId) : null;
+					if (sizes != null) {
+						for (FlickrImageSize sz : sizes) {
+							img.addAvailableSize(sz);
+						}
+						img.setSizesDone(true);
+						return;
+					}
+				} catch (IOException e) {
+					log("Size index unavailable : " + e.getMessage());
+				}
+			}
+
 			if (l != null) {
 				l.notifyNewProgressionStep("Getting available sizes");
 			}
-			String fullXml = send("flickr.photos.getSizes&photo_id=" + img.getId(), l);
-			List<String> sizesXml = FlickrXmlParser.splitSizesXml(fullXml);
-			for (String sz : sizesXml) {
-				img.addAvailableSize(FlickrXmlParser.parseSize(sz));
+			final String method = "flickr.photos.getSizes&photo_id=" + img.getId();
+			final FlickrProgressListener fl = l;
+			List<FlickrImageSize> sizes = execute("flickr.photos.getSizes", new FlickrCall<List<FlickrImageSize>>() {
+				@Override
+				public List<FlickrImageSize> call() throws FlickrException {
+					InputStream in = send(method, fl);
+					try {
+						return FlickrXmlStreamParser.parseSizes(in);
+					} finally {
+						close(in);
+					}
+				}
+			});
+			for (FlickrImageSize sz : sizes) {
+				img.addAvailableSize(sz);
 			}
 			img.setSizesDone(true);
+
+			if (photoId > 0) {
+				try {
+					sizeIndex.put(photoId, sizes);
+				} catch (IOException e) {
+					log("Size index unavailable : " + e.getMessage());
+				}
+			}
 		}
 	}
 
@@ -276,6 +734,17 @@ public class FlickrFrontend {
 		}
 	}
 
+	/**
+	 * Called once the images are received, outside of the call that fetched them : the licenses
+	 * request has its own retries and its own circuit.
+	 */
+	private List<FlickrImage> populateLicenses(List<FlickrImage> images) throws FlickrException {
+		for (FlickrImage img : images) {
+			populateLicense(img);
+		}
+		return images;
+	}
+
 	public FlickrSearchResponse search(FlickrSearchQuery query) throws FlickrException {
 		return new FlickrSearchResponse(this, query);
 	}
@@ -284,11 +753,22 @@ public class FlickrFrontend {
 		return new FlickrSearchResponse(this, query, filter);
 	}
 
-	FlickrSearchResponseData searchAsData(FlickrSearchQuery query) throws FlickrException {
-		return getFromXmlAsData(searchByExpertQuery(query.getEffectiveQuery(), null));
+	FlickrSearchResponseData searchAsData(final FlickrSearchQuery query) throws FlickrException {
+		FlickrSearchResponseData data = execute("flickr.photos.search", new FlickrCall<FlickrSearchResponseData>() {
+			@Override
+			public FlickrSearchResponseData call() throws FlickrException {
+				FlickrSearchResponseData page = getFromXmlAsData(searchByExpertQuery(query.getEffectiveQuery(), null));
+				if (metrics != null) {
+					metrics.recordPage();
+				}
+				return page;
+			}
+		});
+		populateLicenses(data.getPictures());
+		return data;
 	}
 
-	private String searchByExpertQuery(String query, FlickrProgressListener l) throws FlickrException {
+	private InputStream searchByExpertQuery(String query, FlickrProgressListener l) throws FlickrException {
 		if ((query == null) || (query.length() == 0)) {
 			throw new FlickrException("Invalid query");
 		}
@@ -296,7 +776,7 @@ public class FlickrFrontend {
 		return send("flickr.photos.search&extras=license&" + query, l);
 	}
 
-	private String searchByTags(String tags, FlickrProgressListener l) throws FlickrException {
+	private InputStream searchByTags(String tags, FlickrProgressListener l) throws FlickrException {
 		if (tags == null) {
 			throw new FlickrException("Invalid tags");
 		}
@@ -318,42 +798,119 @@ public class FlickrFrontend {
 		return send("flickr.photos.search&extras=license&tag_mode=all&sort=interestingness-desc&tags=" + newTags, l);
 	}
 
-	private String send(String method, FlickrProgressListener l) throws FlickrException {
+	private InputStream send(String method, FlickrProgressListener l) throws FlickrException {
+		FlickrApiCallEvent event = FlickrEvents.newApiCallEvent();
+		if (event == null) {
+			return send(method, l, null);
+		}
+
+		try {
+			return send(method, l, event);
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				int amp = method.indexOf('&');
+				event.method = (amp < 0) ? method : method.substring(0, amp);
+				event.photoId = getParameter(method, "photo_id");
+				event.commit();
+			}
+		}
+	}
+
+	private InputStream send(String method, FlickrProgressListener l, FlickrApiCallEvent event) throws FlickrException {
+		if (event != null) {
+			event.bytes = -1;
+		}
+		boolean cacheable = (cache != null) && cache.isCacheable(method);
+		if (cacheable) {
+			byte[] cached = cache.get(method);
+			if (metrics != null) {
+				if (cached != null) {
+					metrics.recordCacheHit();
+				} else {
+					metrics.recordCacheMiss();
+				}
+			}
+			if (cached != null) {
+				if (event != null) {
+					event.cached = true;
+					event.bytes = cached.length;
+				}
+				log("Cached " + method);
+				return new ByteArrayInputStream(cached);
+			}
+		}
+
+		if (offline) {
+			throw new FlickrException("Offline, no cached response for " + method);
+		}
+
 		if (l != null) {
 			l.notifyNewProgressionStep("Sending a query");
 		}
 		try {
+			long start = System.nanoTime();
+			acquire(FlickrRateLimiter.Kind.API);
+			if (event != null) {
+				event.rateLimitWait = System.nanoTime() - start;
+			}
+
 			URL url = new URL(endpoint + "&method=" + method);
 			log("Sending " + url.toString());
-			URLConnection uc = url.openConnection();
-			uc.setDefaultUseCaches(false);
-			uc.setUseCaches(false);
-			uc.setRequestProperty("Cache-Control", "no-cache");
-			uc.setRequestProperty("Pragma", "no-cache");
+			FlickrTransportResponse r = transport.get(url);
+			if (event != null) {
+				event.status = r.getStatus();
+				event.bytes = r.getContentLength();
+				event.dns = r.getDnsTime();
+				event.connect = r.getConnectTime();
+				event.serverWait = r.getWaitTime();
+			}
+			if (!r.isSuccess()) {
+				r.close();
+				throw new FlickrException("HTTP error " + r.getStatus() + " for " + method, r.getStatus(), -1);
+			}
 
-			final BufferedReader in = new BufferedReader(new InputStreamReader(uc.getInputStream()));
+			InputStream in = r.getBody();
+			if ((metrics != null) && !(isDebug() || cacheable) && (r.getContentLength() >= 0)) {
+				metrics.recordApiBytes(r.getContentLength());
+			}
 
 			if (l != null) {
 				l.notifyNewProgressionStep("Getting a response");
 			}
 
-			String response = "";
-			String temp;
-			while ((temp = in.readLine()) != null)
-				response += temp + "\n";
-
-			in.close();
+			if (isDebug() || cacheable) {
+				ByteArrayOutputStream response = new ByteArrayOutputStream();
+				try {
+					byte[] data = new byte[8 * 1024];
+					int count;
+					while ((count = in.read(data)) >= 0) {
+						response.write(data, 0, count);
+					}
+				} finally {
+					in.close();
+				}
 
-			log("Receiving " + response);
+				byte[] bytes = response.toByteArray();
+				if (event != null) {
+					event.bytes = bytes.length;
+				}
+				if (metrics != null) {
+					metrics.recordApiBytes(bytes.length);
+				}
 
-			if (!response.contains("<rsp stat=\"ok\">")) {
-				throw new FlickrException("Call failed : " + response);
-			}
+				if (isDebug()) {
+					log("Receiving " + response.toString("UTF-8"));
+				}
 
-			in.close();
+				if (cacheable && isOk(bytes)) {
+					cache.put(method, bytes);
+				}
 
-			return response;
+				return new ByteArrayInputStream(bytes);
+			}
 
+			return in;
 		} catch (MalformedURLException e) {
 			throw new FlickrException(e);
 		} catch (IOException e) {
@@ -361,7 +918,70 @@ public class FlickrFrontend {
 		}
 	}
 
+	/**
+	 * Base URL of the REST API, https://api.flickr.com/services/rest/ by default.
+	 */
+	public void setApiUrl(String apiUrl) {
+		this.apiUrl = apiUrl;
+		endpoint = apiUrl + "?api_key=" + applicationKey;
+	}
+
+	/**
+	 * Buffers used to download the images. Those loaded in memory are decoded straight from the
+	 * pooled buffer, those larger than its maximum buffer size are written to a temporary file.
+	 */
+	public void setBufferPool(FlickrBufferPool bufferPool) {
+		this.bufferPool = bufferPool;
+	}
+
+	public void setCache(FlickrResponseCache cache) {
+		this.cache = cache;
+	}
+
 	public void setDebug(boolean debug) {
 		this.debug = debug;
 	}
+
+	/**
+	 * Metrics are recorded only when set, null by default.
+	 */
+	public void setMetrics(FlickrMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * In offline mode, only the responses available in the cache are served. Any other call fails.
+	 */
+	public void setOffline(boolean offline) {
+		this.offline = offline;
+	}
+
+	public void setRateLimiter(FlickrRateLimiter rateLimiter) {
+		this.rateLimiter = rateLimiter;
+	}
+
+	/**
+	 * Transient failures are retried and failing endpoints are isolated by a circuit breaker. A null
+	 * value disables both.
+	 */
+	public void setResilience(FlickrResilience resilience) {
+		this.resilience = resilience;
+	}
+
+	/**
+	 * The index is looked up before calling flickr.photos.getSizes, and fed with its responses.
+	 */
+	public void setSizeIndex(FlickrSizeIndex sizeIndex) {
+		this.sizeIndex = sizeIndex;
+	}
+
+	private void setTimings(FlickrImageDownloadEvent event, FlickrTransportResponse response) {
+		if (event == null) {
+			return;
+		}
+		event.status = response.getStatus();
+		event.dns = response.getDnsTime();
+		event.connect = response.getConnectTime();
+		event.serverWait = response.getWaitTime();
+	}
 }
@@ -21,79 +21,200 @@ package name.herve.flickrlib;
 
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+
+import name.herve.flickrlib.util.PhotoIds;
 
 /**
+ * A photo returned by the API. As millions of them may be kept in memory, the fields that Flickr
+ * fills with numbers or with a few repeated values are stored as primitives : the id as a long,
+ * the secret as packed hexadecimal digits, the farm, server and license as codes of a shared
+ * table. The sizes are rows of a single int array (label code, width, height, source code). A
+ * source is only kept as the host before and the suffix after <code>server/id_secret</code>, and
+ * is rebuilt when asked for, as is the page URL of a size. Values that do not follow these forms
+ * are kept as they are.
  * 
  * @author Nicolas HERVE - n.herve@laposte.net
  */
 public class FlickrImage {
-	private String farm;
-	private String id;
+	private final static char[] HEX = "0123456789abcdef".toCharArray();
+	private final static int MAX_TAIL_LENGTH = 16;
+	private final static int[] NO_SIZES = new int[0];
+	private final static int SIZE_HEIGHT = 2;
+	private final static int SIZE_LABEL = 0;
+	private final static int SIZE_SOURCE = 3;
+	private final static int SIZE_STRIDE = 4;
+	private final static int SIZE_STRINGS = 3;
+	private final static int SIZE_WIDTH = 1;
+
+	/**
+	 * @return the length in the top 4 bits and the digits in the others, or 0 if the secret is
+	 *         not made of 1 to 15 lower case hexadecimal digits
+	 */
+	static long packSecret(String secret) {
+		int len = secret.length();
+		if ((len == 0) || (len > 15)) {
+			return 0;
+		}
+		long v = 0;
+		for (int i = 0; i < len; i++) {
+			char c = secret.charAt(i);
+			int d;
+			if ((c >= '0') && (c <= '9')) {
+				d = c - '0';
+			} else if ((c >= 'a') && (c <= 'f')) {
+				d = c - 'a' + 10;
+			} else {
+				return 0;
+			}
+			v = (v << 4) | d;
+		}
+		return ((long) len << 60) | v;
+	}
+
+	/**
+	 * @return the secret packed by {@link #packSecret(String)}, null for 0
+	 */
+	static String unpackSecret(long secret) {
+		if (secret == 0) {
+			return null;
+		}
+
+		int len = (int) (secret >>> 60);
+		long v = secret;
+		char[] c = new char[len];
+		for (int i = len - 1; i >= 0; i--) {
+			c[i] = HEX[(int) (v & 0xF)];
+			v >>>= 4;
+		}
+		return new String(c);
+	}
+
+	/**
+	 * @return the source of a size from its host and suffix codes
+	 */
+	static String unpackSource(int packed, String server, String id, String secret) {
+		return FlickrSymbols.getSymbol(packed >>> 16) + server + "/" + id + "_" + secret + FlickrSymbols.getSymbol(packed & 0xFFFF);
+	}
+
+	private int farm;
+	private long id;
 	private FlickrLicense license;
-	private String licenseId;
+	private int licenseId;
 	private String owner;
-	private String secret;
-	private String server;
-	private Map<String, FlickrImageSize> sizes;
+	private String rawId;
+	private String rawSecret;
+	private long secret;
+	private int server;
+	private int[] sizes;
 	private boolean sizesDone;
+	private FlickrSizeResolver sizeResolver;
+	private String[] sizeStrings;
 	private String tags;
 	private String title;
 
 	public FlickrImage() {
 		super();
 
-		sizes = new HashMap<String, FlickrImageSize>();
+		farm = -1;
+		server = -1;
+		licenseId = -1;
+		sizes = NO_SIZES;
+		sizeStrings = null;
 		setSizesDone(false);
 	}
 
+	/**
+	 * Adds a size, or replaces the one with the same label. The id, server and secret must be set
+	 * beforehand for the source to be stored compactly.
+	 */
 	void addAvailableSize(FlickrImageSize s) {
-		sizes.put(s.getLabel(), s);
+		String label = s.getLabel();
+		int index = indexOf(label);
+		if (index < 0) {
+			index = getNbAvailableSizes();
+			sizes = Arrays.copyOf(sizes, (index + 1) * SIZE_STRIDE);
+			if (sizeStrings != null) {
+				sizeStrings = Arrays.copyOf(sizeStrings, (index + 1) * SIZE_STRINGS);
+			}
+		}
+
+		int code = FlickrImageSize.getLabelCode(label);
+		int row = index * SIZE_STRIDE;
+		sizes[row + SIZE_LABEL] = code;
+		sizes[row + SIZE_WIDTH] = s.getWidth();
+		sizes[row + SIZE_HEIGHT] = s.getHeight();
+		sizes[row + SIZE_SOURCE] = packSource(s.getSource());
+
+		String url = s.getUrl();
+		if ((url != null) && url.equals(FlickrImageSize.getPageUrl(owner, getId(), label))) {
+			url = null;
+		}
+
+		setSizeString(index, 0, (code < 0) ? label : null);
+		setSizeString(index, 1, (sizes[row + SIZE_SOURCE] < 0) ? s.getSource() : null);
+		setSizeString(index, 2, url);
 	}
 
 	public String getBiggestAvailableSize() {
+		resolveSizes();
+
 		int maxSurf = 0;
-		String maxSize = null;
+		int maxSize = -1;
 
-		for (FlickrImageSize sz : sizes.values()) {
-			int surf = sz.getWidth() * sz.getHeight();
+		for (int i = 0; i < getNbAvailableSizes(); i++) {
+			int surf = sizes[i * SIZE_STRIDE + SIZE_WIDTH] * sizes[i * SIZE_STRIDE + SIZE_HEIGHT];
 			if (surf > maxSurf) {
 				maxSurf = surf;
-				maxSize = sz.getLabel();
+				maxSize = i;
 			}
 		}
 
-		return maxSize;
+		return (maxSize < 0) ? null : getSizeLabel(maxSize);
 	}
 
 	public String getClosestSize(int prefered) {
+		resolveSizes();
+
 		int prefSurfDif = Integer.MAX_VALUE;
-		String prefSize = null;
+		int prefSize = -1;
 
-		for (FlickrImageSize sz : sizes.values()) {
-			int surfDif = Math.abs(prefered - (sz.getWidth() * sz.getHeight()));
+		for (int i = 0; i < getNbAvailableSizes(); i++) {
+			int surfDif = Math.abs(prefered - (sizes[i * SIZE_STRIDE + SIZE_WIDTH] * sizes[i * SIZE_STRIDE + SIZE_HEIGHT]));
 			if (surfDif < prefSurfDif) {
 				prefSurfDif = surfDif;
-				prefSize = sz.getLabel();
+				prefSize = i;
 			}
 		}
 
-		return prefSize;
+		return (prefSize < 0) ? null : getSizeLabel(prefSize);
 	}
 
 	public String getFarm() {
-		return farm;
+		return FlickrSymbols.getSymbol(farm);
 	}
 
 	public String getId() {
-		return id;
+		if (rawId != null) {
+			return rawId;
+		}
+		return (id > 0) ? Long.toString(id) : null;
+	}
+
+	FlickrImageSize getAvailableSize(String size) {
+		int index = indexOf(size);
+		return (index < 0) ? null : new FlickrImageSize(this, index);
 	}
 
 	URL getImageURL(String size) throws FlickrException {
-		FlickrImageSize sz = sizes.get(size);
-		String url = sz.getSource();
+		int index = indexOf(size);
+		if (index < 0) {
+			throw new FlickrException("Size " + size + " not available for " + getId());
+		}
+		String url = getSizeSource(index);
 
 		try {
 			return new URL(url);
@@ -103,7 +224,7 @@ public class FlickrImage {
 	}
 
 	public URL getImageWebPageURL() throws FlickrException {
-		String url = "http://www.flickr.com/photos/" + owner + "/" + id + "";
+		String url = "http://www.flickr.com/photos/" + owner + "/" + getId() + "";
 
 		try {
 			return new URL(url);
@@ -117,7 +238,11 @@ public class FlickrImage {
 	}
 
 	public String getLicenseId() {
-		return licenseId;
+		return FlickrSymbols.getSymbol(licenseId);
+	}
+
+	int getNbAvailableSizes() {
+		return sizes.length / SIZE_STRIDE;
 	}
 
 	public String getOwner() {
@@ -125,21 +250,68 @@ public class FlickrImage {
 	}
 
 	public String getSecret() {
-		return secret;
+		if (rawSecret != null) {
+			return rawSecret;
+		}
+		return unpackSecret(secret);
 	}
 
 	public String getServer() {
-		return server;
+		return FlickrSymbols.getSymbol(server);
+	}
+
+	int getSizeHeight(int index) {
+		return sizes[index * SIZE_STRIDE + SIZE_HEIGHT];
+	}
+
+	String getSizeLabel(int index) {
+		int code = sizes[index * SIZE_STRIDE + SIZE_LABEL];
+		if (code >= 0) {
+			return FlickrImageSize.LABELS[code];
+		}
+		return sizeStrings[index * SIZE_STRINGS];
 	}
 
 	public Collection<FlickrImageSize> getSizes() {
 		if (isSizesDone()) {
-			return sizes.values();
+			int nb = getNbAvailableSizes();
+			List<FlickrImageSize> result = new ArrayList<FlickrImageSize>(nb);
+			for (int i = 0; i < nb; i++) {
+				result.add(new FlickrImageSize(this, i));
+			}
+			return result;
 		}
 
 		return null;
 	}
 
+	String getSizeSource(int index) {
+		int packed = sizes[index * SIZE_STRIDE + SIZE_SOURCE];
+		if (packed < 0) {
+			return (sizeStrings == null) ? null : sizeStrings[index * SIZE_STRINGS + 1];
+		}
+		return unpackSource(packed, getServer(), getId(), getSecret());
+	}
+
+	/**
+	 * @return the host and suffix codes of the source, or -1 if it is kept as is
+	 */
+	int getSizeSourceCode(int index) {
+		return sizes[index * SIZE_STRIDE + SIZE_SOURCE];
+	}
+
+	String getSizeUrl(int index) {
+		String url = (sizeStrings == null) ? null : sizeStrings[index * SIZE_STRINGS + 2];
+		if (url != null) {
+			return url;
+		}
+		return FlickrImageSize.getPageUrl(owner, getId(), getSizeLabel(index));
+	}
+
+	int getSizeWidth(int index) {
+		return sizes[index * SIZE_STRIDE + SIZE_WIDTH];
+	}
+
 	public String getTags() {
 		return tags;
 	}
@@ -148,16 +320,80 @@ public class FlickrImage {
 		return title;
 	}
 
+	private int indexOf(String label) {
+		if (label == null) {
+			return -1;
+		}
+		int code = FlickrImageSize.getLabelCode(label);
+		for (int i = 0; i < getNbAvailableSizes(); i++) {
+			int c = sizes[i * SIZE_STRIDE + SIZE_LABEL];
+			if ((code >= 0) ? (c == code) : ((c < 0) && label.equals(sizeStrings[i * SIZE_STRINGS]))) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
 	public boolean isSizesDone() {
 		return sizesDone;
 	}
 
+	/**
+	 * @return the host and suffix codes around <code>server/id_secret</code>, or -1 if the source
+	 *         has to be kept as is
+	 */
+	private int packSource(String source) {
+		String server = getServer();
+		String id = getId();
+		String secret = getSecret();
+		if ((source == null) || (server == null) || (id == null) || (secret == null)) {
+			return -1;
+		}
+
+		String middle = server + "/" + id + "_" + secret;
+		int start = source.indexOf(middle);
+		if ((start < 0) || (source.length() - start - middle.length() > MAX_TAIL_LENGTH)) {
+			return -1;
+		}
+
+		int host = FlickrSymbols.getCode(source.substring(0, start));
+		int tail = FlickrSymbols.getCode(source.substring(start + middle.length()));
+		if ((host > 0x7FFF) || (tail > 0xFFFF)) {
+			return -1;
+		}
+		return (host << 16) | tail;
+	}
+
+	/**
+	 * Fetches the available sizes if they did not come with the search results.
+	 * 
+	 * @return true if the sizes are known
+	 */
+	public boolean resolveSizes() {
+		if (!isSizesDone() && (sizeResolver != null)) {
+			try {
+				sizeResolver.resolveSizes(this);
+			} catch (FlickrException e) {
+				// sizes stay unknown
+			}
+		}
+		return isSizesDone();
+	}
+
 	void setFarm(String farm) {
-		this.farm = farm;
+		this.farm = FlickrSymbols.getCode(farm);
 	}
 
 	void setId(String id) {
-		this.id = id;
+		this.id = 0;
+		this.rawId = null;
+		if (id != null) {
+			this.id = PhotoIds.parse(id);
+			if (this.id < 0) {
+				this.id = 0;
+				this.rawId = id;
+			}
+		}
 	}
 
 	void setLicense(FlickrLicense license) {
@@ -165,7 +401,7 @@ public class FlickrImage {
 	}
 
 	void setLicenseId(String licenseId) {
-		this.licenseId = licenseId;
+		this.licenseId = FlickrSymbols.getCode(licenseId);
 	}
 
 	void setOwner(String owner) {
@@ -173,11 +409,35 @@ public class FlickrImage {
 	}
 
 	void setSecret(String secret) {
-		this.secret = secret;
+		this.secret = 0;
+		this.rawSecret = null;
+		if (secret != null) {
+			this.secret = packSecret(secret);
+			if (this.secret == 0) {
+				this.rawSecret = secret;
+			}
+		}
 	}
 
 	void setServer(String server) {
-		this.server = server;
+		this.server = FlickrSymbols.getCode(server);
+	}
+
+	private void setSizeString(int index, int field, String value) {
+		if (value == null) {
+			if (sizeStrings != null) {
+				sizeStrings[index * SIZE_STRINGS + field] = null;
+			}
+			return;
+		}
+		if (sizeStrings == null) {
+			sizeStrings = new String[getNbAvailableSizes() * SIZE_STRINGS];
+		}
+		sizeStrings[index * SIZE_STRINGS + field] = value;
+	}
+
+	void setSizeResolver(FlickrSizeResolver sizeResolver) {
+		this.sizeResolver = sizeResolver;
 	}
 
 	public void setSizesDone(boolean sizesDone) {
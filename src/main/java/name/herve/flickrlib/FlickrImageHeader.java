@@ -0,0 +1,88 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib;
+
+/**
+ * Reads the dimensions of an image from the first bytes of its file, without decoding it.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+class FlickrImageHeader {
+	/**
+	 * @return {width, height} or null if they could not be found in the given bytes
+	 */
+	static int[] readDimensions(byte[] data, int len) {
+		if ((len >= 4) && (u8(data, 0) == 0xFF) && (u8(data, 1) == 0xD8)) {
+			return readJpegDimensions(data, len);
+		}
+
+		if ((len >= 24) && (u8(data, 0) == 0x89) && (data[1] == 'P') && (data[2] == 'N') && (data[3] == 'G')) {
+			return new int[] { u32(data, 16), u32(data, 20) };
+		}
+
+		if ((len >= 10) && (data[0] == 'G') && (data[1] == 'I') && (data[2] == 'F')) {
+			return new int[] { u8(data, 6) | (u8(data, 7) << 8), u8(data, 8) | (u8(data, 9) << 8) };
+		}
+
+		return null;
+	}
+
+	private static int[] readJpegDimensions(byte[] data, int len) {
+		int pos = 2;
+
+		while (pos + 9 < len) {
+			if (u8(data, pos) != 0xFF) {
+				return null;
+			}
+
+			int marker = u8(data, pos + 1);
+			if (marker == 0xFF) {
+				// fill byte
+				pos++;
+				continue;
+			}
+			if ((marker == 0x01) || ((marker >= 0xD0) && (marker <= 0xD8))) {
+				// markers without payload
+				pos += 2;
+				continue;
+			}
+
+			if ((marker >= 0xC0) && (marker <= 0xCF) && (marker != 0xC4) && (marker != 0xC8) && (marker != 0xCC)) {
+				// start of frame : length(2) precision(1) height(2) width(2)
+				return new int[] { u16(data, pos + 7), u16(data, pos + 5) };
+			}
+
+			pos += 2 + u16(data, pos + 2);
+		}
+
+		return null;
+	}
+
+	private static int u16(byte[] data, int pos) {
+		return (u8(data, pos) << 8) | u8(data, pos + 1);
+	}
+
+	private static int u32(byte[] data, int pos) {
+		return (u16(data, pos) << 16) | u16(data, pos + 2);
+	}
+
+	private static int u8(byte[] data, int pos) {
+		return data[pos] & 0xFF;
+	}
+}
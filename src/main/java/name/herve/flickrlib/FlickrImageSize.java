@@ -24,6 +24,47 @@ package name.herve.flickrlib;
  * @author Nicolas HERVE - n.herve@laposte.net
  */
 public class FlickrImageSize {
+	/**
+	 * Size suffixes that can be requested as <code>url_*</code>, <code>width_*</code> and <code>height_*</code> extras, with their getSizes label.
+	 */
+	final static String[][] EXTRAS = { { "sq", "Square" }, { "q", "Large Square" }, { "t", "Thumbnail" }, { "s", "Small" }, { "n", "Small 320" }, { "w", "Small 400" }, { "m", "Medium" }, { "z", "Medium 640" }, { "c", "Medium 800" }, { "l", "Large" }, { "h", "Large 1600" }, { "k", "Large 2048" }, { "3k", "X-Large 3K" }, { "4k", "X-Large 4K" }, { "5k", "X-Large 5K" }, { "6k", "X-Large 6K" }, { "o", "Original" } };
+
+	/**
+	 * Known getSizes labels. Their position is used as a compact code.
+	 */
+	final static String[] LABELS = { "Square", "Large Square", "Thumbnail", "Small", "Small 320", "Small 400", "Medium", "Medium 640", "Medium 800", "Large", "Large 1600", "Large 2048", "X-Large 3K", "X-Large 4K", "X-Large 5K", "X-Large 6K", "Original" };
+
+	static int getLabelCode(String label) {
+		for (int i = 0; i < LABELS.length; i++) {
+			if (LABELS[i].equals(label)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	static String getPageUrl(String owner, String id, String label) {
+		for (String[] ex : EXTRAS) {
+			if (ex[1].equals(label)) {
+				return "https://www.flickr.com/photos/" + owner + "/" + id + "/sizes/" + ex[0] + "/";
+			}
+		}
+		return null;
+	}
+
+	static String getExtrasParameter() {
+		String extras = "";
+		for (String[] ex : EXTRAS) {
+			if (extras.length() > 0) {
+				extras += ",";
+			}
+			extras += "url_" + ex[0];
+		}
+		return extras;
+	}
+
+	private FlickrImage image;
+	private int index;
 	private String label;
 	private int width;
 	private int height;
@@ -34,7 +75,19 @@ public class FlickrImageSize {
 		super();
 	}
 
+	/**
+	 * View on a size stored in a {@link FlickrImage}, its URLs are built when asked for.
+	 */
+	FlickrImageSize(FlickrImage image, int index) {
+		super();
+		this.image = image;
+		this.index = index;
+	}
+
 	public String getLabel() {
+		if (image != null) {
+			return image.getSizeLabel(index);
+		}
 		return label;
 	}
 	
@@ -43,6 +96,9 @@ public class FlickrImageSize {
 	}
 	
 	public int getWidth() {
+		if (image != null) {
+			return image.getSizeWidth(index);
+		}
 		return width;
 	}
 	
@@ -51,6 +107,9 @@ public class FlickrImageSize {
 	}
 	
 	public int getHeight() {
+		if (image != null) {
+			return image.getSizeHeight(index);
+		}
 		return height;
 	}
 	
@@ -59,6 +118,9 @@ public class FlickrImageSize {
 	}
 	
 	public String getSource() {
+		if (image != null) {
+			return image.getSizeSource(index);
+		}
 		return source;
 	}
 	
@@ -67,6 +129,9 @@ public class FlickrImageSize {
 	}
 	
 	public String getUrl() {
+		if (image != null) {
+			return image.getSizeUrl(index);
+		}
 		return url;
 	}
 	
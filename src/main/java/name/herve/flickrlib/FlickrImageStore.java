@@ -0,0 +1,686 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import name.herve.flickrlib.filters.FlickrSearchResponseFilter;
+import name.herve.flickrlib.util.PhotoIds;
+
+/**
+ * Column store of search results, for collections too large to be kept as {@link FlickrImage}
+ * objects. Each image is a row spread over primitive columns : id, secret, owner code, farm and
+ * server codes, license id, biggest size (label, width, height, source code), and offsets into the
+ * title bytes and into the tag codes. Owners and tags are replaced by codes of dictionaries local to
+ * the store. The columns are kept on the heap or, optionally, in direct buffers outside of it.
+ * <p>
+ * Rows can be scanned through the column getters, or seen as a {@link FlickrImage} through a
+ * {@link View}, a single object moved from row to row that reads the columns without copying them.
+ * The existing filters work on such views. {@link #getImage(int)} rebuilds a standalone image.
+ * <p>
+ * Only the biggest available size of an image is kept, and sizes are not resolved when an image is
+ * added : images added without their sizes have none in the store. Tags are kept as a list of
+ * words, separated by single spaces when read back. A store is not thread safe while images are
+ * added to it.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrImageStore {
+	/**
+	 * An image of the store, on the row it was last moved to. The values it returns, sizes included,
+	 * are read from the columns when asked for : they follow the view when it moves.
+	 */
+	public class View extends FlickrImage {
+		private int row;
+
+		private View() {
+			super();
+			row = -1;
+		}
+
+		@Override
+		FlickrImageSize getAvailableSize(String size) {
+			return ((getNbAvailableSizes() > 0) && size.equals(getSizeLabel(0))) ? new FlickrImageSize(this, 0) : null;
+		}
+
+		@Override
+		public String getBiggestAvailableSize() {
+			return (getNbAvailableSizes() > 0) ? getSizeLabel(0) : null;
+		}
+
+		@Override
+		public String getClosestSize(int prefered) {
+			return getBiggestAvailableSize();
+		}
+
+		@Override
+		public String getFarm() {
+			return FlickrSymbols.getSymbol(farms.getInt(row));
+		}
+
+		@Override
+		public String getId() {
+			return FlickrImageStore.this.getId(row);
+		}
+
+		@Override
+		URL getImageURL(String size) throws FlickrException {
+			FlickrImageSize s = getAvailableSize(size);
+			if (s == null) {
+				throw new FlickrException("Size " + size + " not available for " + getId());
+			}
+
+			try {
+				return new URL(s.getSource());
+			} catch (MalformedURLException e) {
+				throw new FlickrException(e);
+			}
+		}
+
+		@Override
+		public URL getImageWebPageURL() throws FlickrException {
+			String url = "http://www.flickr.com/photos/" + getOwner() + "/" + getId() + "";
+
+			try {
+				return new URL(url);
+			} catch (MalformedURLException e) {
+				throw new FlickrException(e);
+			}
+		}
+
+		@Override
+		public FlickrLicense getLicense() {
+			return licenses.get(licenseIds.getInt(row));
+		}
+
+		@Override
+		public String getLicenseId() {
+			int licenseId = licenseIds.getInt(row);
+			return (licenseId < 0) ? null : Integer.toString(licenseId);
+		}
+
+		@Override
+		int getNbAvailableSizes() {
+			return (sizeLabels.getInt(row) == NO_SIZE) ? 0 : 1;
+		}
+
+		@Override
+		public String getOwner() {
+			return FlickrImageStore.this.getOwner(row);
+		}
+
+		/**
+		 * @return the row the view is on, -1 before the first move
+		 */
+		public int getRow() {
+			return row;
+		}
+
+		@Override
+		public String getSecret() {
+			String raw = rawSecrets.get(row);
+			return (raw != null) ? raw : FlickrImage.unpackSecret(secrets.getLong(row));
+		}
+
+		@Override
+		public String getServer() {
+			return FlickrSymbols.getSymbol(servers.getInt(row));
+		}
+
+		@Override
+		int getSizeHeight(int index) {
+			return maxHeights.getInt(row);
+		}
+
+		@Override
+		String getSizeLabel(int index) {
+			int code = sizeLabels.getInt(row);
+			return (code >= 0) ? FlickrImageSize.LABELS[code] : rawLabels.get(row);
+		}
+
+		@Override
+		public Collection<FlickrImageSize> getSizes() {
+			if (isSizesDone()) {
+				if (getNbAvailableSizes() == 0) {
+					return Collections.emptyList();
+				}
+				return Collections.singletonList(new FlickrImageSize(this, 0));
+			}
+
+			return null;
+		}
+
+		@Override
+		String getSizeSource(int index) {
+			int packed = sizeSources.getInt(row);
+			if (packed < 0) {
+				return rawSources.get(row);
+			}
+			return FlickrImage.unpackSource(packed, getServer(), getId(), getSecret());
+		}
+
+		@Override
+		String getSizeUrl(int index) {
+			return FlickrImageSize.getPageUrl(getOwner(), getId(), getSizeLabel(index));
+		}
+
+		@Override
+		int getSizeWidth(int index) {
+			return maxWidths.getInt(row);
+		}
+
+		@Override
+		public String getTags() {
+			return FlickrImageStore.this.getTags(row);
+		}
+
+		@Override
+		public String getTitle() {
+			return FlickrImageStore.this.getTitle(row);
+		}
+
+		@Override
+		public boolean isSizesDone() {
+			return (flags.getInt(row) & SIZES_DONE) != 0;
+		}
+
+		/**
+		 * Moves the view to another row.
+		 * 
+		 * @return this view
+		 */
+		public View moveTo(int row) {
+			if ((row < 0) || (row >= count)) {
+				throw new IndexOutOfBoundsException("Row " + row + " out of " + count);
+			}
+			this.row = row;
+			return this;
+		}
+
+		@Override
+		public boolean resolveSizes() {
+			return isSizesDone();
+		}
+	}
+
+	private final static int DEFAULT_CAPACITY = 1024;
+	private final static int NO_SIZE = Integer.MIN_VALUE;
+	private final static int NO_TAGS = 1;
+	private final static int NO_TITLE = 2;
+	private final static int SIZES_DONE = 4;
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	private static int parseLicenseId(String licenseId) {
+		if (licenseId == null) {
+			return -1;
+		}
+		try {
+			return Math.max(-1, Integer.parseInt(licenseId));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private int count;
+	private FlickrColumn farms;
+	private FlickrColumn flags;
+	private FlickrColumn ids;
+	private FlickrColumn licenseIds;
+	private Map<Integer, FlickrLicense> licenses;
+	private FlickrColumn maxHeights;
+	private FlickrColumn maxWidths;
+	private boolean offHeap;
+	private FlickrColumn owners;
+	private Map<String, Integer> ownerCodes;
+	private List<String> ownerDictionary;
+	private Map<Integer, String> rawIds;
+	private Map<Integer, String> rawLabels;
+	private Map<Integer, String> rawSecrets;
+	private Map<Integer, String> rawSources;
+	private FlickrColumn secrets;
+	private FlickrColumn servers;
+	private FlickrColumn sizeLabels;
+	private FlickrColumn sizeSources;
+	private FlickrColumn tagCodes;
+	private Map<String, Integer> tagCodesByTag;
+	private int tagCount;
+	private List<String> tagDictionary;
+	private FlickrColumn tagStarts;
+	private FlickrColumn titleBytes;
+	private int titleLength;
+	private FlickrColumn titleStarts;
+
+	public FlickrImageStore() {
+		this(DEFAULT_CAPACITY, false);
+	}
+
+	public FlickrImageStore(boolean offHeap) {
+		this(DEFAULT_CAPACITY, offHeap);
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            number of rows allocated up front, the columns double when needed
+	 * @param offHeap
+	 *            true to keep the columns in direct buffers, outside of the Java heap. The
+	 *            dictionaries and the values that do not fit the columns stay on the heap.
+	 */
+	public FlickrImageStore(int initialCapacity, boolean offHeap) {
+		super();
+		this.offHeap = offHeap;
+
+		int rows = Math.max(initialCapacity, 1);
+		ids = new FlickrColumn(rows * 8, offHeap);
+		secrets = new FlickrColumn(rows * 8, offHeap);
+		owners = new FlickrColumn(rows * 4, offHeap);
+		farms = new FlickrColumn(rows * 4, offHeap);
+		servers = new FlickrColumn(rows * 4, offHeap);
+		licenseIds = new FlickrColumn(rows * 4, offHeap);
+		flags = new FlickrColumn(rows * 4, offHeap);
+		sizeLabels = new FlickrColumn(rows * 4, offHeap);
+		maxWidths = new FlickrColumn(rows * 4, offHeap);
+		maxHeights = new FlickrColumn(rows * 4, offHeap);
+		sizeSources = new FlickrColumn(rows * 4, offHeap);
+		titleStarts = new FlickrColumn(rows * 4, offHeap);
+		titleBytes = new FlickrColumn(rows * 32, offHeap);
+		tagStarts = new FlickrColumn(rows * 4, offHeap);
+		tagCodes = new FlickrColumn(rows * 4 * 8, offHeap);
+
+		licenses = new HashMap<Integer, FlickrLicense>();
+		ownerCodes = new HashMap<String, Integer>();
+		ownerDictionary = new ArrayList<String>();
+		tagCodesByTag = new HashMap<String, Integer>();
+		tagDictionary = new ArrayList<String>();
+		rawIds = new HashMap<Integer, String>();
+		rawLabels = new HashMap<Integer, String>();
+		rawSecrets = new HashMap<Integer, String>();
+		rawSources = new HashMap<Integer, String>();
+
+		count = 0;
+		titleLength = 0;
+		tagCount = 0;
+	}
+
+	/**
+	 * Appends an image.
+	 * 
+	 * @return its row
+	 */
+	public int add(FlickrImage img) {
+		int row = count;
+
+		String id = img.getId();
+		long packedId = (id == null) ? 0 : PhotoIds.parse(id);
+		if (packedId < 0) {
+			packedId = 0;
+			rawIds.put(row, id);
+		}
+		ids.setLong(row, packedId);
+
+		String secret = img.getSecret();
+		long packedSecret = (secret == null) ? 0 : FlickrImage.packSecret(secret);
+		if ((packedSecret == 0) && (secret != null)) {
+			rawSecrets.put(row, secret);
+		}
+		secrets.setLong(row, packedSecret);
+
+		owners.setInt(row, getCode(img.getOwner(), ownerCodes, ownerDictionary));
+		farms.setInt(row, FlickrSymbols.getCode(img.getFarm()));
+		servers.setInt(row, FlickrSymbols.getCode(img.getServer()));
+
+		int licenseId = parseLicenseId(img.getLicenseId());
+		licenseIds.setInt(row, licenseId);
+		if ((licenseId >= 0) && (img.getLicense() != null) && !licenses.containsKey(licenseId)) {
+			licenses.put(licenseId, img.getLicense());
+		}
+
+		int flag = img.isSizesDone() ? SIZES_DONE : 0;
+		addBiggestSize(row, img);
+
+		String title = img.getTitle();
+		titleStarts.setInt(row, titleLength);
+		if (title == null) {
+			flag |= NO_TITLE;
+		} else {
+			byte[] b = title.getBytes(UTF8);
+			titleBytes.put(titleLength, b);
+			titleLength += b.length;
+		}
+
+		String tags = img.getTags();
+		tagStarts.setInt(row, tagCount);
+		if (tags == null) {
+			flag |= NO_TAGS;
+		} else {
+			for (String tag : tags.split(" ")) {
+				if (tag.length() > 0) {
+					tagCodes.setInt(tagCount++, getCode(tag, tagCodesByTag, tagDictionary));
+				}
+			}
+		}
+
+		flags.setInt(row, flag);
+		count++;
+		return row;
+	}
+
+	/**
+	 * Appends images, typically the results of a search. The search pages are fetched as the images
+	 * are added.
+	 * 
+	 * @return the number of images added
+	 */
+	public int addAll(Iterable<FlickrImage> images) {
+		int before = count;
+		for (FlickrImage img : images) {
+			add(img);
+		}
+		return count - before;
+	}
+
+	private void addBiggestSize(int row, FlickrImage img) {
+		int biggest = -1;
+		long maxSurf = -1;
+		for (int i = 0; i < img.getNbAvailableSizes(); i++) {
+			long surf = (long) img.getSizeWidth(i) * img.getSizeHeight(i);
+			if (surf > maxSurf) {
+				maxSurf = surf;
+				biggest = i;
+			}
+		}
+
+		if (biggest < 0) {
+			sizeLabels.setInt(row, NO_SIZE);
+			maxWidths.setInt(row, 0);
+			maxHeights.setInt(row, 0);
+			sizeSources.setInt(row, -1);
+			return;
+		}
+
+		String label = img.getSizeLabel(biggest);
+		int code = FlickrImageSize.getLabelCode(label);
+		if (code < 0) {
+			rawLabels.put(row, label);
+		}
+		sizeLabels.setInt(row, code);
+		maxWidths.setInt(row, img.getSizeWidth(biggest));
+		maxHeights.setInt(row, img.getSizeHeight(biggest));
+
+		int packed = img.getSizeSourceCode(biggest);
+		if (packed < 0) {
+			String source = img.getSizeSource(biggest);
+			if (source != null) {
+				rawSources.put(row, source);
+			}
+		}
+		sizeSources.setInt(row, packed);
+	}
+
+	private int getCode(String s, Map<String, Integer> codes, List<String> dictionary) {
+		if (s == null) {
+			return -1;
+		}
+		Integer code = codes.get(s);
+		if (code == null) {
+			code = dictionary.size();
+			dictionary.add(s);
+			codes.put(s, code);
+		}
+		return code;
+	}
+
+	/**
+	 * @return the id of a row, null if it has none
+	 */
+	public String getId(int row) {
+		String raw = rawIds.get(row);
+		if (raw != null) {
+			return raw;
+		}
+		long id = ids.getLong(row);
+		return (id > 0) ? Long.toString(id) : null;
+	}
+
+	/**
+	 * Rebuilds a standalone image from a row, with the biggest size as its only size.
+	 */
+	public FlickrImage getImage(int row) {
+		View v = newView().moveTo(row);
+
+		FlickrImage img = new FlickrImage();
+		img.setId(v.getId());
+		img.setOwner(v.getOwner());
+		img.setSecret(v.getSecret());
+		img.setServer(v.getServer());
+		img.setFarm(v.getFarm());
+		img.setTitle(v.getTitle());
+		img.setTags(v.getTags());
+		img.setLicenseId(v.getLicenseId());
+		img.setLicense(v.getLicense());
+
+		if (v.getNbAvailableSizes() > 0) {
+			FlickrImageSize s = new FlickrImageSize();
+			s.setLabel(v.getSizeLabel(0));
+			s.setWidth(v.getSizeWidth(0));
+			s.setHeight(v.getSizeHeight(0));
+			s.setSource(v.getSizeSource(0));
+			img.addAvailableSize(s);
+		}
+		img.setSizesDone(v.isSizesDone());
+
+		return img;
+	}
+
+	/**
+	 * @return the numeric id of a row, -1 if the id is not a plain number
+	 */
+	public long getLongId(int row) {
+		long id = ids.getLong(row);
+		return (id > 0) ? id : -1;
+	}
+
+	/**
+	 * @return the license id of a row, -1 if it has none
+	 */
+	public int getLicenseId(int row) {
+		return licenseIds.getInt(row);
+	}
+
+	/**
+	 * @return the height of the biggest size of a row, 0 if it has no size
+	 */
+	public int getMaxHeight(int row) {
+		return maxHeights.getInt(row);
+	}
+
+	/**
+	 * @return the width of the biggest size of a row, 0 if it has no size
+	 */
+	public int getMaxWidth(int row) {
+		return maxWidths.getInt(row);
+	}
+
+	public String getOwner(int row) {
+		return getOwnerByCode(owners.getInt(row));
+	}
+
+	public String getOwnerByCode(int code) {
+		return (code < 0) ? null : ownerDictionary.get(code);
+	}
+
+	/**
+	 * @return the code of the owner of a row in the owner dictionary, -1 if it has none
+	 */
+	public int getOwnerCode(int row) {
+		return owners.getInt(row);
+	}
+
+	/**
+	 * @return the code of an owner, -1 if no image of the store has it
+	 */
+	public int getOwnerCode(String owner) {
+		Integer code = ownerCodes.get(owner);
+		return (code == null) ? -1 : code;
+	}
+
+	/**
+	 * @return the number of distinct owners
+	 */
+	public int getOwnerCount() {
+		return ownerDictionary.size();
+	}
+
+	public String getTagByCode(int code) {
+		return tagDictionary.get(code);
+	}
+
+	/**
+	 * @return the code of the i-th tag of a row in the tag dictionary
+	 */
+	public int getTagCode(int row, int i) {
+		return tagCodes.getInt(tagStarts.getInt(row) + i);
+	}
+
+	/**
+	 * @return the code of a tag, -1 if no image of the store has it
+	 */
+	public int getTagCode(String tag) {
+		Integer code = tagCodesByTag.get(tag);
+		return (code == null) ? -1 : code;
+	}
+
+	/**
+	 * @return the number of tags of a row
+	 */
+	public int getTagCount(int row) {
+		int end = (row + 1 < count) ? tagStarts.getInt(row + 1) : tagCount;
+		return end - tagStarts.getInt(row);
+	}
+
+	/**
+	 * @return the number of distinct tags
+	 */
+	public int getTagDictionarySize() {
+		return tagDictionary.size();
+	}
+
+	public String getTags(int row) {
+		if ((flags.getInt(row) & NO_TAGS) != 0) {
+			return null;
+		}
+		int nb = getTagCount(row);
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < nb; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(tagDictionary.get(getTagCode(row, i)));
+		}
+		return sb.toString();
+	}
+
+	public String getTitle(int row) {
+		if ((flags.getInt(row) & NO_TITLE) != 0) {
+			return null;
+		}
+		int start = titleStarts.getInt(row);
+		int end = (row + 1 < count) ? titleStarts.getInt(row + 1) : titleLength;
+		byte[] b = new byte[end - start];
+		titleBytes.get(start, b);
+		return new String(b, UTF8);
+	}
+
+	/**
+	 * @return true if one of the tags of a row has the given code
+	 */
+	public boolean hasTag(int row, int tagCode) {
+		int start = tagStarts.getInt(row);
+		int end = start + getTagCount(row);
+		for (int i = start; i < end; i++) {
+			if (tagCodes.getInt(i) == tagCode) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * @return a new view, to be moved to a row before use
+	 */
+	public View newView() {
+		return new View();
+	}
+
+	/**
+	 * Scans the rows with a search filter, that sees each row through the same view. As during a
+	 * search, the rows are given to the filter in order, so that filters with a state behave the same.
+	 * 
+	 * @return the matching rows, in order
+	 */
+	public int[] select(final FlickrSearchResponseFilter filter) {
+		final View v = newView();
+		return selectRows(new IntPredicate() {
+			@Override
+			public boolean test(int row) {
+				return filter.match(v.moveTo(row));
+			}
+		});
+	}
+
+	/**
+	 * Scans the rows with a predicate on their row number, that reads the columns it needs.
+	 * 
+	 * @return the matching rows, in order
+	 */
+	public int[] selectRows(IntPredicate predicate) {
+		int[] rows = new int[16];
+		int nb = 0;
+		for (int row = 0; row < count; row++) {
+			if (predicate.test(row)) {
+				if (nb == rows.length) {
+					rows = Arrays.copyOf(rows, nb * 2);
+				}
+				rows[nb++] = row;
+			}
+		}
+		return Arrays.copyOf(rows, nb);
+	}
+
+	/**
+	 * @return the number of images
+	 */
+	public int size() {
+		return count;
+	}
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Paces the requests sent by a {@link FlickrFrontend}, with separate per second and per hour budgets
+ * for the API calls and for the image downloads. It can be shared by any number of threads.
+ * <p>
+ * Each budget is a lock free generic cell rate algorithm (the virtual scheduling form of a token
+ * bucket) : a single atomic "theoretical arrival time" is moved forward by compare and set, and a
+ * caller only sleeps for the time its own reservation requires.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrRateLimiter {
+	public enum Kind {
+		API, IMAGE
+	}
+
+	private static class Limit {
+		private long interval;
+		private AtomicLong tat;
+		private long tolerance;
+
+		private Limit(double permits, long periodNanos) {
+			super();
+
+			// a burst of up to a sixtieth of the budget goes through at once ; the emission interval
+			// leaves room for the rest only, so that no window of one period holds more than the
+			// budget, and still sets the long term rate below one permit per period
+			int burst = (int) Math.max(1, permits / 60);
+			interval = Math.max(1, (long) Math.ceil(periodNanos / (permits - burst + 1)));
+			tolerance = (burst - 1) * interval;
+			tat = new AtomicLong(System.nanoTime());
+		}
+
+		private long available(long now) {
+			long t = tat.get();
+			return Math.max(0, (now + tolerance - t) / interval + 1);
+		}
+
+		private long reserve(long now) {
+			while (true) {
+				long t = tat.get();
+				long allowedAt = Math.max(now, t - tolerance);
+				if (tat.compareAndSet(t, Math.max(t, now) + interval)) {
+					return allowedAt - now;
+				}
+			}
+		}
+	}
+
+	public final static int FLICKR_API_PER_HOUR = 3600;
+
+	private static Limit createLimit(double permits, TimeUnit unit) {
+		if (permits <= 0) {
+			return null;
+		}
+		return new Limit(permits, unit.toNanos(1));
+	}
+
+	private Limit[][] limits;
+
+	/**
+	 * A value of 0 leaves the corresponding budget unlimited.
+	 */
+	public FlickrRateLimiter(double apiPerSecond, double apiPerHour, double imagesPerSecond, double imagesPerHour) {
+		super();
+
+		limits = new Limit[Kind.values().length][];
+		limits[Kind.API.ordinal()] = new Limit[] { createLimit(apiPerSecond, TimeUnit.SECONDS), createLimit(apiPerHour, TimeUnit.HOURS) };
+		limits[Kind.IMAGE.ordinal()] = new Limit[] { createLimit(imagesPerSecond, TimeUnit.SECONDS), createLimit(imagesPerHour, TimeUnit.HOURS) };
+	}
+
+	/**
+	 * Waits until a request of the given kind fits in its budgets.
+	 */
+	public void acquire(Kind kind) throws InterruptedException {
+		long now = System.nanoTime();
+		long wait = 0;
+		for (Limit l : limits[kind.ordinal()]) {
+			if (l != null) {
+				wait = Math.max(wait, l.reserve(now));
+			}
+		}
+		if (wait > 0) {
+			TimeUnit.NANOSECONDS.sleep(wait);
+		}
+	}
+
+	/**
+	 * @return the number of requests of the given kind that could be sent right now without waiting,
+	 *         or Long.MAX_VALUE if unlimited
+	 */
+	public long getAvailablePermits(Kind kind) {
+		long now = System.nanoTime();
+		long available = Long.MAX_VALUE;
+		for (Limit l : limits[kind.ordinal()]) {
+			if (l != null) {
+				available = Math.min(available, l.available(now));
+			}
+		}
+		return available;
+	}
+}
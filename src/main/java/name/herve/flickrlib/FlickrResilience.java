@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Retries the transient failures of idempotent requests according to a {@link FlickrRetryPolicy}
+ * and keeps a {@link FlickrCircuitBreaker} per endpoint (API method or image host).
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrResilience {
+	private ConcurrentMap<String, FlickrCircuitBreaker> breakers;
+	private double errorRateThreshold;
+	private int minCalls;
+	private long openDuration;
+	private FlickrRetryPolicy policy;
+	private int window;
+
+	public FlickrResilience() {
+		this(new FlickrRetryPolicy());
+	}
+
+	public FlickrResilience(FlickrRetryPolicy policy) {
+		this(policy, 20, 10, 0.5, 30000);
+	}
+
+	public FlickrResilience(FlickrRetryPolicy policy, int window, int minCalls, double errorRateThreshold, long openDuration) {
+		super();
+
+		this.policy = policy;
+		this.window = window;
+		this.minCalls = minCalls;
+		this.errorRateThreshold = errorRateThreshold;
+		this.openDuration = openDuration;
+
+		breakers = new ConcurrentHashMap<String, FlickrCircuitBreaker>();
+	}
+
+	<T> T execute(String endpoint, FlickrCall<T> call) throws FlickrException {
+		return execute(endpoint, call, policy.getMaxAttempts());
+	}
+
+	/**
+	 * Goes through the circuit breaker, without retrying.
+	 */
+	<T> T executeOnce(String endpoint, FlickrCall<T> call) throws FlickrException {
+		return execute(endpoint, call, 1);
+	}
+
+	private <T> T execute(String endpoint, FlickrCall<T> call, int maxAttempts) throws FlickrException {
+		FlickrCircuitBreaker breaker = getCircuitBreaker(endpoint);
+		int attempt = 0;
+
+		while (true) {
+			breaker.acquire();
+			attempt++;
+			try {
+				T result = call.call();
+				breaker.recordSuccess();
+				return result;
+			} catch (FlickrException e) {
+				boolean retryable = policy.isRetryable(e);
+				if (retryable) {
+					breaker.recordFailure();
+				} else {
+					// the endpoint did answer
+					breaker.recordSuccess();
+				}
+
+				if (!retryable || (attempt >= maxAttempts)) {
+					throw e;
+				}
+
+				try {
+					Thread.sleep(policy.getDelay(attempt));
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			} catch (RuntimeException e) {
+				// the outcome must be recorded, or a trial request would leave the circuit half open
+				breaker.recordFailure();
+				throw e;
+			} catch (Error e) {
+				breaker.recordFailure();
+				throw e;
+			}
+		}
+	}
+
+	public FlickrCircuitBreaker getCircuitBreaker(String endpoint) {
+		FlickrCircuitBreaker breaker = breakers.get(endpoint);
+		if (breaker == null) {
+			breaker = new FlickrCircuitBreaker(endpoint, window, minCalls, errorRateThreshold, openDuration);
+			FlickrCircuitBreaker existing = breakers.putIfAbsent(endpoint, breaker);
+			if (existing != null) {
+				breaker = existing;
+			}
+		}
+		return breaker;
+	}
+
+	public FlickrRetryPolicy getPolicy() {
+		return policy;
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib;
+
+import java.io.EOFException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Tells which failures are worth another attempt, and how long to wait before it.
+ * <p>
+ * Transient failures are the HTTP 408, 429 and 5xx statuses, the Flickr "service unavailable"
+ * error codes, timeouts and connection problems, also when they interrupted the parsing of a
+ * response. Invalid parameters, unknown photos or keys are never retried. The wait grows
+ * exponentially with a full jitter.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrRetryPolicy {
+	private long baseDelay;
+	private int maxAttempts;
+	private long maxDelay;
+	private Random rand;
+	private Set<Integer> retryableErrorCodes;
+
+	public FlickrRetryPolicy() {
+		this(4, 500, 30000);
+	}
+
+	/**
+	 * @param maxAttempts
+	 *            total number of attempts, including the first one
+	 * @param baseDelay
+	 *            wait before the second attempt, in milliseconds
+	 * @param maxDelay
+	 *            upper bound of the wait, in milliseconds
+	 */
+	public FlickrRetryPolicy(int maxAttempts, long baseDelay, long maxDelay) {
+		super();
+
+		this.maxAttempts = maxAttempts;
+		this.baseDelay = baseDelay;
+		this.maxDelay = maxDelay;
+
+		rand = new Random(System.currentTimeMillis());
+
+		retryableErrorCodes = new HashSet<Integer>();
+		// Sorry, the Flickr search API is not currently available
+		retryableErrorCodes.add(10);
+		// Service currently unavailable
+		retryableErrorCodes.add(105);
+		// Write operation failed
+		retryableErrorCodes.add(106);
+	}
+
+	public void addRetryableErrorCode(int code) {
+		retryableErrorCodes.add(code);
+	}
+
+	/**
+	 * @param attempt
+	 *            number of attempts already made (1 after the first failure)
+	 * @return the time to wait before the next attempt, in milliseconds
+	 */
+	public long getDelay(int attempt) {
+		long cap = baseDelay << Math.min(attempt - 1, 20);
+		if ((cap <= 0) || (cap > maxDelay)) {
+			cap = maxDelay;
+		}
+		synchronized (rand) {
+			return (long) (rand.nextDouble() * cap);
+		}
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public boolean isRetryable(FlickrException e) {
+		int status = e.getHttpStatus();
+		if (status >= 0) {
+			return (status == 408) || (status == 429) || (status >= 500);
+		}
+
+		if (e.getErrorCode() >= 0) {
+			return retryableErrorCodes.contains(e.getErrorCode());
+		}
+
+		// a response parsed straight off the socket wraps the network failure in an XMLStreamException
+		Set<Throwable> visited = new HashSet<Throwable>();
+		Throwable cause = e.getCause();
+		while ((cause != null) && visited.add(cause)) {
+			if (isTransient(cause)) {
+				return true;
+			}
+			Throwable next = cause.getCause();
+			if ((next == null) && (cause instanceof XMLStreamException)) {
+				next = ((XMLStreamException) cause).getNestedException();
+			}
+			cause = next;
+		}
+		return false;
+	}
+
+	private boolean isTransient(Throwable cause) {
+		return (cause instanceof InterruptedIOException) || (cause instanceof ConnectException) || (cause instanceof NoRouteToHostException) || (cause instanceof UnknownHostException) || (cause instanceof EOFException) || (cause instanceof SocketException);
+	}
+}
@@ -28,6 +28,7 @@ public class FlickrSearchQuery {
 	private int page;
 	private int perpage;
 	private int max;
+	private boolean sizesFromExtras;
 
 	public FlickrSearchQuery(String query, int max) {
 		super();
@@ -36,6 +37,7 @@ public class FlickrSearchQuery {
 		this.max = max;
 		this.page = 1;
 		this.perpage = 100;
+		this.sizesFromExtras = true;
 	}
 	
 	public FlickrSearchQuery nextPageQuery() {
@@ -43,6 +45,7 @@ public class FlickrSearchQuery {
 		
 		next.setPerpage(getPerpage());
 		next.setPage(getPage() + 1);
+		next.setSizesFromExtras(isSizesFromExtras());
 		
 		return next;
 	}
@@ -52,7 +55,11 @@ public class FlickrSearchQuery {
 	}
 	
 	public String getEffectiveQuery() {
-		return query + "&extras=license,tags&per_page=" + perpage + "&page=" + page;
+		String extras = "license,tags";
+		if (sizesFromExtras) {
+			extras += "," + FlickrImageSize.getExtrasParameter();
+		}
+		return query + "&extras=" + extras + "&per_page=" + perpage + "&page=" + page;
 	}
 
 	public int getPage() {
@@ -74,4 +81,16 @@ public class FlickrSearchQuery {
 	public int getMax() {
 		return max;
 	}
+
+	public boolean isSizesFromExtras() {
+		return sizesFromExtras;
+	}
+
+	/**
+	 * When set (default), the available sizes are asked along with the search results and no
+	 * flickr.photos.getSizes call is needed for the photos that carry them.
+	 */
+	public void setSizesFromExtras(boolean sizesFromExtras) {
+		this.sizesFromExtras = sizesFromExtras;
+	}
 }
@@ -20,9 +20,22 @@
 package name.herve.flickrlib;
 
 import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import name.herve.flickrlib.filters.FlickrSearchResponseFilter;
 import name.herve.flickrlib.filters.NoFilter;
+import name.herve.flickrlib.jfr.FlickrEvents;
+import name.herve.flickrlib.jfr.FlickrPageFetchEvent;
+import name.herve.flickrlib.metrics.FlickrMeteredFilter;
+import name.herve.flickrlib.metrics.FlickrMetrics;
 import plugins.nherve.toolbox.Algorithm;
 
 /**
@@ -30,61 +43,140 @@ import plugins.nherve.toolbox.Algorithm;
  * @author Nicolas HERVE - n.herve@laposte.net
  */
 public class FlickrSearchResponse implements Iterable<FlickrImage> {
+	/**
+	 * Consulted before each page following the first one is requested, including the prefetched
+	 * ones.
+	 */
+	public interface PageGate {
+		/**
+		 * @return false to stop the iteration before the page is requested
+		 */
+		boolean allowPage(FlickrSearchQuery query) throws FlickrException;
+	}
+
+	private class PrefetchedPage {
+		private Future<FlickrSearchResponseData> data;
+		private FlickrSearchQuery query;
+	}
+
 	public class FlickrSearchResponseIterator implements Iterator<FlickrImage> {
+		private FlickrSearchResponseFilter activeFilter;
 		private FlickrSearchResponseData currentData;
 		private Iterator<FlickrImage> currentIterator;
 		private FlickrSearchQuery currentQuery;
 		private int count;
 
+		private FlickrException lastError;
 		private FlickrImage nextImage;
+		private boolean nextLooked;
+		private LinkedList<PrefetchedPage> prefetched;
 
 		public FlickrSearchResponseIterator() throws FlickrException {
 			super();
 
+			FlickrMetrics metrics = flickr.getMetrics();
+			activeFilter = (metrics != null) ? FlickrMeteredFilter.wrap(filter, metrics) : filter;
 			currentQuery = originalQuery;
 			currentData = null;
 			currentIterator = null;
 			nextImage = null;
+			nextLooked = false;
+			lastError = null;
 			count = 0;
+			prefetched = new LinkedList<PrefetchedPage>();
+		}
+
+		/**
+		 * Cancels the pages still being fetched in the background. To be called when the iteration
+		 * is abandoned before its end.
+		 */
+		public void close() {
+			for (PrefetchedPage p : prefetched) {
+				p.data.cancel(true);
+			}
+			prefetched.clear();
 		}
 
 		public void init() throws FlickrException {
 			nextPage();
-			doNext();
 		}
 
+		/**
+		 * Looks for the next image that matches the filter, only when asked for : filters with side
+		 * effects, such as claiming the image, only see the images that will be returned.
+		 */
 		@Override
 		public boolean hasNext() {
-			return (count < currentQuery.getMax()) && (nextImage != null);
+			if (!nextLooked && (count < currentQuery.getMax())) {
+				doNext();
+				nextLooked = true;
+			}
+			boolean hasNext = (count < currentQuery.getMax()) && (nextImage != null);
+			if (!hasNext) {
+				close();
+			}
+			return hasNext;
 		}
 
 		private void doNext() {
 			nextImage = null;
+			FlickrImage candidate = null;
+			do {
+				candidate = nextCandidate();
+			} while ((candidate != null) && !activeFilter.match(candidate));
+			nextImage = candidate;
+		}
+
+		/**
+		 * @return the next image of the results, null at their end or on error
+		 */
+		private FlickrImage nextCandidate() {
 			if ((currentData != null) && (currentIterator != null)) {
 				if (!currentIterator.hasNext() && (!currentData.isLastPage())) {
 					try {
-						nextPage();
+						checkPageAllowed(currentQuery.nextPageQuery());
 					} catch (FlickrException e) {
-						return;
+						lastError = e;
+						return null;
+					}
+
+					int attempt = 0;
+					while (true) {
+						attempt++;
+						try {
+							nextPage();
+							lastError = null;
+							break;
+						} catch (FlickrException e) {
+							lastError = e;
+							if ((attempt > pageRetries) || !isPageRetryable(e) || !waitBeforeRetry(attempt, e)) {
+								return null;
+							}
+						}
 					}
 				}
 
 				if (currentIterator.hasNext()) {
-					nextImage = currentIterator.next();
+					return currentIterator.next();
 				}
 			}
+			return null;
 		}
 
 		@Override
 		public FlickrImage next() {
-			FlickrImage result = null;
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
 
-			do {
-				result = nextImage;
-				doNext();
-			} while (!filter.match(result) && hasNext());
+			FlickrImage result = nextImage;
+			nextImage = null;
+			nextLooked = false;
 
 			count++;
+			if (count >= currentQuery.getMax()) {
+				close();
+			}
 			return result;
 		}
 
@@ -93,35 +185,230 @@ public class FlickrSearchResponse implements Iterable<FlickrImage> {
 			// ignore
 		}
 
+		/**
+		 * The error that interrupted the iteration, once the page could not be fetched after
+		 * all the retries, null otherwise.
+		 */
+		public FlickrException getLastError() {
+			return lastError;
+		}
+
+		/**
+		 * Fetches the page following the current one. On failure, the iterator stays on the
+		 * current page so that the same page is requested again by the next call.
+		 */
 		private void nextPage() throws FlickrException {
-			if (currentData != null) {
-				currentQuery = currentQuery.nextPageQuery();
+			FlickrSearchQuery query = (currentData != null) ? currentQuery.nextPageQuery() : currentQuery;
+
+			FlickrPageFetchEvent event = FlickrEvents.newPageFetchEvent();
+
+			FlickrSearchResponseData data = null;
+			PrefetchedPage p = prefetched.peek();
+			if ((p != null) && (p.query.getPage() == query.getPage())) {
+				prefetched.poll();
+				try {
+					data = p.data.get();
+					if (event != null) {
+						event.prefetched = true;
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new FlickrException(e);
+				} catch (ExecutionException e) {
+					// fetched again below
+				} catch (CancellationException e) {
+					// fetched again below
+				}
+			}
+
+			if (data == null) {
+				data = flickr.searchAsData(query);
 			}
 
-			currentData = flickr.searchAsData(currentQuery);
+			currentQuery = query;
+			currentData = data;
 			currentIterator = currentData.getPictures().iterator();
+
+			if (event != null) {
+				event.end();
+				if (event.shouldCommit()) {
+					event.query = query.getInitialQuery();
+					event.page = query.getPage();
+					event.perPage = query.getPerpage();
+					event.images = data.getPictures().size();
+					event.commit();
+				}
+			}
+
+			schedulePrefetch();
+		}
+
+		private void schedulePrefetch() {
+			if (prefetch <= 0) {
+				return;
+			}
+
+			// no page is prefetched beyond the ones that hold the max images, counted from the first page
+			FlickrSearchQuery last = prefetched.isEmpty() ? currentQuery : prefetched.getLast().query;
+			while ((prefetched.size() < prefetch) && (last.getPage() < currentData.getPages()) && ((last.getPage() - originalQuery.getPage() + 1) * (long) last.getPerpage() < currentQuery.getMax())) {
+				final PrefetchedPage p = new PrefetchedPage();
+				p.query = last.nextPageQuery();
+				try {
+					checkPageAllowed(p.query);
+				} catch (FlickrException e) {
+					// requested again, through the gate, when it is needed
+					break;
+				}
+				p.data = getPrefetchExecutor().submit(new Callable<FlickrSearchResponseData>() {
+					@Override
+					public FlickrSearchResponseData call() throws Exception {
+						return flickr.searchAsData(p.query);
+					}
+				});
+				prefetched.add(p);
+				last = p.query;
+			}
+		}
+
+		/**
+		 * Page the next image comes from.
+		 */
+		public int getCurrentPage() {
+			return currentQuery.getPage();
 		}
 
 		public int getTotal() {
 			return currentData.getTotal();
 		}
+
+		/**
+		 * A page refused by the gate interrupts the iteration as an error would : it resumes on the
+		 * same page. A page already prefetched went through the gate.
+		 */
+		private void checkPageAllowed(FlickrSearchQuery query) throws FlickrException {
+			if (pageGate == null) {
+				return;
+			}
+			PrefetchedPage p = prefetched.peek();
+			if ((p != null) && (p.query.getPage() == query.getPage())) {
+				return;
+			}
+			if (!pageGate.allowPage(query)) {
+				throw new FlickrException("Page " + query.getPage() + " refused");
+			}
+		}
+
+		/**
+		 * When the frontend has a {@link FlickrResilience}, its policy already retried the
+		 * transient failures : the page is only requested again once an open circuit may have
+		 * closed.
+		 */
+		private boolean isPageRetryable(FlickrException e) {
+			return (flickr.getResilience() == null) || (e instanceof FlickrCircuitOpenException);
+		}
+
+		private boolean waitBeforeRetry(int attempt, FlickrException error) {
+			FlickrResilience resilience = flickr.getResilience();
+			long delay = (resilience != null) ? resilience.getPolicy().getDelay(attempt) : DEFAULT_PAGE_RETRY_DELAY;
+			if (error instanceof FlickrCircuitOpenException) {
+				delay = Math.max(delay, ((FlickrCircuitOpenException) error).getRetryAfter());
+			}
+			try {
+				Thread.sleep(delay);
+				return true;
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+	}
+
+	private final static long DEFAULT_PAGE_RETRY_DELAY = 1000;
+
+	private static ExecutorService defaultPrefetchExecutor = null;
+
+	private static synchronized ExecutorService getDefaultPrefetchExecutor() {
+		if (defaultPrefetchExecutor == null) {
+			defaultPrefetchExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "FlickrSearchResponse-prefetch");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return defaultPrefetchExecutor;
 	}
 
 	private FlickrFrontend flickr;
 	private FlickrSearchQuery originalQuery;
 	private FlickrSearchResponseFilter filter;
+	private PageGate pageGate;
+	private int pageRetries;
+	private int prefetch;
+	private ExecutorService prefetchExecutor;
 
 	public FlickrSearchResponse(FlickrFrontend flickr, FlickrSearchQuery query, FlickrSearchResponseFilter filter) {
 		super();
 		this.flickr = flickr;
 		this.originalQuery = query;
 		this.filter = filter;
+		this.pageGate = null;
+		this.pageRetries = 3;
+		this.prefetch = 0;
+		this.prefetchExecutor = null;
 	}
 
 	public FlickrSearchResponse(FlickrFrontend flickr, FlickrSearchQuery query) {
 		this(flickr, query, new NoFilter());
 	}
 
+	public PageGate getPageGate() {
+		return pageGate;
+	}
+
+	public int getPageRetries() {
+		return pageRetries;
+	}
+
+	public int getPrefetch() {
+		return prefetch;
+	}
+
+	private ExecutorService getPrefetchExecutor() {
+		if (prefetchExecutor != null) {
+			return prefetchExecutor;
+		}
+		return getDefaultPrefetchExecutor();
+	}
+
+	public void setPageGate(PageGate pageGate) {
+		this.pageGate = pageGate;
+	}
+
+	/**
+	 * Number of times a page that could not be fetched is requested again before the iteration
+	 * stops. The iteration then resumes on the same page, without skipping or repeating images.
+	 * With a {@link FlickrResilience}, only the pages refused by an open circuit are requested
+	 * again, once the circuit may have closed.
+	 */
+	public void setPageRetries(int pageRetries) {
+		this.pageRetries = pageRetries;
+	}
+
+	/**
+	 * Number of pages to fetch in the background ahead of the one being iterated. 0 (default)
+	 * fetches each page only when it is needed.
+	 */
+	public void setPrefetch(int prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	public void setPrefetchExecutor(ExecutorService prefetchExecutor) {
+		this.prefetchExecutor = prefetchExecutor;
+	}
+
 	@Override
 	public Iterator<FlickrImage> iterator() {
 		try {
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+import name.herve.flickrlib.util.MappedLongHashTable;
+
+/**
+ * Persistent index from photo id to its available sizes, so that flickr.photos.getSizes is only
+ * called once per photo across sessions.
+ * <p>
+ * The <code>sizes.idx</code> file is a {@link MappedLongHashTable} from photo id to record
+ * offset. The records are appended to <code>sizes.dat</code>, prefixed with their length and
+ * CRC32 : for each size, its label code, width, height and source URL. A record torn by a crash
+ * or damaged is a miss, the sizes are asked again. The index can be shared by the threads of a
+ * process. It is locked against other processes while open. An index of an older version is
+ * dropped.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrSizeIndex implements Closeable {
+	private final static int MAGIC = 0x464C5349;
+	private final static int VERSION = 2;
+	private final static int FRAME_HEADER_SIZE = 8;
+	private final static int MAX_RECORD_LENGTH = 1 << 24;
+	private final static int UNKNOWN_LABEL = 0xFF;
+	private final static Charset UTF8 = Charset.forName("UTF-8");
+
+	public final static int DEFAULT_CAPACITY = 1 << 20;
+
+	private FileChannel data;
+	private File directory;
+	private MappedLongHashTable index;
+	private FileLock lock;
+	private ReadWriteLock rwLock;
+
+	public FlickrSizeIndex(File directory) throws IOException {
+		this(directory, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            number of slots of a new index, rounded up to a power of 2. The index doubles when it
+	 *            is 3/4 full.
+	 */
+	public FlickrSizeIndex(File directory, int initialCapacity) throws IOException {
+		super();
+
+		this.directory = directory;
+		directory.mkdirs();
+		rwLock = new ReentrantReadWriteLock();
+
+		data = new RandomAccessFile(new File(directory, "sizes.dat"), "rw").getChannel();
+		lock = data.tryLock();
+		if (lock == null) {
+			data.close();
+			throw new IOException("Size index " + directory + " is already in use by another process");
+		}
+
+		try {
+			File idx = new File(directory, "sizes.idx");
+			if (isOlderVersion(idx)) {
+				// its records have no checksum
+				idx.delete();
+				data.truncate(0);
+			}
+			index = new MappedLongHashTable(idx, MAGIC, VERSION, MappedLongHashTable.BASE_HEADER_SIZE, 1, initialCapacity, false);
+		} catch (IOException e) {
+			lock.release();
+			data.close();
+			throw e;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		rwLock.writeLock().lock();
+		try {
+			data.force(false);
+			index.close();
+			lock.release();
+			data.close();
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the known sizes of the photo, or null if it has not been indexed yet
+	 */
+	public List<FlickrImageSize> get(long photoId) throws IOException {
+		long offset = -1;
+
+		rwLock.readLock().lock();
+		try {
+			offset = index.get(photoId, 0, -1);
+		} finally {
+			rwLock.readLock().unlock();
+		}
+
+		if (offset < 0) {
+			return null;
+		}
+
+		long size = data.size();
+		if (offset + FRAME_HEADER_SIZE > size) {
+			return null;
+		}
+		ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+		readFully(header, offset);
+		int len = header.getInt(0);
+		if ((len < 1) || (len > MAX_RECORD_LENGTH) || (offset + FRAME_HEADER_SIZE + len > size)) {
+			return null;
+		}
+		ByteBuffer record = ByteBuffer.allocate(len);
+		readFully(record, offset + FRAME_HEADER_SIZE);
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), 0, len);
+		if ((int) crc.getValue() != header.getInt(4)) {
+			return null;
+		}
+		record.flip();
+
+		try {
+			int nb = record.get() & 0xFF;
+			List<FlickrImageSize> sizes = new ArrayList<FlickrImageSize>(nb);
+			for (int i = 0; i < nb; i++) {
+				FlickrImageSize sz = new FlickrImageSize();
+				int code = record.get() & 0xFF;
+				if (code == UNKNOWN_LABEL) {
+					sz.setLabel(getString(record));
+				} else if (code < FlickrImageSize.LABELS.length) {
+					sz.setLabel(FlickrImageSize.LABELS[code]);
+				} else {
+					return null;
+				}
+				sz.setWidth(record.getInt());
+				sz.setHeight(record.getInt());
+				sz.setSource(getString(record));
+				sizes.add(sz);
+			}
+			return sizes;
+		} catch (BufferUnderflowException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Forces the records and the index to the disk.
+	 */
+	public void force() throws IOException {
+		rwLock.readLock().lock();
+		try {
+			data.force(false);
+			index.force();
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	private String getString(ByteBuffer record) {
+		int len = record.getShort() & 0xFFFF;
+		if (len > record.remaining()) {
+			throw new BufferUnderflowException();
+		}
+		String s = new String(record.array(), record.position(), len, UTF8);
+		record.position(record.position() + len);
+		return s;
+	}
+
+	private boolean isOlderVersion(File idx) throws IOException {
+		if (idx.length() < 8) {
+			return false;
+		}
+		RandomAccessFile f = new RandomAccessFile(idx, "r");
+		try {
+			return (f.readInt() == MAGIC) && (f.readInt() < VERSION);
+		} finally {
+			f.close();
+		}
+	}
+
+	private void putString(ByteBuffer record, byte[] s) {
+		record.putShort((short) s.length);
+		record.put(s);
+	}
+
+	public void put(long photoId, Collection<FlickrImageSize> sizes) throws IOException {
+		if (photoId <= 0) {
+			return;
+		}
+
+		int length = 1;
+		List<byte[]> strings = new ArrayList<byte[]>();
+		for (FlickrImageSize sz : sizes) {
+			int code = FlickrImageSize.getLabelCode(sz.getLabel());
+			byte[] label = (code < 0) ? sz.getLabel().getBytes(UTF8) : null;
+			byte[] source = sz.getSource().getBytes(UTF8);
+			strings.add(label);
+			strings.add(source);
+			length += 1 + (label == null ? 0 : 2 + label.length) + 8 + 2 + source.length;
+		}
+
+		ByteBuffer record = ByteBuffer.allocate(FRAME_HEADER_SIZE + length);
+		record.position(FRAME_HEADER_SIZE);
+		record.put((byte) Math.min(sizes.size(), 255));
+		int s = 0;
+		for (FlickrImageSize sz : sizes) {
+			byte[] label = strings.get(s++);
+			byte[] source = strings.get(s++);
+			if (label == null) {
+				record.put((byte) FlickrImageSize.getLabelCode(sz.getLabel()));
+			} else {
+				record.put((byte) UNKNOWN_LABEL);
+				putString(record, label);
+			}
+			record.putInt(sz.getWidth());
+			record.putInt(sz.getHeight());
+			putString(record, source);
+		}
+		CRC32 crc = new CRC32();
+		crc.update(record.array(), FRAME_HEADER_SIZE, length);
+		record.putInt(0, length);
+		record.putInt(4, (int) crc.getValue());
+		record.flip();
+
+		rwLock.writeLock().lock();
+		try {
+			long offset = data.size();
+			while (record.hasRemaining()) {
+				data.write(record, offset + record.position());
+			}
+
+			index.put(photoId, 0, offset);
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (data.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Truncated size index record at " + position);
+			}
+		}
+	}
+
+	public int size() {
+		rwLock.readLock().lock();
+		try {
+			return index.size();
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process wide table of the short strings that repeat across images (farms, servers, licenses,
+ * image hosts and URL suffixes), each one stored once and referred to by an int code. The table
+ * only grows, its size is bounded by the number of distinct values Flickr uses for those fields.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+class FlickrSymbols {
+	private final static Map<String, Integer> CODES = new ConcurrentHashMap<String, Integer>();
+	private static int count = 0;
+	private static volatile String[] symbols = new String[256];
+
+	/**
+	 * @return the code of the string, -1 for null
+	 */
+	static int getCode(String s) {
+		if (s == null) {
+			return -1;
+		}
+		Integer code = CODES.get(s);
+		if (code != null) {
+			return code;
+		}
+
+		synchronized (FlickrSymbols.class) {
+			code = CODES.get(s);
+			if (code == null) {
+				if (count == symbols.length) {
+					symbols = Arrays.copyOf(symbols, count * 2);
+				}
+				symbols[count] = s;
+				code = count++;
+				CODES.put(s, code);
+			}
+			return code;
+		}
+	}
+
+	static String getSymbol(int code) {
+		return (code < 0) ? null : symbols[code];
+	}
+}
@@ -19,10 +19,13 @@
 
 package name.herve.flickrlib;
 
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
+ * String based helpers, kept for compatibility. Whole responses and fragments are now parsed by
+ * {@link FlickrXmlStreamParser}.
  * 
  * @author Nicolas HERVE - n.herve@laposte.net
  */
@@ -46,54 +49,27 @@ public class FlickrXmlParser {
 	}
 	
 	public static FlickrImage parseImage(String xml) throws FlickrException {
-		FlickrImage image = new FlickrImage();
-		
-		image.setFarm(getXmlValue(xml, "farm"));
-		image.setServer(getXmlValue(xml, "server"));
-		image.setId(getXmlValue(xml, "id"));
-		image.setSecret(getXmlValue(xml, "secret"));
-		image.setOwner(getXmlValue(xml, "owner"));
-		image.setTitle(getXmlValue(xml, "title"));
-		
-		try {
-			image.setLicenseId(getXmlValue(xml, "license"));
-		} catch (FlickrException e) {
-			// ignore
-		}
-		
-		try {
-			image.setTags(getXmlValue(xml, "tags"));
-		} catch (FlickrException e) {
-			// ignore
+		List<FlickrImage> images = FlickrXmlStreamParser.parseImages(new StringReader(xml));
+		if (images.isEmpty()) {
+			throw new FlickrException("Unable to find photo");
 		}
-		
-		return image;
+		return images.get(0);
 	}
 	
 	public static FlickrLicense parseLicense(String xml) throws FlickrException {
-		FlickrLicense license = new FlickrLicense();
-		
-		license.setId(getXmlValueInt(xml,"id"));
-		license.setName(getXmlValue(xml, "name"));
-		license.setUrl(getXmlValue(xml, "url"));
-		
-		return license;
+		List<FlickrLicense> licenses = FlickrXmlStreamParser.parseLicenses(new StringReader(xml));
+		if (licenses.isEmpty()) {
+			throw new FlickrException("Unable to find license");
+		}
+		return licenses.get(0);
 	}
 	
 	public static FlickrImageSize parseSize(String xml) throws FlickrException {
-		FlickrImageSize size = new FlickrImageSize();
-		
-		size.setLabel(getXmlValue(xml, "label"));
-		size.setSource(getXmlValue(xml, "source"));
-		size.setUrl(getXmlValue(xml, "url"));
-		try {
-			size.setWidth(getXmlValueInt(xml, "width"));
-			size.setHeight(getXmlValueInt(xml, "height"));
-		} catch (NumberFormatException e) {
-			throw new FlickrException(e);
+		List<FlickrImageSize> sizes = FlickrXmlStreamParser.parseSizes(new StringReader(xml));
+		if (sizes.isEmpty()) {
+			throw new FlickrException("Unable to find size");
 		}
-		
-		return size;
+		return sizes.get(0);
 	}
 	
 	public static List<String> splitImagesXml(String xml) throws FlickrException {
@@ -113,25 +89,10 @@ public class FlickrXmlParser {
 	}
 	
 	public static FlickrSearchResponseData asResponseData(String xml) throws FlickrException {
-		FlickrSearchResponseData data = new FlickrSearchResponseData();
-		
-		String meta = getMetadata(xml);
-		data.setPage(getXmlValueInt(meta, "page"));
-		data.setPages(getXmlValueInt(meta, "pages"));
-		data.setPerpage(getXmlValueInt(meta, "perpage"));
-		data.setTotal(getXmlValueInt(meta, "total"));
-		
-		List<String> imagesXml = FlickrXmlParser.splitImagesXml(xml);
-		List<FlickrImage> pictures = new ArrayList<FlickrImage>();
-
-		for (String ixml : imagesXml) {
-			FlickrImage img = FlickrXmlParser.parseImage(ixml);
-			pictures.add(img);
+		if (xml == null) {
+			throw new FlickrException("No XML to parse in asResponseData()");
 		}
-		
-		data.setPictures(pictures);
-		
-		return data;
+		return FlickrXmlStreamParser.asResponseData(new StringReader(xml));
 	}
 	
 	public static String getXml(String xml, String start, String end) throws FlickrException {
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib;
+
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import name.herve.flickrlib.jfr.FlickrEvents;
+import name.herve.flickrlib.jfr.FlickrParseEvent;
+
+/**
+ * Single pass parser working directly on the response stream. It builds the model objects while
+ * reading, without keeping the full response or any XML fragment in memory.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrXmlStreamParser {
+	private static class Content {
+		private FlickrSearchResponseData data;
+		private List<FlickrImage> pictures;
+		private List<FlickrImageSize> sizes;
+		private List<FlickrLicense> licenses;
+
+		private Content() {
+			super();
+			data = null;
+			pictures = new ArrayList<FlickrImage>();
+			sizes = new ArrayList<FlickrImageSize>();
+			licenses = new ArrayList<FlickrLicense>();
+		}
+	}
+
+	private final static int EXTRA_URL = 0;
+	private final static int EXTRA_WIDTH = 1;
+	private final static int EXTRA_HEIGHT = 2;
+
+	private final static Map<String, Integer> EXTRAS_ATTRIBUTES;
+	private final static XMLInputFactory FACTORY;
+
+	static {
+		EXTRAS_ATTRIBUTES = new HashMap<String, Integer>();
+		for (int i = 0; i < FlickrImageSize.EXTRAS.length; i++) {
+			String suffix = FlickrImageSize.EXTRAS[i][0];
+			EXTRAS_ATTRIBUTES.put("url_" + suffix, i * 3 + EXTRA_URL);
+			EXTRAS_ATTRIBUTES.put("width_" + suffix, i * 3 + EXTRA_WIDTH);
+			EXTRAS_ATTRIBUTES.put("height_" + suffix, i * 3 + EXTRA_HEIGHT);
+		}
+
+		FACTORY = XMLInputFactory.newInstance();
+		FACTORY.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+		FACTORY.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+	}
+
+	public static FlickrSearchResponseData asResponseData(InputStream in) throws FlickrException {
+		return asResponseData(createReader(in));
+	}
+
+	public static FlickrSearchResponseData asResponseData(Reader in) throws FlickrException {
+		return asResponseData(createReader(in));
+	}
+
+	private static FlickrSearchResponseData asResponseData(XMLStreamReader r) throws FlickrException {
+		FlickrParseEvent event = FlickrEvents.newParseEvent();
+		if (event == null) {
+			return parseData(r);
+		}
+
+		FlickrSearchResponseData data = parseData(r);
+
+		event.end();
+		if (event.shouldCommit()) {
+			event.images = data.getPictures().size();
+			event.page = data.getPage();
+			event.pages = data.getPages();
+			event.total = data.getTotal();
+			event.commit();
+		}
+
+		return data;
+	}
+
+	public static List<FlickrImage> parseImages(InputStream in) throws FlickrException {
+		return parse(createReader(in)).pictures;
+	}
+
+	public static List<FlickrImage> parseImages(Reader in) throws FlickrException {
+		return parse(createReader(in)).pictures;
+	}
+
+	public static List<FlickrImageSize> parseSizes(InputStream in) throws FlickrException {
+		return parse(createReader(in)).sizes;
+	}
+
+	public static List<FlickrImageSize> parseSizes(Reader in) throws FlickrException {
+		return parse(createReader(in)).sizes;
+	}
+
+	public static List<FlickrLicense> parseLicenses(InputStream in) throws FlickrException {
+		return parse(createReader(in)).licenses;
+	}
+
+	public static List<FlickrLicense> parseLicenses(Reader in) throws FlickrException {
+		return parse(createReader(in)).licenses;
+	}
+
+	private static XMLStreamReader createReader(InputStream in) throws FlickrException {
+		try {
+			return FACTORY.createXMLStreamReader(in);
+		} catch (XMLStreamException e) {
+			throw new FlickrException(e);
+		}
+	}
+
+	private static XMLStreamReader createReader(Reader in) throws FlickrException {
+		try {
+			return FACTORY.createXMLStreamReader(in);
+		} catch (XMLStreamException e) {
+			throw new FlickrException(e);
+		}
+	}
+
+	private static int getInt(String value, String parameter) throws FlickrException {
+		if (value == null) {
+			throw new FlickrException("Unable to find parameter " + parameter);
+		}
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new FlickrException(e);
+		}
+	}
+
+	private static Content parse(XMLStreamReader r) throws FlickrException {
+		Content content = new Content();
+		boolean failed = false;
+
+		try {
+			while (r.hasNext()) {
+				if (r.next() != XMLStreamConstants.START_ELEMENT) {
+					continue;
+				}
+
+				String element = r.getLocalName();
+				if ("photo".equals(element)) {
+					content.pictures.add(parseImage(r));
+				} else if ("size".equals(element)) {
+					content.sizes.add(parseSize(r));
+				} else if ("license".equals(element)) {
+					content.licenses.add(parseLicense(r));
+				} else if ("photos".equals(element)) {
+					content.data = parseMetadata(r);
+				} else if ("rsp".equals(element)) {
+					failed = !"ok".equals(r.getAttributeValue(null, "stat"));
+				} else if ("err".equals(element)) {
+					String code = r.getAttributeValue(null, "code");
+					int errorCode = -1;
+					try {
+						errorCode = Integer.parseInt(code);
+					} catch (NumberFormatException e) {
+						// unknown code
+					}
+					throw new FlickrException("Call failed : " + code + " - " + r.getAttributeValue(null, "msg"), -1, errorCode);
+				}
+			}
+		} catch (XMLStreamException e) {
+			throw new FlickrException(e);
+		} finally {
+			try {
+				r.close();
+			} catch (XMLStreamException e) {
+				// ignore
+			}
+		}
+
+		if (failed) {
+			throw new FlickrException("Call failed");
+		}
+
+		return content;
+	}
+
+	private static FlickrSearchResponseData parseData(XMLStreamReader r) throws FlickrException {
+		Content content = parse(r);
+		if (content.data == null) {
+			throw new FlickrException("Unable to find photos metadata");
+		}
+		content.data.setPictures(content.pictures);
+		return content.data;
+	}
+
+	private static FlickrImage parseImage(XMLStreamReader r) throws FlickrException {
+		FlickrImage image = new FlickrImage();
+		String[] extras = null;
+
+		for (int a = 0; a < r.getAttributeCount(); a++) {
+			String name = r.getAttributeLocalName(a);
+			String value = r.getAttributeValue(a);
+
+			if ("id".equals(name)) {
+				image.setId(value);
+			} else if ("owner".equals(name)) {
+				image.setOwner(value);
+			} else if ("secret".equals(name)) {
+				image.setSecret(value);
+			} else if ("server".equals(name)) {
+				image.setServer(value);
+			} else if ("farm".equals(name)) {
+				image.setFarm(value);
+			} else if ("title".equals(name)) {
+				image.setTitle(value);
+			} else if ("license".equals(name)) {
+				image.setLicenseId(value);
+			} else if ("tags".equals(name)) {
+				image.setTags(value);
+			} else {
+				Integer ex = EXTRAS_ATTRIBUTES.get(name);
+				if (ex != null) {
+					if (extras == null) {
+						extras = new String[FlickrImageSize.EXTRAS.length * 3];
+					}
+					extras[ex] = value;
+				}
+			}
+		}
+
+		if (image.getId() == null) {
+			throw new FlickrException("Unable to find parameter id");
+		}
+
+		if (extras != null) {
+			for (int i = 0; i < FlickrImageSize.EXTRAS.length; i++) {
+				String source = extras[i * 3 + EXTRA_URL];
+				if (source != null) {
+					try {
+						FlickrImageSize size = new FlickrImageSize();
+						size.setLabel(FlickrImageSize.EXTRAS[i][1]);
+						size.setSource(source);
+						size.setWidth(getInt(extras[i * 3 + EXTRA_WIDTH], "width_" + FlickrImageSize.EXTRAS[i][0]));
+						size.setHeight(getInt(extras[i * 3 + EXTRA_HEIGHT], "height_" + FlickrImageSize.EXTRAS[i][0]));
+						image.addAvailableSize(size);
+					} catch (FlickrException e) {
+						// ignore
+					}
+				}
+			}
+
+			if (image.getNbAvailableSizes() > 0) {
+				image.setSizesDone(true);
+			}
+		}
+
+		return image;
+	}
+
+	private static FlickrLicense parseLicense(XMLStreamReader r) throws FlickrException {
+		FlickrLicense license = new FlickrLicense();
+
+		license.setId(getInt(r.getAttributeValue(null, "id"), "id"));
+		license.setName(r.getAttributeValue(null, "name"));
+		license.setUrl(r.getAttributeValue(null, "url"));
+
+		return license;
+	}
+
+	private static FlickrSearchResponseData parseMetadata(XMLStreamReader r) throws FlickrException {
+		FlickrSearchResponseData data = new FlickrSearchResponseData();
+
+		data.setPage(getInt(r.getAttributeValue(null, "page"), "page"));
+		data.setPages(getInt(r.getAttributeValue(null, "pages"), "pages"));
+		data.setPerpage(getInt(r.getAttributeValue(null, "perpage"), "perpage"));
+		data.setTotal(getInt(r.getAttributeValue(null, "total"), "total"));
+
+		return data;
+	}
+
+	private static FlickrImageSize parseSize(XMLStreamReader r) throws FlickrException {
+		FlickrImageSize size = new FlickrImageSize();
+
+		size.setLabel(r.getAttributeValue(null, "label"));
+		size.setSource(r.getAttributeValue(null, "source"));
+		size.setUrl(r.getAttributeValue(null, "url"));
+		size.setWidth(getInt(r.getAttributeValue(null, "width"), "width"));
+		size.setHeight(getInt(r.getAttributeValue(null, "height"), "height"));
+
+		return size;
+	}
+}
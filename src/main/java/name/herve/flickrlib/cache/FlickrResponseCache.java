@@ -0,0 +1,377 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.cache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for the API responses, keyed by the method and parameters string sent by the frontend. A
+ * bounded in-memory LRU sits in front of an optional size capped directory. Each API method has its
+ * own time to live ; methods without one are never cached.
+ * <p>
+ * Only the in-memory LRU is guarded by a global lock. The disk entries are read and written
+ * outside of it, replacing or deleting an entry only takes the lock of its stripe. A disk entry starts with the time it was written, its modification time is the time it was
+ * last read : the least recently used entries are evicted first when the directory is full.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrResponseCache {
+	private class CachedResponse {
+		private byte[] data;
+		private long time;
+
+		private CachedResponse(byte[] data, long time) {
+			super();
+			this.data = data;
+			this.time = time;
+		}
+	}
+
+	public final static long DAY = 24 * 60 * 60 * 1000l;
+
+	private final static String ENTRY_SUFFIX = ".rsp";
+	private final static String TMP_SUFFIX = ".tmp";
+	private final static int ENTRY_HEADER_SIZE = 8;
+	private final static int NB_STRIPES = 64;
+
+	private File directory;
+	private AtomicLong diskBytes;
+	private AtomicLong diskHits;
+	private AtomicLong evictions;
+	private long maxDiskBytes;
+	private int maxMemoryEntries;
+	private Map<String, CachedResponse> memory;
+	private AtomicLong memoryHits;
+	private AtomicLong misses;
+	private AtomicBoolean shrinking;
+	private Object[] stripes;
+	private Map<String, Long> timeToLive;
+
+	public FlickrResponseCache(int maxMemoryEntries) {
+		this(maxMemoryEntries, null, 0);
+	}
+
+	public FlickrResponseCache(int maxMemoryEntries, File directory, long maxDiskBytes) {
+		super();
+
+		this.maxMemoryEntries = maxMemoryEntries;
+		this.directory = directory;
+		this.maxDiskBytes = maxDiskBytes;
+
+		memoryHits = new AtomicLong(0);
+		diskHits = new AtomicLong(0);
+		misses = new AtomicLong(0);
+		evictions = new AtomicLong(0);
+		shrinking = new AtomicBoolean(false);
+		stripes = new Object[NB_STRIPES];
+		for (int i = 0; i < NB_STRIPES; i++) {
+			stripes[i] = new Object();
+		}
+
+		memory = new LinkedHashMap<String, CachedResponse>(16, 0.75f, true) {
+			private static final long serialVersionUID = -1437468716151045727L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedResponse> eldest) {
+				if (size() > FlickrResponseCache.this.maxMemoryEntries) {
+					evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+
+		timeToLive = new HashMap<String, Long>();
+		setTimeToLive("flickr.photos.search", DAY);
+		setTimeToLive("flickr.photos.getSizes", 30 * DAY);
+		setTimeToLive("flickr.photos.licenses.getInfo", 30 * DAY);
+
+		diskBytes = new AtomicLong(0);
+		if (directory != null) {
+			directory.mkdirs();
+			File[] files = directory.listFiles();
+			for (File f : (files == null) ? new File[0] : files) {
+				if (f.getName().endsWith(ENTRY_SUFFIX)) {
+					diskBytes.addAndGet(f.length());
+				} else {
+					// interrupted writes, and entries of the previous layout
+					f.delete();
+				}
+			}
+		}
+	}
+
+	public void clear() {
+		synchronized (memory) {
+			memory.clear();
+		}
+		if (directory != null) {
+			for (File f : listDiskEntries()) {
+				delete(f);
+			}
+		}
+	}
+
+	/**
+	 * @return true if the entry was deleted
+	 */
+	private boolean delete(File f) {
+		synchronized (getStripe(f)) {
+			long len = f.length();
+			if (f.delete()) {
+				diskBytes.addAndGet(-len);
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * @return the cached response, or null if it is unknown or expired
+	 */
+	public byte[] get(String key) {
+		long ttl = getTimeToLive(key);
+		if (ttl <= 0) {
+			return null;
+		}
+
+		long now = System.currentTimeMillis();
+
+		synchronized (memory) {
+			CachedResponse e = memory.get(key);
+			if (e != null) {
+				if (now - e.time <= ttl) {
+					memoryHits.incrementAndGet();
+					return e.data;
+				}
+				memory.remove(key);
+			}
+		}
+
+		if (directory != null) {
+			File f = getDiskEntry(key);
+			byte[] content = null;
+			try {
+				content = Files.readAllBytes(f.toPath());
+			} catch (IOException e) {
+				// unknown, or just evicted
+			}
+			if (content != null) {
+				long time = (content.length >= ENTRY_HEADER_SIZE) ? ByteBuffer.wrap(content).getLong(0) : 0;
+				if (now - time <= ttl) {
+					byte[] data = Arrays.copyOfRange(content, ENTRY_HEADER_SIZE, content.length);
+					f.setLastModified(now);
+					synchronized (memory) {
+						memory.put(key, new CachedResponse(data, time));
+					}
+					diskHits.incrementAndGet();
+					return data;
+				}
+				delete(f);
+			}
+		}
+
+		misses.incrementAndGet();
+		return null;
+	}
+
+	public long getDiskBytes() {
+		return diskBytes.get();
+	}
+
+	private File getDiskEntry(String key) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] digest = md.digest(key.getBytes("UTF-8"));
+			StringBuilder name = new StringBuilder(digest.length * 2 + ENTRY_SUFFIX.length());
+			for (byte b : digest) {
+				name.append(Character.forDigit((b >> 4) & 0xF, 16));
+				name.append(Character.forDigit(b & 0xF, 16));
+			}
+			name.append(ENTRY_SUFFIX);
+			return new File(directory, name.toString());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	private Object getStripe(File f) {
+		return stripes[(f.getName().hashCode() & 0x7FFFFFFF) % NB_STRIPES];
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	public long getHits() {
+		return getMemoryHits() + getDiskHits();
+	}
+
+	public long getMemoryHits() {
+		return memoryHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getTimeToLive(String key) {
+		int idx = key.indexOf('&');
+		String method = (idx < 0) ? key : key.substring(0, idx);
+		synchronized (timeToLive) {
+			Long ttl = timeToLive.get(method);
+			return ttl == null ? 0 : ttl;
+		}
+	}
+
+	public boolean isCacheable(String key) {
+		return getTimeToLive(key) > 0;
+	}
+
+	private File[] listDiskEntries() {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return new File[0];
+		}
+		int nb = 0;
+		for (File f : files) {
+			if (f.getName().endsWith(ENTRY_SUFFIX)) {
+				files[nb++] = f;
+			}
+		}
+		return Arrays.copyOf(files, nb);
+	}
+
+	public void put(String key, byte[] data) {
+		if (!isCacheable(key)) {
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		synchronized (memory) {
+			memory.put(key, new CachedResponse(data, now));
+		}
+
+		if (directory != null) {
+			// each writer has its own temporary file, the last one renamed wins
+			File f = getDiskEntry(key);
+			File tmp = null;
+			FileOutputStream out = null;
+			try {
+				tmp = File.createTempFile(f.getName(), TMP_SUFFIX, directory);
+				out = new FileOutputStream(tmp);
+				out.write(ByteBuffer.allocate(ENTRY_HEADER_SIZE).putLong(0, now).array());
+				out.write(data);
+				out.close();
+				out = null;
+				synchronized (getStripe(f)) {
+					long previous = f.length();
+					Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					diskBytes.addAndGet(ENTRY_HEADER_SIZE + data.length - previous);
+				}
+			} catch (IOException e) {
+				if (tmp != null) {
+					tmp.delete();
+				}
+			} finally {
+				if (out != null) {
+					try {
+						out.close();
+					} catch (IOException e) {
+						// ignore
+					}
+				}
+			}
+
+			if (diskBytes.get() > maxDiskBytes) {
+				shrinkDisk();
+			}
+		}
+	}
+
+	/**
+	 * @param method
+	 *            the API method, e.g. flickr.photos.search
+	 * @param ttl
+	 *            time to live in milliseconds, 0 to disable caching for this method
+	 */
+	public void setTimeToLive(String method, long ttl) {
+		synchronized (timeToLive) {
+			timeToLive.put(method, ttl);
+		}
+	}
+
+	/**
+	 * Evicts the least recently read entries, down to 90% of the maximum size. A single thread
+	 * shrinks the directory at a time, the others go on.
+	 */
+	private void shrinkDisk() {
+		if (!shrinking.compareAndSet(false, true)) {
+			return;
+		}
+		try {
+			File[] files = listDiskEntries();
+			final long[] lastAccess = new long[files.length];
+			Integer[] order = new Integer[files.length];
+			for (int i = 0; i < files.length; i++) {
+				lastAccess[i] = files[i].lastModified();
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer o1, Integer o2) {
+					return Long.compare(lastAccess[o1], lastAccess[o2]);
+				}
+			});
+
+			long target = maxDiskBytes - maxDiskBytes / 10;
+			for (Integer i : order) {
+				if (diskBytes.get() <= target) {
+					break;
+				}
+				if (delete(files[i])) {
+					evictions.incrementAndGet();
+				}
+			}
+		} finally {
+			shrinking.set(false);
+		}
+	}
+}
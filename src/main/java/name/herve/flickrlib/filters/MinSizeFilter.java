@@ -36,7 +36,7 @@ public class MinSizeFilter implements FlickrSearchResponseFilter {
 
 	@Override
 	public boolean match(FlickrImage img) {
-		if (img.isSizesDone()) {
+		if (img.resolveSizes()) {
 			for (FlickrImageSize sz : img.getSizes()) {
 				if ((sz.getWidth() >= min) && (sz.getHeight() >= min)) {
 					return true;
@@ -19,34 +19,74 @@
 
 package name.herve.flickrlib.filters;
 
-import java.util.HashSet;
-import java.util.Set;
-
 import name.herve.flickrlib.FlickrImage;
+import name.herve.flickrlib.util.ConcurrentLongHashSet;
+import name.herve.flickrlib.util.LongSet;
 
 /**
+ * Keeps a single image per author. Authors are compared on their trimmed, upper case owner id,
+ * reduced to a 64 bits hash, so that matching allocates nothing. The hashes are kept in an exact
+ * {@link ConcurrentLongHashSet} by default, or in any other {@link LongSet}, such as a
+ * {@link name.herve.flickrlib.util.BloomFilter} to bound the memory. A set can be shared by several
+ * filters, to keep a single image per author across searches. Matching is thread safe.
  * 
  * @author Nicolas HERVE - n.herve@laposte.net
  */
 public class NoDuplicateAuthorFilter implements FlickrSearchResponseFilter {
-	
-	private Set<String> authors;
-	
+	/**
+	 * FNV-1a over the upper case characters of the trimmed owner id, then mixed.
+	 */
+	static long hash(String owner) {
+		int start = 0;
+		int end = owner.length();
+		while ((start < end) && (owner.charAt(start) <= ' ')) {
+			start++;
+		}
+		while ((end > start) && (owner.charAt(end - 1) <= ' ')) {
+			end--;
+		}
+
+		long h = 0xcbf29ce484222325L;
+		for (int i = start; i < end; i++) {
+			h ^= Character.toUpperCase(owner.charAt(i));
+			h *= 0x100000001b3L;
+		}
+		h ^= (h >>> 33);
+		h *= 0xff51afd7ed558ccdL;
+		h ^= (h >>> 33);
+		return h;
+	}
+
+	private LongSet authors;
+
 	public NoDuplicateAuthorFilter() {
+		this(new ConcurrentLongHashSet());
+	}
+
+	/**
+	 * @param authors
+	 *            the set of the authors already seen, possibly shared with other filters
+	 */
+	public NoDuplicateAuthorFilter(LongSet authors) {
 		super();
-		authors = new HashSet<String>();
+		this.authors = authors;
+	}
+
+	/**
+	 * Declares an author as already known, so that its images are discarded.
+	 */
+	public void addAuthor(String owner) {
+		authors.add(hash(owner));
+	}
+
+	public LongSet getAuthors() {
+		return authors;
 	}
 
 	@Override
 	public boolean match(FlickrImage img) {
-		String a = img.getOwner().trim().toUpperCase();
-		if (authors.contains(a)) {
-			// Algorithm.outWithTime("NoDuplicateAuthorFilter discards " + img.getId() + " (" +  img.getOwner() + " known)");
-			return false;
-		} else {
-			authors.add(a);
-			return true;
-		}
+		String owner = img.getOwner();
+		return (owner == null) || authors.add(hash(owner));
 	}
 
 }
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.filters;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import name.herve.flickrlib.FlickrImage;
+import name.herve.flickrlib.util.MappedLongHashTable;
+import name.herve.flickrlib.util.PhotoIds;
+
+/**
+ * Discards the images already grabbed, across sessions. The ids are kept in a
+ * {@link MappedLongHashTable} without values, so that opening the set costs nothing and its size
+ * does not weigh on the heap. Being first in a filter chain, it rejects the duplicates before any
+ * size lookup.
+ * <p>
+ * Matching only reads the set. An image is added once it has been grabbed : a grab claims the id
+ * before downloading the image, so that concurrent grabs of overlapping searches do not download it
+ * twice, then adds it or releases the claim if the download failed. Claims only live in the
+ * process. The set can be shared by the threads of a process, it is locked against other processes
+ * while open. Ids that are not plain numbers are never discarded.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class SeenIdsFilter implements FlickrSearchResponseFilter, Closeable {
+	private final static int MAGIC = 0x464C5345;
+	private final static int VERSION = 1;
+
+	public final static int DEFAULT_CAPACITY = 1 << 20;
+
+	private Set<Long> claimed;
+	private File file;
+	private ReadWriteLock rwLock;
+	private MappedLongHashTable table;
+
+	public SeenIdsFilter(File file) throws IOException {
+		this(file, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            number of slots of a new set, rounded up to a power of 2. The set doubles when it is
+	 *            3/4 full.
+	 */
+	public SeenIdsFilter(File file, int initialCapacity) throws IOException {
+		super();
+
+		this.file = file;
+		rwLock = new ReentrantReadWriteLock();
+		claimed = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+
+		try {
+			table = new MappedLongHashTable(file, MAGIC, VERSION, MappedLongHashTable.BASE_HEADER_SIZE, 0, initialCapacity, true);
+		} catch (IOException e) {
+			throw new IOException("Seen ids " + file + " : " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Records an image as grabbed, and drops its claim.
+	 */
+	public void add(String id) throws IOException {
+		long photoId = PhotoIds.parse(id);
+		if (photoId < 0) {
+			return;
+		}
+
+		rwLock.writeLock().lock();
+		try {
+			table.add(photoId);
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+		claimed.remove(photoId);
+	}
+
+	/**
+	 * @return a filter that claims the images it lets through. Last in a chain, it only claims the
+	 *         images the search iterator is about to return, which it counts against its max.
+	 */
+	public FlickrSearchResponseFilter claiming() {
+		return new FlickrSearchResponseFilter() {
+			@Override
+			public boolean match(FlickrImage img) {
+				return claim(img.getId());
+			}
+		};
+	}
+
+	/**
+	 * Claims an image before downloading it.
+	 * 
+	 * @return false if it was already grabbed, or is being grabbed by another thread
+	 */
+	public boolean claim(String id) {
+		long photoId = PhotoIds.parse(id);
+		if (photoId < 0) {
+			return true;
+		}
+		if (contains(photoId) || !claimed.add(photoId)) {
+			return false;
+		}
+		if (contains(photoId)) {
+			claimed.remove(photoId);
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public void close() throws IOException {
+		rwLock.writeLock().lock();
+		try {
+			table.close();
+		} finally {
+			rwLock.writeLock().unlock();
+		}
+	}
+
+	private boolean contains(long photoId) {
+		rwLock.readLock().lock();
+		try {
+			return table.contains(photoId);
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @return true if the image was already grabbed
+	 */
+	public boolean contains(String id) {
+		long photoId = PhotoIds.parse(id);
+		return (photoId > 0) && contains(photoId);
+	}
+
+	/**
+	 * Forces the set to the disk.
+	 */
+	public void force() {
+		rwLock.readLock().lock();
+		try {
+			table.force();
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public boolean match(FlickrImage img) {
+		long photoId = PhotoIds.parse(img.getId());
+		return (photoId < 0) || (!contains(photoId) && !claimed.contains(photoId));
+	}
+
+	/**
+	 * Drops the claim on an image that could not be grabbed.
+	 */
+	public void release(String id) {
+		claimed.remove(PhotoIds.parse(id));
+	}
+
+	/**
+	 * @return the number of images grabbed
+	 */
+	public int size() {
+		rwLock.readLock().lock();
+		try {
+			return table.size();
+		} finally {
+			rwLock.readLock().unlock();
+		}
+	}
+}
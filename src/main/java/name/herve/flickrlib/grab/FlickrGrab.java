@@ -19,45 +19,112 @@
 
 package name.herve.flickrlib.grab;
 
-import java.awt.image.BufferedImage;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.text.DecimalFormat;
-import java.util.Random;
-
-import javax.imageio.ImageIO;
-
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import name.herve.flickrlib.FlickrDownload;
 import name.herve.flickrlib.FlickrException;
 import name.herve.flickrlib.FlickrFrontend;
 import name.herve.flickrlib.FlickrImage;
-import name.herve.flickrlib.FlickrProgressListener;
+import name.herve.flickrlib.FlickrRateLimiter;
 import name.herve.flickrlib.FlickrSearchQuery;
 import name.herve.flickrlib.FlickrSearchResponse;
+import name.herve.flickrlib.filters.ChainedFilters;
 import name.herve.flickrlib.filters.MinSizeFilter;
+import name.herve.flickrlib.filters.SeenIdsFilter;
+import name.herve.flickrlib.metrics.FlickrMetrics;
+import name.herve.flickrlib.metrics.FlickrMetricsTextExporter;
+import name.herve.flickrlib.progress.FlickrProgress;
+import name.herve.flickrlib.progress.FlickrProgressHandler;
+import name.herve.flickrlib.progress.FlickrProgressTracker;
 import plugins.nherve.toolbox.Algorithm;
 
 /**
  * 
  * @author Nicolas HERVE - n.herve@laposte.net
  */
-public class FlickrGrab extends Algorithm implements FlickrProgressListener {
+public class FlickrGrab extends Algorithm implements FlickrProgressHandler {
+	private static class GrabJob {
+		private final static GrabJob END = new GrabJob(-1, null);
+
+		private FlickrDownload download;
+		private Exception error;
+		private FlickrImage image;
+		private File outputFile;
+		private long seq;
+		private boolean skipped;
+
+		private GrabJob(long seq, FlickrImage image) {
+			super();
+			this.seq = seq;
+			this.image = image;
+		}
+	}
+
 	private final static String APP_KEY = "9a96e50181eb0ab5be0ee15b147acaf8";
 
+	private final static int DEFAULT_QUEUE_SIZE = 100;
+	private final static int DEFAULT_WORKERS = 4;
+	/**
+	 * Number of images written after which the metadata is synced, at the latest.
+	 */
+	private final static int SYNC_IMAGES = 100;
+
 	/**
 	 * @param args
 	 */
 	public static void main(String[] args) {
-		if (args.length < 3) {
-			System.err.println("Usage : FlickrGrab directory query nb [proxy host] [proxy port]");
+		int nbWorkers = DEFAULT_WORKERS;
+		int queueSize = DEFAULT_QUEUE_SIZE;
+		int metricsPeriod = 0;
+		String seen = null;
+
+		List<String> positional = new ArrayList<String>();
+		try {
+			for (int a = 0; a < args.length; a++) {
+				if ("--workers".equals(args[a]) && (a + 1 < args.length)) {
+					nbWorkers = Integer.parseInt(args[++a]);
+				} else if ("--queue".equals(args[a]) && (a + 1 < args.length)) {
+					queueSize = Integer.parseInt(args[++a]);
+				} else if ("--metrics".equals(args[a]) && (a + 1 < args.length)) {
+					metricsPeriod = Integer.parseInt(args[++a]);
+				} else if ("--seen".equals(args[a]) && (a + 1 < args.length)) {
+					seen = args[++a];
+				} else {
+					positional.add(args[a]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			positional.clear();
+		}
+		args = positional.toArray(new String[positional.size()]);
+
+		if ((args.length < 3) || (nbWorkers < 1) || (queueSize < 1) || (metricsPeriod < 0)) {
+			System.err.println("Usage : FlickrGrab directory query nb [proxy host] [proxy port] [--workers n] [--queue n] [--metrics seconds] [--seen ids file]");
 			System.err.println("e.g. : FlickrGrab /tmp biology 10");
 			System.err.println("e.g. : FlickrGrab /tmp biology 10 proxy.mycompany.com 8080");
+			System.err.println("e.g. : FlickrGrab /tmp biology 1000 --workers 8 --queue 200");
+			System.err.println("e.g. : FlickrGrab /tmp biology 1000 --seen /tmp/seen.ids");
 			System.exit(1);
 		}
 
 		FlickrGrab grab = new FlickrGrab();
 		grab.init(APP_KEY, 0, false);
+		grab.nbWorkers = nbWorkers;
+		grab.queueSize = queueSize;
+		grab.seenFile = (seen != null) ? new File(seen) : null;
+		if (metricsPeriod > 0) {
+			grab.enableMetrics(metricsPeriod);
+		}
 
 		File dir = new File(args[0]);
 		dir.mkdirs();
@@ -76,7 +143,43 @@ public class FlickrGrab extends Algorithm implements FlickrProgressListener {
 
 	private FlickrFrontend flickr;
 	private DecimalFormat df = new DecimalFormat("0.00");
-	private int gentleSleepSeconds;
+	private int nbWorkers;
+	private FlickrProgressTracker progress;
+	private int queueSize;
+	private SeenIdsFilter seen;
+	private File seenFile;
+
+	private void download(GrabJob job, File picdir, int preferedSurface) {
+		FlickrImage i = job.image;
+		if ((seen != null) && !seen.claim(i.getId())) {
+			job.skipped = true;
+			return;
+		}
+
+		FlickrProgressTracker.Download d = progress.newDownload();
+		try {
+			job.outputFile = new File(picdir, i.getId() + ".jpg");
+			job.download = flickr.downloadImage(i, i.getClosestSize(preferedSurface), job.outputFile.toPath(), d);
+		} catch (Exception e) {
+			job.error = e;
+		} finally {
+			d.done();
+			if ((seen != null) && (job.download == null)) {
+				seen.release(i.getId());
+			}
+		}
+	}
+
+	private void enableMetrics(int period) {
+		FlickrMetrics metrics = new FlickrMetrics();
+		try {
+			metrics.registerMBean("FlickrGrab");
+		} catch (FlickrException e) {
+			err(e.getMessage());
+		}
+		metrics.startExport(new FlickrMetricsTextExporter(System.out), period * 1000L);
+		flickr.setMetrics(metrics);
+	}
 
 	private File getDirectoryForGrabSession(String parent) {
 		String d = "FlickrGrabSession-" + System.currentTimeMillis();
@@ -90,19 +193,16 @@ public class FlickrGrab extends Algorithm implements FlickrProgressListener {
 	private void init(String key, int gentleSleepSeconds, boolean debug) {
 		flickr = new FlickrFrontend(key);
 		flickr.setDebug(debug);
+		flickr.setRateLimiter(new FlickrRateLimiter(0, FlickrRateLimiter.FLICKR_API_PER_HOUR, gentleSleepSeconds > 0 ? 1d / gentleSleepSeconds : 0, 0));
 		setLogEnabled(debug);
 
-		this.gentleSleepSeconds = gentleSleepSeconds;
-	}
-
-	@Override
-	public void notifyNewProgressionStep(String step) {
-		info(step);
+		this.nbWorkers = DEFAULT_WORKERS;
+		this.queueSize = DEFAULT_QUEUE_SIZE;
 	}
 
 	@Override
-	public boolean notifyProgress(double position, double length) {
-		info(df.format(position / length) + " %");
+	public boolean progressUpdated(FlickrProgress p) {
+		info(p.getActive() + " downloads - " + p.getCompleted() + " done - " + df.format(p.getPosition() / (1024d * 1024d)) + " Mo");
 		return true;
 	}
 
@@ -120,82 +220,201 @@ public class FlickrGrab extends Algorithm implements FlickrProgressListener {
 		}
 	}
 
-	private void work(String parent, String query, int nb, int minDim, int preferedSurface) {
-		Random sleepRandom = new Random(System.currentTimeMillis());
-
+	private void work(String parent, String query, int nb, int minDim, final int preferedSurface) {
 		File dir = getDirectoryForGrabSession(parent);
 		dir.mkdir();
 
-		File picdir = new File(dir + File.separator + "pictures");
+		final File picdir = new File(dir + File.separator + "pictures");
 		picdir.mkdir();
 
-		File metadata = new File(dir, "metadata.txt");
-		metadata.getParentFile().mkdirs();
-		BufferedWriter w = null;
+		FlickrGrabMetadata metadata = null;
+		progress = new FlickrProgressTracker(this);
 		try {
-			w = new BufferedWriter(new FileWriter(metadata));
-			w.write("query = " + query);
-			w.newLine();
-			w.write("nb = " + nb);
-			w.newLine();
+			metadata = new FlickrGrabMetadata(dir);
+			metadata.setParameter("query", query);
+			metadata.setParameter("nb", Integer.toString(nb));
 
 			FlickrSearchQuery q = new FlickrSearchQuery(query, nb);
 			q.setPerpage(10);
 
-			FlickrSearchResponse pictures = flickr.search(q, new MinSizeFilter(minDim));
-
-			for (FlickrImage i : pictures) {
-				try {
-					BufferedImage img = flickr.loadImage(i, i.getClosestSize(preferedSurface), this);
-					if (img == null) {
-						errWithTime(i.getId() + " - " + i.getTitle() + " : img == null");
-					} else {
-						File outputFile = new File(picdir, i.getId() + ".jpg");
-
-						ImageIO.write(img, "jpeg", outputFile);
-						float sz = outputFile.length();
-						String strSz = " o";
-						if (sz > 1024) {
-							sz /= 1024;
-							strSz = " Ko";
-							if (sz > 1024) {
-								sz /= 1024;
-								strSz = " Mo";
+			ChainedFilters filter = new ChainedFilters();
+			if (seenFile != null) {
+				seen = new SeenIdsFilter(seenFile);
+				filter.add(seen);
+			}
+			filter.add(new MinSizeFilter(minDim));
+
+			FlickrSearchResponse pictures = flickr.search(q, filter);
+
+			final BlockingQueue<GrabJob> jobs = new ArrayBlockingQueue<GrabJob>(queueSize);
+			final BlockingQueue<GrabJob> done = new LinkedBlockingQueue<GrabJob>();
+			// images between the search and the metadata log : a stalled download holds back the
+			// others, waiting in done or to be written in order, up to this bound
+			final Semaphore window = new Semaphore(queueSize + nbWorkers);
+
+			Thread[] workers = new Thread[nbWorkers];
+			for (int k = 0; k < nbWorkers; k++) {
+				workers[k] = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							GrabJob job = null;
+							while ((job = jobs.take()) != GrabJob.END) {
+								download(job, picdir, preferedSurface);
+								done.put(job);
 							}
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
 						}
-
-						strSz = df.format(sz) + strSz;
-
-						w.write(outputFile.getName() + " | " + img.getWidth() + "x" + img.getHeight() + " | " + strSz + " | " + i.getImageWebPageURL() + " | " + i.getId() + " | " + i.getOwner() + " | " + i.getLicense().getName() + " | " + i.getTitle() + " | " + i.getTags());
-						w.newLine();
-						w.flush();
-						outWithTime(outputFile.getName() + " - " + strSz + " - " + img.getWidth() + "x" + img.getHeight() + " - " + i.getTitle() + " - " + i.getLicense().getName());
 					}
-				} catch (Exception e1) {
-					err(e1.getClass().getName() + " : " + e1.getMessage());
-				}
+				}, "FlickrGrab-worker-" + k);
+				workers[k].start();
+			}
 
-				if (gentleSleepSeconds > 0) {
-					try {
-						Thread.sleep(1l + sleepRandom.nextInt(gentleSleepSeconds * 2000));
-					} catch (InterruptedException e) {
-						e.printStackTrace();
+			final FlickrGrabMetadata fm = metadata;
+			Thread writer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					writeMetadata(done, window, fm);
+				}
+			}, "FlickrGrab-writer");
+			writer.start();
+
+			long seq = 0;
+			boolean stopped = false;
+			try {
+				for (FlickrImage i : pictures) {
+					window.acquire();
+					jobs.put(new GrabJob(seq++, i));
+				}
+				for (int k = 0; k < nbWorkers; k++) {
+					jobs.put(GrabJob.END);
+				}
+				stopped = true;
+			} finally {
+				if (!stopped) {
+					// the images not started are abandoned, the downloads in progress interrupted
+					jobs.clear();
+					for (Thread t : workers) {
+						t.interrupt();
 					}
 				}
+				for (Thread t : workers) {
+					t.join();
+				}
+				done.put(GrabJob.END);
+				writer.join();
 			}
-
+		} catch (InterruptedException e) {
+			e.printStackTrace();
 		} catch (IOException e) {
 			e.printStackTrace();
 		} catch (FlickrException e) {
 			e.printStackTrace();
 		} finally {
-			if (w != null) {
+			progress.close();
+			if (flickr.getMetrics() != null) {
+				flickr.getMetrics().stopExport();
+			}
+			if (metadata != null) {
 				try {
-					w.close();
+					metadata.close();
 				} catch (IOException e) {
-					// ignore
+					e.printStackTrace();
+				}
+			}
+			if (seen != null) {
+				try {
+					seen.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void writeMetadata(BlockingQueue<GrabJob> done, Semaphore window, FlickrGrabMetadata metadata) {
+		Map<Long, GrabJob> pending = new HashMap<Long, GrabJob>();
+		List<String> grabbed = new ArrayList<String>();
+		long next = 0;
+
+		try {
+			GrabJob job = null;
+			while ((job = done.take()) != GrabJob.END) {
+				pending.put(job.seq, job);
+
+				while ((job = pending.remove(next)) != null) {
+					next++;
+					window.release();
+					FlickrImage i = job.image;
+					FlickrDownload img = job.download;
+					if (job.skipped) {
+						outWithTime(i.getId() + " already grabbed");
+						continue;
+					}
+					try {
+						if (job.error != null) {
+							throw job.error;
+						}
+						if (img == null) {
+							errWithTime(i.getId() + " - " + i.getTitle() + " : img == null");
+						} else {
+							FlickrGrabRecord record = new FlickrGrabRecord();
+							record.setFileName(job.outputFile.getName());
+							record.setWidth(img.getWidth());
+							record.setHeight(img.getHeight());
+							record.setFileSize(job.outputFile.length());
+							record.setPageUrl(i.getImageWebPageURL().toString());
+							record.setId(i.getId());
+							record.setOwner(i.getOwner());
+							record.setLicense(i.getLicense().getName());
+							record.setTitle(i.getTitle());
+							record.setTags(i.getTags());
+							metadata.append(record);
+							grabbed.add(i.getId());
+
+							String strSz = FlickrGrabMetadataConverter.formatSize(record.getFileSize());
+							outWithTime(job.outputFile.getName() + " - " + strSz + " - " + img.getWidth() + "x" + img.getHeight() + " - " + i.getTitle() + " - " + i.getLicense().getName());
+						}
+					} catch (Exception e1) {
+						err(e1.getClass().getName() + " : " + e1.getMessage());
+						if ((seen != null) && (img != null)) {
+							seen.release(i.getId());
+						}
+					}
+				}
+
+				// as soon as the downloads completed so far are written
+				if ((grabbed.size() >= SYNC_IMAGES) || done.isEmpty()) {
+					syncMetadata(metadata, grabbed);
 				}
 			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		syncMetadata(metadata, grabbed);
+	}
+
+	/**
+	 * Forces the metadata log to the disk. The images grabbed are only added to the seen ids once
+	 * they are in the log, the others will be grabbed again.
+	 */
+	private void syncMetadata(FlickrGrabMetadata metadata, List<String> grabbed) {
+		if (grabbed.isEmpty()) {
+			return;
+		}
+		try {
+			metadata.sync();
+			if (seen != null) {
+				for (String id : grabbed) {
+					seen.add(id);
+				}
+				seen.force();
+			}
+			grabbed.clear();
+		} catch (IOException e) {
+			err(e.getClass().getName() + " : " + e.getMessage());
 		}
 	}
 
@@ -19,34 +19,44 @@
 
 package name.herve.flickrlib.grab;
 
-import java.awt.image.BufferedImage;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.math.BigDecimal;
 import java.text.DecimalFormat;
-import java.util.Random;
-
-import javax.imageio.ImageIO;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import name.herve.flickrlib.FlickrDownload;
 import name.herve.flickrlib.FlickrException;
 import name.herve.flickrlib.FlickrFrontend;
 import name.herve.flickrlib.FlickrImage;
-import name.herve.flickrlib.FlickrProgressListener;
+import name.herve.flickrlib.FlickrRateLimiter;
 import name.herve.flickrlib.FlickrSearchQuery;
 import name.herve.flickrlib.FlickrSearchResponse;
 import name.herve.flickrlib.FlickrSearchResponse.FlickrSearchResponseIterator;
 import name.herve.flickrlib.filters.ChainedFilters;
+import name.herve.flickrlib.filters.ExcludedIdsFilter;
 import name.herve.flickrlib.filters.HasTagsFilter;
 import name.herve.flickrlib.filters.MinSizeFilter;
 import name.herve.flickrlib.filters.NoDuplicateAuthorFilter;
+import name.herve.flickrlib.filters.SeenIdsFilter;
+import name.herve.flickrlib.progress.FlickrProgress;
+import name.herve.flickrlib.progress.FlickrProgressHandler;
+import name.herve.flickrlib.progress.FlickrProgressTracker;
 import plugins.nherve.toolbox.Algorithm;
 
 /**
  * 
  * @author Nicolas HERVE - n.herve@laposte.net
  */
-public class FlickrGrabAroundEarth extends Algorithm implements FlickrProgressListener {
+public class FlickrGrabAroundEarth extends Algorithm implements FlickrProgressHandler {
 	private final static String APP_KEY = "9a96e50181eb0ab5be0ee15b147acaf8";
 
 	private final static int MIN_LONGITUDE = -180;
@@ -57,13 +67,64 @@ public class FlickrGrabAroundEarth extends Algorithm implements FlickrProgressLi
 	private final static int LAT_LENGTH = MAX_LATITUDE - MIN_LATITUDE;
 	private final static int FULL_SURFACE = LONG_LENGTH * LAT_LENGTH;
 
-	private final static String FIELD_SEP = " | ";
+	private final static int DEFAULT_WORKERS = 4;
+
+	/**
+	 * In adaptive mode, the crawl starts on cells this many times larger than the regular grid and
+	 * may split them down to cells this many times smaller.
+	 */
+	private final static int ADAPTIVE_ROOT_FACTOR = 4;
+	/**
+	 * A cell is split when it holds more than this many times the pictures grabbed per square.
+	 */
+	private final static int ADAPTIVE_DENSITY_FACTOR = 10;
 
 	/**
 	 * @param args
 	 */
 	public static void main(String[] args) {
 		boolean displayHelp = false;
+		int nbWorkers = DEFAULT_WORKERS;
+		long budget = 0;
+		String resume = null;
+		String seen = null;
+		boolean globalAuthors = false;
+
+		List<String> positional = new ArrayList<String>();
+		try {
+			for (int a = 0; a < args.length; a++) {
+				if ("--workers".equals(args[a]) && (a + 1 < args.length)) {
+					nbWorkers = Integer.parseInt(args[++a]);
+				} else if ("--adaptive".equals(args[a]) && (a + 1 < args.length)) {
+					budget = Long.parseLong(args[++a]);
+				} else if ("--resume".equals(args[a]) && (a + 1 < args.length)) {
+					resume = args[++a];
+				} else if ("--seen".equals(args[a]) && (a + 1 < args.length)) {
+					seen = args[++a];
+				} else if ("--global-authors".equals(args[a])) {
+					globalAuthors = true;
+				} else {
+					positional.add(args[a]);
+				}
+			}
+		} catch (NumberFormatException e) {
+			err(e);
+			displayHelp = true;
+		}
+		if ((nbWorkers < 1) || (budget < 0)) {
+			displayHelp = true;
+		}
+
+		if ((resume != null) && !displayHelp) {
+			FlickrGrabAroundEarth grab = new FlickrGrabAroundEarth();
+			grab.nbWorkers = nbWorkers;
+			grab.seenFile = (seen != null) ? new File(seen) : null;
+			grab.globalAuthors = globalAuthors;
+			grab.resume(new File(resume));
+			return;
+		}
+		String[] allArgs = args;
+		args = positional.toArray(new String[positional.size()]);
 
 		String dir = null;
 		int slp = -1;
@@ -75,7 +136,7 @@ public class FlickrGrabAroundEarth extends Algorithm implements FlickrProgressLi
 		int slg = MIN_LONGITUDE;
 		int slt = MIN_LATITUDE;
 
-		if (args.length >= 7) {
+		if (!displayHelp && (args.length >= 7)) {
 			int p = 0;
 			try {
 				dir = args[p++];
@@ -100,27 +161,76 @@ public class FlickrGrabAroundEarth extends Algorithm implements FlickrProgressLi
 		}
 
 		if (displayHelp) {
-			err("Usage : FlickrGrabAroundEarth [grab directory] [sleep sec] [nb. squares] [nb. pics per square] [min dim] [prefered surf.] [max uploaded days] [start longitude (optional)] [start latitude (optional)]");
+			err("Usage : FlickrGrabAroundEarth [grab directory] [sleep sec] [nb. squares] [nb. pics per square] [min dim] [prefered surf.] [max uploaded days] [start longitude (optional)] [start latitude (optional)] [--workers n] [--adaptive request budget] [--seen ids file] [--global-authors]");
+			err("        FlickrGrabAroundEarth --resume [session directory] [--workers n] [--seen ids file]");
 			err("e.g.  : ./grabEarth.sh ./data 0 5000 25 400 800000 120");
 			err("e.g.  : ./grabEarth.sh ./data 0 5000 25 400 800000 120 -171 54");
+			err("e.g.  : ./grabEarth.sh ./data 0 5000 25 400 800000 120 --workers 8");
+			err("e.g.  : ./grabEarth.sh ./data 0 5000 25 400 800000 120 --adaptive 20000");
+			err("e.g.  : ./grabEarth.sh ./data 0 5000 25 400 800000 120 --seen ./data/seen.ids");
+			err("e.g.  : ./grabEarth.sh ./data 0 5000 25 400 800000 120 --global-authors");
+			err("e.g.  : ./grabEarth.sh --resume ./data/FlickrGrabAroundEarth-1393412805123");
 			err("");
-			String allArgs = "";
-			for (String a : args) {
-				allArgs += "(" + a + ") ";
+			String argsStr = "";
+			for (String a : allArgs) {
+				argsStr += "(" + a + ") ";
 			}
-			err(allArgs);
+			err(argsStr);
 			System.exit(1);
 		}
 
 		FlickrGrabAroundEarth grab = new FlickrGrabAroundEarth();
 		grab.init(APP_KEY, slp, false);
+		grab.nbWorkers = nbWorkers;
+		grab.seenFile = (seen != null) ? new File(seen) : null;
+		grab.globalAuthors = globalAuthors;
 
-		grab.grabEarthGrid(dir, nbs, pps, dim, srf, day, slg, slt);
+		grab.grabEarthGrid(dir, slp, nbs, pps, dim, srf, day, slg, slt, budget);
 	}
 
-	private FlickrFrontend flickr;
+	private FlickrGrabCheckpoint checkpoint;
 	private DecimalFormat df = new DecimalFormat("0.00");
-	private int gentleSleepSeconds;
+	private FlickrFrontend flickr;
+	private boolean globalAuthors;
+	private NoDuplicateAuthorFilter knownAuthors;
+	private long lastDays;
+	private int maxUploadedDays;
+	private FlickrGrabMetadata metadata;
+	private double minCellLength;
+	private int minDim;
+	private int nbPicPerSquare;
+	private int nbWorkers = DEFAULT_WORKERS;
+	private AtomicInteger pendingCells;
+	private File picdir;
+	private int preferedSurface;
+	private FlickrProgressTracker progress;
+	private AtomicLong requestBudget;
+	private SeenIdsFilter seen;
+	private File seenFile;
+	private ExecutorService workers;
+
+	/**
+	 * Integral coordinates are written without decimals, as in the regular grid.
+	 */
+	private static String formatCoordinate(double c) {
+		if (c == Math.rint(c)) {
+			return Long.toString((long) c);
+		}
+		return BigDecimal.valueOf(c).stripTrailingZeros().toPlainString();
+	}
+
+	private static String getBBoxString(double[] bbox) {
+		String bboxstr = "";
+		for (int b = 0; b < 4; b++) {
+			if (bbox[b] < 0) {
+				bboxstr += "n";
+			} else {
+				bboxstr += "p";
+			}
+			bboxstr += formatCoordinate(Math.abs(bbox[b]));
+		}
+		return bboxstr;
+	}
 
 	private File getDirectoryForGrabSession(String parent) {
 		String d = "FlickrGrabAroundEarth-" + System.currentTimeMillis();
@@ -134,25 +244,102 @@ public class FlickrGrabAroundEarth extends Algorithm implements FlickrProgressLi
 	private void init(String key, int gentleSleepSeconds, boolean debug) {
 		flickr = new FlickrFrontend(key);
 		flickr.setDebug(debug);
+		flickr.setRateLimiter(new FlickrRateLimiter(0, FlickrRateLimiter.FLICKR_API_PER_HOUR, gentleSleepSeconds > 0 ? 1d / gentleSleepSeconds : 0, 0));
 		setLogEnabled(debug);
-
-		this.gentleSleepSeconds = gentleSleepSeconds;
 	}
 
 	@Override
-	public void notifyNewProgressionStep(String step) {
-		info(step);
+	public boolean progressUpdated(FlickrProgress p) {
+		info(p.getActive() + " downloads - " + p.getCompleted() + " done - " + df.format(p.getPosition() / (1024d * 1024d)) + " Mo");
+		return true;
 	}
 
-	@Override
-	public boolean notifyProgress(double position, double length) {
-		info(df.format(position / length) + " %");
-		return true;
+	/**
+	 * The metadata log is the record of the images written : they are copied into the checkpoint
+	 * before resuming. A record interrupted by a crash is dropped, its image will be grabbed again.
+	 * The text metadata of a session started before the binary log is converted first.
+	 */
+	private void recoverFromMetadata(File dir, FlickrGrabCheckpoint checkpoint) throws IOException {
+		if (!FlickrGrabMetadata.exists(dir)) {
+			File text = new File(dir, FlickrGrabMetadataConverter.TEXT_FILE_NAME);
+			if (!text.exists()) {
+				return;
+			}
+			outWithTime(FlickrGrabMetadataConverter.textToBinary(text, dir) + " images converted from " + text);
+		}
+
+		FlickrGrabMetadataReader r = new FlickrGrabMetadataReader(dir);
+		try {
+			FlickrGrabRecord record = null;
+			while ((record = r.next()) != null) {
+				if (record.getCell() != null) {
+					checkpoint.imageWritten(record.getCell(), record.getId(), record.getOwner());
+				}
+				if ((knownAuthors != null) && (record.getOwner() != null)) {
+					knownAuthors.addAuthor(record.getOwner());
+				}
+			}
+		} finally {
+			r.close();
+		}
 	}
 
-	private void grabEarthGrid(String parent, int nbSquare, int nbPicPerSquare, int minDim, int preferedSurface, int maxUploadedDays, int slg, int slt) {
-		int unitLength = (int) Math.floor(Math.sqrt(FULL_SURFACE / (double) nbSquare));
+	private void resume(File dir) {
+		if (!FlickrGrabCheckpoint.exists(dir)) {
+			err("No checkpoint found in " + dir);
+			System.exit(1);
+		}
+
+		FlickrGrabCheckpoint checkpoint = null;
+		try {
+			checkpoint = FlickrGrabCheckpoint.load(dir);
+			init(APP_KEY, Integer.parseInt(checkpoint.getParameter("sleep")), false);
+
+			if (globalAuthors || Boolean.parseBoolean(checkpoint.getParameter("globalAuthors", "false"))) {
+				knownAuthors = new NoDuplicateAuthorFilter();
+			}
+
+			recoverFromMetadata(dir, checkpoint);
+
+			outWithTime("Resuming " + dir + " - " + checkpoint.getNbDoneCells() + " squares already done");
+
+			int nbSquare = Integer.parseInt(checkpoint.getParameter("squares"));
+			int nbPicPerSquare = Integer.parseInt(checkpoint.getParameter("picsPerSquare"));
+			int minDim = Integer.parseInt(checkpoint.getParameter("minDim"));
+			int preferedSurface = Integer.parseInt(checkpoint.getParameter("preferedSurface"));
+			int maxUploadedDays = Integer.parseInt(checkpoint.getParameter("maxUploadedDays"));
+			long lastDays = Long.parseLong(checkpoint.getParameter("minUploadDate"));
+			int slg = Integer.parseInt(checkpoint.getParameter("startLongitude"));
+			int slt = Integer.parseInt(checkpoint.getParameter("startLatitude"));
+			long budget = Long.parseLong(checkpoint.getParameter("requestBudget", "0"));
+			if (budget > 0) {
+				outWithTime(checkpoint.getRequestsUsed() + " requests of the budget already used");
+			}
+			if ((seenFile == null) && (checkpoint.getParameter("seenIds", null) != null)) {
+				seenFile = new File(checkpoint.getParameter("seenIds", null));
+			}
+
+			crawl(dir, checkpoint, nbSquare, nbPicPerSquare, minDim, preferedSurface, maxUploadedDays, lastDays, slg, slt, budget);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} catch (NumberFormatException e) {
+			e.printStackTrace();
+		} finally {
+			close(checkpoint);
+		}
+	}
 
+	private void close(FlickrGrabCheckpoint checkpoint) {
+		if (checkpoint != null) {
+			try {
+				checkpoint.close();
+			} catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private void grabEarthGrid(String parent, int sleep, int nbSquare, int nbPicPerSquare, int minDim, int preferedSurface, int maxUploadedDays, int slg, int slt, long budget) {
 		File parentDir = new File(parent);
 		if (!parentDir.exists()) {
 			parentDir.mkdirs();
@@ -161,137 +348,373 @@ public class FlickrGrabAroundEarth extends Algorithm implements FlickrProgressLi
 		File dir = getDirectoryForGrabSession(parent);
 		dir.mkdir();
 
-		File picdir = new File(dir + File.separator + "pictures");
+		long lastDays = System.currentTimeMillis() - maxUploadedDays * 24 * 60 * 60 * 1000;
+
+		FlickrGrabCheckpoint checkpoint = null;
+		try {
+			checkpoint = FlickrGrabCheckpoint.create(dir);
+			checkpoint.setParameter("sleep", sleep);
+			checkpoint.setParameter("squares", nbSquare);
+			checkpoint.setParameter("picsPerSquare", nbPicPerSquare);
+			checkpoint.setParameter("minDim", minDim);
+			checkpoint.setParameter("preferedSurface", preferedSurface);
+			checkpoint.setParameter("maxUploadedDays", maxUploadedDays);
+			checkpoint.setParameter("minUploadDate", lastDays);
+			checkpoint.setParameter("startLongitude", slg);
+			checkpoint.setParameter("startLatitude", slt);
+			checkpoint.setParameter("requestBudget", budget);
+			if (seenFile != null) {
+				checkpoint.setParameter("seenIds", seenFile.getAbsolutePath());
+			}
+			if (globalAuthors) {
+				checkpoint.setParameter("globalAuthors", true);
+				knownAuthors = new NoDuplicateAuthorFilter();
+			}
+
+			crawl(dir, checkpoint, nbSquare, nbPicPerSquare, minDim, preferedSurface, maxUploadedDays, lastDays, slg, slt, budget);
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			close(checkpoint);
+		}
+	}
+
+	/**
+	 * Takes requests from the budget, if any, before they are sent. They are journaled in the
+	 * checkpoint, a resumed session only gets what is left of the budget.
+	 * 
+	 * @return false if the budget is exhausted
+	 */
+	private boolean consumeRequests(int nb) throws IOException {
+		if (requestBudget == null) {
+			return true;
+		}
+		while (true) {
+			long remaining = requestBudget.get();
+			if (remaining < nb) {
+				return false;
+			}
+			if (requestBudget.compareAndSet(remaining, remaining - nb)) {
+				checkpoint.requestsUsed(nb);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Crawls the grid, in parallel. In adaptive mode (budget > 0), the crawl starts on larger
+	 * cells, skips them with a single request when they are empty, and splits the dense ones into
+	 * four until they are small enough, as long as the request budget allows it.
+	 */
+	private void crawl(File dir, FlickrGrabCheckpoint checkpoint, int nbSquare, int nbPicPerSquare, int minDim, int preferedSurface, int maxUploadedDays, long lastDays, int slg, int slt, long budget) {
+		int unitLength = (int) Math.floor(Math.sqrt(FULL_SURFACE / (double) nbSquare));
+		int rootLength = unitLength;
+		if (budget > 0) {
+			rootLength = unitLength * ADAPTIVE_ROOT_FACTOR;
+			minCellLength = unitLength / (double) ADAPTIVE_ROOT_FACTOR;
+			requestBudget = new AtomicLong(Math.max(0, budget - checkpoint.getRequestsUsed()));
+		} else {
+			minCellLength = unitLength;
+			requestBudget = null;
+		}
+
+		this.checkpoint = checkpoint;
+		this.nbPicPerSquare = nbPicPerSquare;
+		this.minDim = minDim;
+		this.preferedSurface = preferedSurface;
+		this.maxUploadedDays = maxUploadedDays;
+		this.lastDays = lastDays;
+
+		picdir = new File(dir + File.separator + "pictures");
 		picdir.mkdir();
 
-		File metadata = new File(dir, "metadata.txt");
-		BufferedWriter w = null;
+		pendingCells = new AtomicInteger();
+		progress = new FlickrProgressTracker(this);
+		workers = Executors.newFixedThreadPool(nbWorkers, new ThreadFactory() {
+			private AtomicInteger nb = new AtomicInteger();
 
-		long lastDays = System.currentTimeMillis() - maxUploadedDays * 24 * 60 * 60 * 1000;
-		Random sleepRandom = new Random(System.currentTimeMillis());
+			@Override
+			public Thread newThread(Runnable r) {
+				return new Thread(r, "FlickrGrabAroundEarth-worker-" + nb.getAndIncrement());
+			}
+		});
 
 		try {
-			w = new BufferedWriter(new FileWriter(metadata));
+			metadata = new FlickrGrabMetadata(dir);
+			if (seenFile != null) {
+				seen = new SeenIdsFilter(seenFile);
+				outWithTime(seen.size() + " images already grabbed in " + seenFile);
+			}
 
+			// the last column and row of cells are clamped to the bounds of the map
 			int longitude = slg;
 			int latitude = slt;
-			while (longitude < (MAX_LONGITUDE - unitLength)) {
-				while (latitude < (MAX_LATITUDE - unitLength)) {
-					int[] bbox = new int[4];
+			while (longitude < MAX_LONGITUDE) {
+				while (latitude < MAX_LATITUDE) {
+					double[] bbox = new double[4];
 					bbox[0] = longitude;
 					bbox[1] = latitude;
-					bbox[2] = longitude + unitLength;
-					bbox[3] = latitude + unitLength;
-
-					String query = "license=1,2,5,7";
-					query += "&content_type=1";
-					query += "&min_date_upload=" + lastDays;
-					query += "&sort=interestingness-desc";
-					query += "&bbox=" + bbox[0] + "," + bbox[1] + "," + bbox[2] + "," + bbox[3];
-					query += "&accuracy=6";
-
-					ChainedFilters filter = new ChainedFilters();
-					filter.add(new MinSizeFilter(minDim));
-					filter.add(new HasTagsFilter());
-					filter.add(new NoDuplicateAuthorFilter());
-
-					FlickrSearchQuery q = new FlickrSearchQuery(query, nbPicPerSquare);
-					q.setPerpage(nbPicPerSquare * 5);
-
-					FlickrSearchResponse pictures = flickr.search(q, filter);
-
-					FlickrSearchResponseIterator it = (FlickrSearchResponseIterator) pictures.iterator();
-
-					if (it != null) {
-						String bboxstr = "";
-						for (int b = 0; b < 4; b++) {
-							if (bbox[b] < 0) {
-								bboxstr += "n";
-							} else {
-								bboxstr += "p";
-							}
-							bboxstr += Math.abs(bbox[b]);
-						}
+					bbox[2] = Math.min(longitude + rootLength, MAX_LONGITUDE);
+					bbox[3] = Math.min(latitude + rootLength, MAX_LATITUDE);
 
-						outWithTime("bbox = " + bboxstr + " - " + it.getTotal() + " images in the last " + maxUploadedDays + " days");
-
-						FlickrImage i = null;
-
-						while (it.hasNext()) {
-							i = it.next();
-							File outputFile = null;
-							try {
-								BufferedImage img = flickr.loadImage(i, i.getClosestSize(preferedSurface), this);
-								outputFile = new File(picdir, bboxstr + "_" + i.getId() + ".jpg");
-
-								ImageIO.write(img, "jpeg", outputFile);
-								float sz = outputFile.length();
-								String strSz = " o";
-								if (sz > 1024) {
-									sz /= 1024;
-									strSz = " Ko";
-									if (sz > 1024) {
-										sz /= 1024;
-										strSz = " Mo";
-									}
-								}
-
-								strSz = df.format(sz) + strSz;
-
-								w.write(outputFile.getName());
-								w.write(FIELD_SEP);
-								w.write(img.getWidth() + "x" + img.getHeight());
-								w.write(FIELD_SEP);
-								w.write(strSz);
-								w.write(FIELD_SEP);
-								w.write(i.getImageWebPageURL().toString());
-								w.write(FIELD_SEP);
-								w.write(i.getId());
-								w.write(FIELD_SEP);
-								w.write(i.getOwner());
-								w.write(FIELD_SEP);
-								w.write(i.getLicense().getName());
-								w.write(FIELD_SEP);
-								w.write(i.getTags());
-								w.write(FIELD_SEP);
-								w.write(i.getTitle());
-								w.newLine();
-								w.flush();
-
-								outWithTime("bbox = " + bboxstr + " - " + outputFile.getName() + " - " + strSz + " - " + img.getWidth() + "x" + img.getHeight() + " - " + i.getTitle() + " - " + i.getLicense().getName());
-							} catch (IOException e1) {
-								err(outputFile.getName() + " - " + e1.getClass().getName() + " : " + e1.getMessage());
-							} catch (FlickrException e) {
-								err(e);
-							}
-
-							if (gentleSleepSeconds > 0) {
-								try {
-									Thread.sleep(1l + sleepRandom.nextInt(gentleSleepSeconds * 2000));
-								} catch (InterruptedException e) {
-									e.printStackTrace();
-								}
-							}
-						}
-					}
-					latitude += unitLength;
+					submitCell(bbox);
+
+					latitude += rootLength;
 				}
 
-				longitude += unitLength;
+				longitude += rootLength;
 				latitude = MIN_LATITUDE;
 			}
 
+			waitForCells();
+
+			if (requestBudget != null) {
+				outWithTime("Request budget left : " + requestBudget.get());
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
-		} catch (FlickrException e) {
+		} catch (InterruptedException e) {
 			e.printStackTrace();
 		} finally {
-			if (w != null) {
+			workers.shutdownNow();
+			progress.close();
+			if (metadata != null) {
+				try {
+					metadata.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			if (seen != null) {
 				try {
-					w.close();
+					seen.close();
 				} catch (IOException e) {
-					// ignore
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void grabCell(double[] bbox, String bboxstr) throws IOException, FlickrException {
+		Map<String, String> written = checkpoint.getWrittenImages(bboxstr);
+		if (written.size() >= nbPicPerSquare) {
+			checkpoint.cellDone(bboxstr);
+			return;
+		}
+
+		if (!consumeRequests(1)) {
+			errWithTime("bbox = " + bboxstr + " left for --resume, request budget exhausted");
+			return;
+		}
+
+		int startPage = checkpoint.getCellPage(bboxstr);
+
+		String query = "license=1,2,5,7";
+		query += "&content_type=1";
+		query += "&min_date_upload=" + lastDays;
+		query += "&sort=interestingness-desc";
+		query += "&bbox=" + formatCoordinate(bbox[0]) + "," + formatCoordinate(bbox[1]) + "," + formatCoordinate(bbox[2]) + "," + formatCoordinate(bbox[3]);
+		query += "&accuracy=6";
+
+		// with a global scope, an author is only grabbed once over all the cells, that run in parallel
+		NoDuplicateAuthorFilter authors = (knownAuthors != null) ? new NoDuplicateAuthorFilter(knownAuthors.getAuthors()) : new NoDuplicateAuthorFilter();
+		for (String owner : written.values()) {
+			authors.addAuthor(owner);
+		}
+
+		ChainedFilters filter = new ChainedFilters();
+		filter.add(new ExcludedIdsFilter(written.keySet()));
+		if (seen != null) {
+			filter.add(seen);
+		}
+		filter.add(new MinSizeFilter(minDim));
+		filter.add(new HasTagsFilter());
+		filter.add(authors);
+		if (seen != null) {
+			// an image another cell is grabbing is skipped before it counts toward this one
+			filter.add(seen.claiming());
+		}
+
+		FlickrSearchQuery q = new FlickrSearchQuery(query, nbPicPerSquare - written.size());
+		q.setPerpage(nbPicPerSquare * 5);
+		q.setPage(startPage);
+
+		FlickrSearchResponse pictures = flickr.search(q, filter);
+		if (requestBudget != null) {
+			// each following page is taken from the budget before it is requested
+			pictures.setPageGate(new FlickrSearchResponse.PageGate() {
+				@Override
+				public boolean allowPage(FlickrSearchQuery query) throws FlickrException {
+					try {
+						if (!consumeRequests(1)) {
+							throw new FlickrException("request budget exhausted");
+						}
+						return true;
+					} catch (IOException e) {
+						throw new FlickrException(e);
+					}
 				}
+			});
+		}
+
+		FlickrSearchResponseIterator it = (FlickrSearchResponseIterator) pictures.iterator();
+
+		if (it == null) {
+			return;
+		}
+
+		outWithTime("bbox = " + bboxstr + " - " + it.getTotal() + " images in the last " + maxUploadedDays + " days");
+
+		if (isToBeSplit(bbox, it.getTotal(), startPage, written.size())) {
+			it.close();
+			checkpoint.cellSplit(bboxstr);
+			splitCell(bbox);
+			return;
+		}
+
+		FlickrImage i = null;
+		List<String> grabbed = new ArrayList<String>();
+
+		while (it.hasNext()) {
+			// the page the next candidate comes from, already written images are skipped when resuming on it
+			if (it.getCurrentPage() != checkpoint.getCellPage(bboxstr)) {
+				syncMetadata(grabbed);
+				checkpoint.setCellPage(bboxstr, it.getCurrentPage());
+			}
+
+			i = it.next();
+
+			File outputFile = null;
+			boolean recorded = false;
+			FlickrProgressTracker.Download d = progress.newDownload();
+			try {
+				outputFile = new File(picdir, bboxstr + "_" + i.getId() + ".jpg");
+				FlickrDownload img = flickr.downloadImage(i, i.getClosestSize(preferedSurface), outputFile.toPath(), d);
+				if (img == null) {
+					errWithTime(outputFile.getName() + " : img == null");
+					continue;
+				}
+
+				FlickrGrabRecord record = new FlickrGrabRecord();
+				record.setCell(bboxstr);
+				record.setFileName(outputFile.getName());
+				record.setWidth(img.getWidth());
+				record.setHeight(img.getHeight());
+				record.setFileSize(outputFile.length());
+				record.setPageUrl(i.getImageWebPageURL().toString());
+				record.setId(i.getId());
+				record.setOwner(i.getOwner());
+				record.setLicense(i.getLicense().getName());
+				record.setTags(i.getTags());
+				record.setTitle(i.getTitle());
+				// recorded in the checkpoint from the metadata log when resuming, see syncMetadata
+				metadata.append(record);
+				grabbed.add(i.getId());
+				recorded = true;
+
+				String strSz = FlickrGrabMetadataConverter.formatSize(record.getFileSize());
+
+				outWithTime("bbox = " + bboxstr + " - " + outputFile.getName() + " - " + strSz + " - " + img.getWidth() + "x" + img.getHeight() + " - " + i.getTitle() + " - " + i.getLicense().getName());
+			} catch (IOException e1) {
+				err(outputFile.getName() + " - " + e1.getClass().getName() + " : " + e1.getMessage());
+			} catch (FlickrException e) {
+				err(e);
+			} finally {
+				d.done();
+				if (!recorded && (seen != null)) {
+					seen.release(i.getId());
+				}
+			}
+		}
+
+		syncMetadata(grabbed);
+		if (it.getLastError() != null) {
+			errWithTime("bbox = " + bboxstr + " interrupted on page " + it.getCurrentPage() + ", left for --resume : " + it.getLastError().getMessage());
+		} else {
+			checkpoint.cellDone(bboxstr);
+		}
+	}
+
+	/**
+	 * Only a cell that was not started yet is split, when it is dense, large enough, and the
+	 * budget still allows probing its four parts.
+	 */
+	private boolean isToBeSplit(double[] bbox, int total, int startPage, int nbWritten) {
+		if ((requestBudget == null) || (startPage > 1) || (nbWritten > 0)) {
+			return false;
+		}
+		if (total <= nbPicPerSquare * ADAPTIVE_DENSITY_FACTOR) {
+			return false;
+		}
+		if ((bbox[2] - bbox[0]) / 2 < minCellLength) {
+			return false;
+		}
+		return requestBudget.get() >= 4;
+	}
+
+	private void splitCell(double[] bbox) {
+		double midLongitude = (bbox[0] + bbox[2]) / 2;
+		double midLatitude = (bbox[1] + bbox[3]) / 2;
+
+		submitCell(new double[] { bbox[0], bbox[1], midLongitude, midLatitude });
+		submitCell(new double[] { bbox[0], midLatitude, midLongitude, bbox[3] });
+		submitCell(new double[] { midLongitude, bbox[1], bbox[2], midLatitude });
+		submitCell(new double[] { midLongitude, midLatitude, bbox[2], bbox[3] });
+	}
+
+	private void submitCell(final double[] bbox) {
+		pendingCells.incrementAndGet();
+		workers.execute(new Runnable() {
+			@Override
+			public void run() {
+				String bboxstr = getBBoxString(bbox);
+				try {
+					visitCell(bbox, bboxstr);
+				} catch (IOException e) {
+					errWithTime("bbox = " + bboxstr + " - " + e.getClass().getName() + " : " + e.getMessage());
+				} catch (FlickrException e) {
+					errWithTime("bbox = " + bboxstr + " - " + e.getClass().getName() + " : " + e.getMessage());
+				} finally {
+					synchronized (pendingCells) {
+						if (pendingCells.decrementAndGet() == 0) {
+							pendingCells.notifyAll();
+						}
+					}
+				}
+			}
+		});
+	}
+
+	private void visitCell(double[] bbox, String bboxstr) throws IOException, FlickrException {
+		if (checkpoint.isCellDone(bboxstr)) {
+			return;
+		}
+		if (checkpoint.isCellSplit(bboxstr)) {
+			splitCell(bbox);
+			return;
+		}
+		grabCell(bbox, bboxstr);
+	}
+
+	/**
+	 * Forces the metadata log to the disk, before the checkpoint moves on. The images grabbed are
+	 * only added to the seen ids once they are in the log, the others will be grabbed again.
+	 */
+	private void syncMetadata(List<String> grabbed) throws IOException {
+		metadata.sync();
+		if (seen != null) {
+			for (String id : grabbed) {
+				seen.add(id);
+			}
+			seen.force();
+		}
+		grabbed.clear();
+	}
+
+	private void waitForCells() throws InterruptedException {
+		synchronized (pendingCells) {
+			while (pendingCells.get() > 0) {
+				pendingCells.wait();
 			}
 		}
 	}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2011-2014 Nicolas Hervé.
+ * 
+ * This file is part of FlickrImageRetrieve, which is an ICY plugin.
+ * 
+ * FlickrImageRetrieve is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrImageRetrieve is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrImageRetrieve. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.grab;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Durable state of a grab session, kept as an append-only journal in the session directory. It
+ * records the session parameters, the completed cells, the cells split into smaller ones, the
+ * requests taken from the budget, and for the cells in progress the page being crawled and the
+ * images already written. A truncated
+ * last line, left by a crash, is ignored when the journal is read back.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrGrabCheckpoint implements Closeable {
+	public final static String FILE_NAME = "checkpoint.txt";
+
+	private final static String SEP = "\t";
+	private final static String PARAMETER = "param";
+	private final static String PAGE = "page";
+	private final static String IMAGE = "image";
+	private final static String DONE = "done";
+	private final static String SPLIT = "split";
+	private final static String REQUESTS = "requests";
+
+	public static FlickrGrabCheckpoint create(File dir) throws IOException {
+		FlickrGrabCheckpoint cp = new FlickrGrabCheckpoint(dir);
+		cp.open(false);
+		return cp;
+	}
+
+	public static boolean exists(File dir) {
+		return new File(dir, FILE_NAME).exists();
+	}
+
+	/**
+	 * Reads back the journal of an existing session. The journal is compacted before new records
+	 * are appended.
+	 */
+	public static FlickrGrabCheckpoint load(File dir) throws IOException {
+		FlickrGrabCheckpoint cp = new FlickrGrabCheckpoint(dir);
+		cp.replay();
+		cp.compact();
+		cp.open(true);
+		return cp;
+	}
+
+	private Set<String> doneCells;
+	private File file;
+	private FileOutputStream fos;
+	private Map<String, Integer> pages;
+	private Map<String, String> parameters;
+	private long requestsUsed;
+	private Set<String> splitCells;
+	private BufferedWriter w;
+	private Map<String, Map<String, String>> written;
+
+	private FlickrGrabCheckpoint(File dir) {
+		super();
+		file = new File(dir, FILE_NAME);
+		parameters = new LinkedHashMap<String, String>();
+		doneCells = new HashSet<String>();
+		splitCells = new HashSet<String>();
+		pages = new HashMap<String, Integer>();
+		written = new HashMap<String, Map<String, String>>();
+		requestsUsed = 0;
+	}
+
+	private void append(boolean sync, String... fields) throws IOException {
+		for (int f = 0; f < fields.length; f++) {
+			if (f > 0) {
+				w.write(SEP);
+			}
+			w.write(fields[f]);
+		}
+		w.newLine();
+		w.flush();
+		if (sync) {
+			fos.getChannel().force(false);
+		}
+	}
+
+	private void apply(String[] fields) {
+		if (PARAMETER.equals(fields[0]) && (fields.length == 3)) {
+			parameters.put(fields[1], fields[2]);
+		} else if (PAGE.equals(fields[0]) && (fields.length == 3)) {
+			pages.put(fields[1], Integer.parseInt(fields[2]));
+		} else if (IMAGE.equals(fields[0]) && (fields.length == 4)) {
+			getOrCreateWritten(fields[1]).put(fields[2], fields[3]);
+		} else if (DONE.equals(fields[0]) && (fields.length == 2)) {
+			forget(fields[1]);
+			doneCells.add(fields[1]);
+		} else if (SPLIT.equals(fields[0]) && (fields.length == 2)) {
+			forget(fields[1]);
+			splitCells.add(fields[1]);
+		} else if (REQUESTS.equals(fields[0]) && (fields.length == 2)) {
+			requestsUsed += Long.parseLong(fields[1]);
+		}
+	}
+
+	/**
+	 * The cell is complete : its in-progress state is dropped.
+	 */
+	public synchronized void cellDone(String cell) throws IOException {
+		forget(cell);
+		doneCells.add(cell);
+		append(true, DONE, cell);
+	}
+
+	/**
+	 * The cell is replaced by smaller ones : its in-progress state is dropped.
+	 */
+	public synchronized void cellSplit(String cell) throws IOException {
+		forget(cell);
+		splitCells.add(cell);
+		append(true, SPLIT, cell);
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (w != null) {
+			w.close();
+			w = null;
+		}
+	}
+
+	private void compact() throws IOException {
+		File tmp = new File(file.getParentFile(), FILE_NAME + ".tmp");
+		FileOutputStream out = new FileOutputStream(tmp);
+		BufferedWriter cw = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+		try {
+			for (Map.Entry<String, String> e : parameters.entrySet()) {
+				cw.write(PARAMETER + SEP + e.getKey() + SEP + e.getValue());
+				cw.newLine();
+			}
+			if (requestsUsed > 0) {
+				cw.write(REQUESTS + SEP + requestsUsed);
+				cw.newLine();
+			}
+			for (String cell : doneCells) {
+				cw.write(DONE + SEP + cell);
+				cw.newLine();
+			}
+			for (String cell : splitCells) {
+				cw.write(SPLIT + SEP + cell);
+				cw.newLine();
+			}
+			for (Map.Entry<String, Integer> e : pages.entrySet()) {
+				cw.write(PAGE + SEP + e.getKey() + SEP + e.getValue());
+				cw.newLine();
+			}
+			for (Map.Entry<String, Map<String, String>> e : written.entrySet()) {
+				for (Map.Entry<String, String> i : e.getValue().entrySet()) {
+					cw.write(IMAGE + SEP + e.getKey() + SEP + i.getKey() + SEP + i.getValue());
+					cw.newLine();
+				}
+			}
+			cw.flush();
+			out.getChannel().force(true);
+		} finally {
+			cw.close();
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void forget(String cell) {
+		pages.remove(cell);
+		written.remove(cell);
+	}
+
+	/**
+	 * @return the page to resume the cell from, 1 if it was not started
+	 */
+	public synchronized int getCellPage(String cell) {
+		Integer page = pages.get(cell);
+		if (page == null) {
+			return 1;
+		}
+		return page;
+	}
+
+	public synchronized int getNbDoneCells() {
+		return doneCells.size();
+	}
+
+	private Map<String, String> getOrCreateWritten(String cell) {
+		Map<String, String> images = written.get(cell);
+		if (images == null) {
+			images = new LinkedHashMap<String, String>();
+			written.put(cell, images);
+		}
+		return images;
+	}
+
+	public synchronized String getParameter(String key) throws IOException {
+		String value = parameters.get(key);
+		if (value == null) {
+			throw new IOException("Parameter " + key + " not found in " + file);
+		}
+		return value;
+	}
+
+	public synchronized String getParameter(String key, String defaultValue) {
+		String value = parameters.get(key);
+		if (value == null) {
+			return defaultValue;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the number of requests taken from the budget since the session started
+	 */
+	public synchronized long getRequestsUsed() {
+		return requestsUsed;
+	}
+
+	/**
+	 * @return the images already written for a cell in progress, as id -> owner
+	 */
+	public synchronized Map<String, String> getWrittenImages(String cell) {
+		Map<String, String> images = written.get(cell);
+		if (images == null) {
+			return new HashMap<String, String>();
+		}
+		return new LinkedHashMap<String, String>(images);
+	}
+
+	public synchronized void imageWritten(String cell, String id, String owner) throws IOException {
+		if (isCellDone(cell) || getOrCreateWritten(cell).containsKey(id)) {
+			return;
+		}
+		getOrCreateWritten(cell).put(id, owner);
+		append(false, IMAGE, cell, id, owner);
+	}
+
+	public synchronized boolean isCellDone(String cell) {
+		return doneCells.contains(cell);
+	}
+
+	public synchronized boolean isCellSplit(String cell) {
+		return splitCells.contains(cell);
+	}
+
+	private void open(boolean append) throws IOException {
+		fos = new FileOutputStream(file, append);
+		w = new BufferedWriter(new OutputStreamWriter(fos, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * A record is complete once its line ends : a last line without a line break was cut by a
+	 * crash, it is ignored.
+	 */
+	private void replay() throws IOException {
+		String journal = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+		int start = 0;
+		int end = 0;
+		while ((end = journal.indexOf('\n', start)) >= 0) {
+			String line = journal.substring(start, ((end > start) && (journal.charAt(end - 1) == '\r')) ? end - 1 : end);
+			start = end + 1;
+			try {
+				apply(line.split(SEP));
+			} catch (NumberFormatException e) {
+				// damaged record
+			}
+		}
+	}
+
+	public synchronized void requestsUsed(int nb) throws IOException {
+		requestsUsed += nb;
+		append(false, REQUESTS, Integer.toString(nb));
+	}
+
+	public synchronized void setCellPage(String cell, int page) throws IOException {
+		if (getCellPage(cell) == page) {
+			return;
+		}
+		pages.put(cell, page);
+		append(true, PAGE, cell, Integer.toString(page));
+	}
+
+	public synchronized void setParameter(String key, Object value) throws IOException {
+		parameters.put(key, value.toString());
+		append(true, PARAMETER, key, value.toString());
+	}
+}
@@ -0,0 +1,407 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.grab;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import name.herve.flickrlib.util.PhotoIds;
+
+/**
+ * Binary metadata log of a grab session, replacing <code>metadata.txt</code>. It holds the images
+ * written by the session, and the session parameters.
+ * <p>
+ * <code>metadata.bin</code> starts with a header (magic, version, creation time) followed by
+ * length prefixed records : length of the payload, CRC32 of the payload, payload. The first byte
+ * of a payload is the record type. A log closed cleanly ends with a footer : -1 in place of a
+ * length, number of images, length of the log before the footer, magic. A log without a footer
+ * was interrupted : it is read up to its last valid record, the rest is dropped when it is opened
+ * again. <code>metadata.idx</code> is a memory mapped index from photo id to the offset of its
+ * last record, rebuilt from the log when it does not match its footer.
+ * <p>
+ * Records are written by batches, and forced to the disk every given number of records, every
+ * given interval, on {@link #sync()} and on {@link #close()}. A log can be shared by the threads
+ * of a process, it is locked against other processes while open.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrGrabMetadata implements Closeable {
+	public final static String FILE_NAME = "metadata.bin";
+	public final static String INDEX_FILE_NAME = "metadata.idx";
+
+	public final static int DEFAULT_SYNC_RECORDS = 1000;
+	public final static long DEFAULT_SYNC_INTERVAL = 1000;
+
+	final static int MAGIC = 0x464C474D;
+	final static int VERSION = 1;
+	final static int HEADER_SIZE = 16;
+	final static int FRAME_HEADER_SIZE = 8;
+	final static int FOOTER_SIZE = 24;
+	final static int FOOTER_MARK = -1;
+	final static int MAX_RECORD_LENGTH = 1 << 24;
+	final static byte IMAGE = 1;
+	final static byte PARAMETER = 2;
+
+	private final static int BATCH_SIZE = 64 * 1024;
+
+	public static boolean exists(File dir) {
+		return new File(dir, FILE_NAME).exists();
+	}
+
+	private ByteBuffer batch;
+	private FileChannel channel;
+	private int count;
+	private boolean dirty;
+	private File directory;
+	private FlickrGrabMetadataIndex index;
+	private long length;
+	private FileLock lock;
+	private IOException syncError;
+	private long syncInterval;
+	private int syncRecords;
+	private ScheduledExecutorService syncTimer;
+	private int unsynced;
+
+	public FlickrGrabMetadata(File directory) throws IOException {
+		this(directory, DEFAULT_SYNC_RECORDS, DEFAULT_SYNC_INTERVAL);
+	}
+
+	/**
+	 * Opens the log of a session directory, or creates it.
+	 * 
+	 * @param syncRecords
+	 *            number of records after which the log is forced to the disk, 0 for none
+	 * @param syncInterval
+	 *            interval, in milliseconds, at which the records written since the last sync are
+	 *            forced to the disk, 0 for none
+	 */
+	public FlickrGrabMetadata(File directory, int syncRecords, long syncInterval) throws IOException {
+		super();
+
+		this.directory = directory;
+		this.syncRecords = syncRecords;
+		this.syncInterval = syncInterval;
+		batch = ByteBuffer.allocate(BATCH_SIZE);
+
+		File file = new File(directory, FILE_NAME);
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		lock = channel.tryLock();
+		if (lock == null) {
+			channel.close();
+			throw new IOException("Metadata " + file + " is already in use by another process");
+		}
+
+		try {
+			open(file);
+		} catch (IOException e) {
+			lock.release();
+			channel.close();
+			throw e;
+		}
+
+		if (syncInterval > 0) {
+			startSyncTimer();
+		}
+	}
+
+	/**
+	 * Appends an image, its id replaces any previous record of the same photo in the index.
+	 */
+	public synchronized void append(FlickrGrabRecord record) throws IOException {
+		checkSyncError();
+		long offset = write(IMAGE, record.encode());
+		index.put(PhotoIds.parse(record.getId()), offset);
+		count++;
+		unsynced++;
+		if ((syncRecords > 0) && (unsynced >= syncRecords)) {
+			sync();
+		}
+	}
+
+	private void checkSyncError() throws IOException {
+		if (channel == null) {
+			throw new IOException("Metadata " + directory + " is closed");
+		}
+		if (syncError != null) {
+			IOException e = syncError;
+			syncError = null;
+			throw e;
+		}
+	}
+
+	/**
+	 * Writes the pending records and the footer.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (syncTimer != null) {
+			syncTimer.shutdownNow();
+		}
+
+		synchronized (this) {
+			if (channel == null) {
+				return;
+			}
+			try {
+				flush();
+
+				ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+				footer.putInt(FOOTER_MARK);
+				footer.putLong(count);
+				footer.putLong(length);
+				footer.putInt(MAGIC);
+				footer.flip();
+				writeFully(footer, length);
+				channel.force(true);
+
+				index.setIndexedLength(length);
+				index.close();
+			} finally {
+				lock.release();
+				channel.close();
+				channel = null;
+			}
+		}
+	}
+
+	/**
+	 * @return the last image recorded for a photo, or null
+	 */
+	public synchronized FlickrGrabRecord find(String id) throws IOException {
+		checkSyncError();
+		long offset = index.get(PhotoIds.parse(id));
+		if (offset < 0) {
+			return null;
+		}
+		flush();
+
+		ByteBuffer header = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+		readFully(header, offset);
+		int len = header.getInt(0);
+		if ((len < 1) || (len > MAX_RECORD_LENGTH)) {
+			throw new IOException("Invalid metadata record at " + offset);
+		}
+		ByteBuffer payload = ByteBuffer.allocate(len);
+		readFully(payload, offset + FRAME_HEADER_SIZE);
+
+		CRC32 crc = new CRC32();
+		crc.update(payload.array(), 0, len);
+		if (((int) crc.getValue() != header.getInt(4)) || (payload.get(0) != IMAGE)) {
+			throw new IOException("Corrupted metadata record at " + offset);
+		}
+		payload.position(1);
+		return FlickrGrabRecord.decode(payload);
+	}
+
+	private void flush() throws IOException {
+		if (batch.position() == 0) {
+			return;
+		}
+		batch.flip();
+		writeFully(batch, length);
+		length += batch.limit();
+		batch.clear();
+		dirty = true;
+	}
+
+	public File getDirectory() {
+		return directory;
+	}
+
+	private void open(File file) throws IOException {
+		File idx = new File(directory, INDEX_FILE_NAME);
+
+		if (channel.size() < HEADER_SIZE) {
+			channel.truncate(0);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC);
+			header.putInt(VERSION);
+			header.putLong(System.currentTimeMillis());
+			header.flip();
+			writeFully(header, 0);
+			channel.force(true);
+			length = HEADER_SIZE;
+			count = 0;
+			index = new FlickrGrabMetadataIndex(idx);
+			index.clear();
+			return;
+		}
+
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		readFully(header, 0);
+		if ((header.getInt(0) != MAGIC) || (header.getInt(4) != VERSION)) {
+			throw new IOException("Invalid metadata " + file);
+		}
+
+		index = new FlickrGrabMetadataIndex(idx);
+		long size = channel.size();
+		ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+		if (size >= HEADER_SIZE + FOOTER_SIZE) {
+			readFully(footer, size - FOOTER_SIZE);
+		}
+		if ((footer.getInt(0) == FOOTER_MARK) && (footer.getInt(20) == MAGIC) && (footer.getLong(12) == size - FOOTER_SIZE) && (index.getIndexedLength() == size - FOOTER_SIZE)) {
+			count = (int) footer.getLong(4);
+			length = size - FOOTER_SIZE;
+		} else {
+			rebuildIndex(file);
+		}
+
+		channel.truncate(length);
+		index.setIndexedLength(-1);
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Truncated metadata at " + position);
+			}
+		}
+	}
+
+	/**
+	 * Reads the log up to its last valid record, through the locked channel.
+	 */
+	private void rebuildIndex(File file) throws IOException {
+		index.clear();
+		count = 0;
+
+		FlickrGrabMetadataReader r = new FlickrGrabMetadataReader(file, channel);
+		try {
+			FlickrGrabRecord record = null;
+			while ((record = r.next()) != null) {
+				index.put(PhotoIds.parse(record.getId()), r.getRecordOffset());
+				count++;
+			}
+			length = r.getValidLength();
+		} finally {
+			r.close();
+		}
+	}
+
+	public synchronized void setParameter(String key, String value) throws IOException {
+		checkSyncError();
+		byte[] k = FlickrGrabRecord.toBytes(key);
+		byte[] v = FlickrGrabRecord.toBytes(value);
+		ByteBuffer b = ByteBuffer.allocate(8 + k.length + ((v == null) ? 0 : v.length));
+		FlickrGrabRecord.putString(b, k);
+		FlickrGrabRecord.putString(b, v);
+		write(PARAMETER, b.array());
+		unsynced++;
+	}
+
+	/**
+	 * @return the number of images
+	 */
+	public synchronized int size() {
+		return count;
+	}
+
+	private void startSyncTimer() {
+		syncTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "FlickrGrabMetadata-sync");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		syncTimer.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (FlickrGrabMetadata.this) {
+					if ((channel == null) || (unsynced == 0)) {
+						return;
+					}
+					try {
+						sync();
+					} catch (IOException e) {
+						syncError = e;
+					}
+				}
+			}
+		}, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Writes the pending records and forces them to the disk.
+	 */
+	public synchronized void sync() throws IOException {
+		checkSyncError();
+		flush();
+		if (dirty) {
+			channel.force(false);
+			dirty = false;
+		}
+		unsynced = 0;
+	}
+
+	/**
+	 * @return the offset of the record
+	 */
+	private long write(byte type, byte[] body) throws IOException {
+		int len = 1 + body.length;
+		if (len > MAX_RECORD_LENGTH) {
+			throw new IOException("Metadata record too large : " + len + " bytes");
+		}
+
+		CRC32 crc = new CRC32();
+		crc.update(type);
+		crc.update(body, 0, body.length);
+
+		if (FRAME_HEADER_SIZE + len > batch.remaining()) {
+			flush();
+		}
+		long offset = length + batch.position();
+		if (FRAME_HEADER_SIZE + len > batch.capacity()) {
+			ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + len);
+			frame.putInt(len);
+			frame.putInt((int) crc.getValue());
+			frame.put(type);
+			frame.put(body);
+			frame.flip();
+			writeFully(frame, length);
+			length += frame.limit();
+			dirty = true;
+		} else {
+			batch.putInt(len);
+			batch.putInt((int) crc.getValue());
+			batch.put(type);
+			batch.put(body);
+		}
+		return offset;
+	}
+
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		long p = position;
+		while (buffer.hasRemaining()) {
+			p += channel.write(buffer, p);
+		}
+	}
+}
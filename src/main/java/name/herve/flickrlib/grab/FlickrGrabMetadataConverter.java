@@ -0,0 +1,279 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.grab;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.text.DecimalFormat;
+import java.util.Map;
+
+/**
+ * Converts the metadata of a grab session between the binary log and the previous
+ * <code>metadata.txt</code> format : a <code>key = value</code> line per parameter, then a line per
+ * image with its fields separated by <code>" | "</code>. The lines of FlickrGrabAroundEarth end
+ * with the tags then the title, those of FlickrGrab with the title then the tags. Titles that
+ * contain the separator are read back whole. The file sizes of the text format are rounded.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrGrabMetadataConverter {
+	public final static String TEXT_FILE_NAME = "metadata.txt";
+
+	private final static String FIELD_SEP = " | ";
+	private final static String PARAMETER_SEP = " = ";
+	private final static int NB_FIELDS = 9;
+
+	/**
+	 * @return the number of images converted
+	 */
+	public static int binaryToText(File directory, File text) throws IOException {
+		int nb = 0;
+		FlickrGrabMetadataReader r = new FlickrGrabMetadataReader(directory);
+		BufferedWriter w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(text), StandardCharsets.UTF_8));
+		try {
+			int nbParameters = 0;
+			FlickrGrabRecord record = null;
+			while (true) {
+				record = r.next();
+				Map<String, String> parameters = r.getParameters();
+				int p = 0;
+				for (Map.Entry<String, String> e : parameters.entrySet()) {
+					if (p++ >= nbParameters) {
+						w.write(e.getKey() + PARAMETER_SEP + e.getValue());
+						w.newLine();
+					}
+				}
+				nbParameters = parameters.size();
+
+				if (record == null) {
+					break;
+				}
+				w.write(toLine(record));
+				w.newLine();
+				nb++;
+			}
+		} finally {
+			w.close();
+			r.close();
+		}
+		return nb;
+	}
+
+	/**
+	 * @return the size in bytes, kilobytes or megabytes, as in the text format
+	 */
+	public static String formatSize(long size) {
+		float sz = size;
+		String strSz = " o";
+		if (sz > 1024) {
+			sz /= 1024;
+			strSz = " Ko";
+			if (sz > 1024) {
+				sz /= 1024;
+				strSz = " Mo";
+			}
+		}
+
+		return new DecimalFormat("0.00").format(sz) + strSz;
+	}
+
+	private static String join(String[] fields, int from, int to) {
+		StringBuilder sb = new StringBuilder();
+		for (int f = from; f < to; f++) {
+			if (f > from) {
+				sb.append(FIELD_SEP);
+			}
+			sb.append(fields[f]);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		if ((args.length < 2) || !("--to-binary".equals(args[0]) || "--to-text".equals(args[0]))) {
+			System.err.println("Usage : FlickrGrabMetadataConverter --to-binary|--to-text [session directory] [text file (optional)]");
+			System.err.println("e.g. : FlickrGrabMetadataConverter --to-binary ./data/FlickrGrabAroundEarth-1393412805123");
+			System.err.println("e.g. : FlickrGrabMetadataConverter --to-text ./data/FlickrGrabAroundEarth-1393412805123 /tmp/metadata.txt");
+			System.exit(1);
+		}
+
+		File dir = new File(args[1]);
+		File text = (args.length > 2) ? new File(args[2]) : new File(dir, TEXT_FILE_NAME);
+
+		try {
+			if ("--to-binary".equals(args[0])) {
+				if (FlickrGrabMetadata.exists(dir)) {
+					System.err.println(new File(dir, FlickrGrabMetadata.FILE_NAME) + " already exists");
+					System.exit(1);
+				}
+				System.out.println(textToBinary(text, dir) + " images converted from " + text);
+			} else {
+				System.out.println(binaryToText(dir, text) + " images converted to " + text);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+	private static String nullable(String field) {
+		return "null".equals(field) ? null : field;
+	}
+
+	/**
+	 * @return the image of a line, or null if the line is not an image
+	 */
+	static FlickrGrabRecord parseLine(String line) {
+		String[] fields = line.split(" \\| ", -1);
+		if (fields.length < NB_FIELDS) {
+			return null;
+		}
+
+		FlickrGrabRecord r = new FlickrGrabRecord();
+		r.setFileName(fields[0]);
+		int sep = fields[0].indexOf('_');
+		int ext = fields[0].lastIndexOf('.');
+		if ((sep > 0) && (ext > sep)) {
+			r.setCell(fields[0].substring(0, sep));
+		}
+
+		try {
+			int x = fields[1].indexOf('x');
+			r.setWidth(Integer.parseInt(fields[1].substring(0, x)));
+			r.setHeight(Integer.parseInt(fields[1].substring(x + 1)));
+			r.setFileSize(parseSize(fields[2]));
+		} catch (RuntimeException e) {
+			return null;
+		}
+
+		r.setPageUrl(fields[3]);
+		r.setId(fields[4]);
+		r.setOwner(fields[5]);
+		r.setLicense(fields[6]);
+		if (r.getCell() != null) {
+			r.setTags(nullable(fields[7]));
+			r.setTitle(nullable(join(fields, 8, fields.length)));
+		} else {
+			r.setTitle(nullable(join(fields, 7, fields.length - 1)));
+			r.setTags(nullable(fields[fields.length - 1]));
+		}
+		return r;
+	}
+
+	private static long parseSize(String size) {
+		int sp = size.lastIndexOf(' ');
+		double v = Double.parseDouble(size.substring(0, sp).replace(',', '.'));
+		String unit = size.substring(sp + 1);
+		if ("Ko".equals(unit)) {
+			v *= 1024;
+		} else if ("Mo".equals(unit)) {
+			v *= 1024 * 1024;
+		} else if (!"o".equals(unit)) {
+			throw new NumberFormatException("Unknown unit " + unit);
+		}
+		return Math.round(v);
+	}
+
+	/**
+	 * Converts a text file into the binary log of a session. A last line without its end of line,
+	 * left by a crash, is dropped.
+	 * 
+	 * @return the number of images converted
+	 */
+	public static int textToBinary(File text, File directory) throws IOException {
+		long end = text.length();
+		RandomAccessFile raf = new RandomAccessFile(text, "r");
+		try {
+			while (end > 0) {
+				raf.seek(end - 1);
+				if (raf.read() == '\n') {
+					break;
+				}
+				end--;
+			}
+		} finally {
+			raf.close();
+		}
+
+		int nb = 0;
+		long read = 0;
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(text), StandardCharsets.UTF_8));
+		FlickrGrabMetadata metadata = new FlickrGrabMetadata(directory, 0, 0);
+		try {
+			String line = null;
+			while (((line = r.readLine()) != null) && (read < end)) {
+				read += line.getBytes(StandardCharsets.UTF_8).length + 1;
+				FlickrGrabRecord record = parseLine(line);
+				if (record != null) {
+					metadata.append(record);
+					nb++;
+				} else if (line.contains(PARAMETER_SEP) && !line.contains(FIELD_SEP)) {
+					int p = line.indexOf(PARAMETER_SEP);
+					metadata.setParameter(line.substring(0, p), line.substring(p + PARAMETER_SEP.length()));
+				}
+			}
+		} finally {
+			r.close();
+			metadata.close();
+		}
+		return nb;
+	}
+
+	/**
+	 * @return the line of an image in the text format
+	 */
+	static String toLine(FlickrGrabRecord r) {
+		StringBuilder line = new StringBuilder();
+		line.append(r.getFileName());
+		line.append(FIELD_SEP);
+		line.append(r.getWidth() + "x" + r.getHeight());
+		line.append(FIELD_SEP);
+		line.append(formatSize(r.getFileSize()));
+		line.append(FIELD_SEP);
+		line.append(r.getPageUrl());
+		line.append(FIELD_SEP);
+		line.append(r.getId());
+		line.append(FIELD_SEP);
+		line.append(r.getOwner());
+		line.append(FIELD_SEP);
+		line.append(r.getLicense());
+		line.append(FIELD_SEP);
+		if (r.getCell() != null) {
+			line.append(r.getTags());
+			line.append(FIELD_SEP);
+			line.append(r.getTitle());
+		} else {
+			line.append(r.getTitle());
+			line.append(FIELD_SEP);
+			line.append(r.getTags());
+		}
+		return line.toString();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.grab;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+
+import name.herve.flickrlib.util.MappedLongHashTable;
+
+/**
+ * {@link MappedLongHashTable} from photo id to record offset over a metadata log. The header
+ * records the log length the index covers, it is only trusted when it matches the footer of a log
+ * that was closed cleanly.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+class FlickrGrabMetadataIndex implements Closeable {
+	private final static int MAGIC = 0x464C4749;
+	private final static int VERSION = 1;
+	private final static int HEADER_SIZE = 24;
+	private final static int INDEXED_LENGTH = 16;
+	private final static int MIN_CAPACITY = 1024;
+
+	private MappedLongHashTable table;
+
+	/**
+	 * Opens the index, or creates an empty one if it does not exist or is not valid.
+	 */
+	FlickrGrabMetadataIndex(File file) throws IOException {
+		super();
+
+		try {
+			table = new MappedLongHashTable(file, MAGIC, VERSION, HEADER_SIZE, 1, MIN_CAPACITY, false);
+		} catch (IOException e) {
+			file.delete();
+			table = new MappedLongHashTable(file, MAGIC, VERSION, HEADER_SIZE, 1, MIN_CAPACITY, false);
+		}
+		if (table.isCreated()) {
+			setIndexedLength(-1);
+		}
+	}
+
+	/**
+	 * Drops all the entries.
+	 */
+	void clear() throws IOException {
+		table.clear();
+		setIndexedLength(-1);
+	}
+
+	@Override
+	public void close() throws IOException {
+		table.close();
+	}
+
+	/**
+	 * @return the offset of the last record of the photo, -1 if it is not indexed
+	 */
+	long get(long photoId) {
+		return table.get(photoId, 0, -1);
+	}
+
+	/**
+	 * @return the length of the log covered by the index, -1 if unknown
+	 */
+	long getIndexedLength() {
+		return table.getHeaderLong(INDEXED_LENGTH);
+	}
+
+	void put(long photoId, long offset) throws IOException {
+		if (photoId <= 0) {
+			return;
+		}
+		table.put(photoId, 0, offset);
+	}
+
+	void setIndexedLength(long length) {
+		table.putHeaderLong(INDEXED_LENGTH, length);
+	}
+
+	int size() {
+		return table.size();
+	}
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.grab;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Streaming reader of the metadata log of a grab session, see {@link FlickrGrabMetadata}. The
+ * images are read in the order they were written, up to the footer or, for a log that was
+ * interrupted, up to the last valid record. The parameters are collected as they are met.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrGrabMetadataReader implements Closeable {
+	/**
+	 * Reads a channel at its own position, and leaves the channel open when closed.
+	 */
+	private static class ChannelInputStream extends InputStream {
+		private FileChannel channel;
+		private long position;
+
+		private ChannelInputStream(FileChannel channel) {
+			super();
+			this.channel = channel;
+			this.position = 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xFF);
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			int count = channel.read(ByteBuffer.wrap(b, off, len), position);
+			if (count > 0) {
+				position += count;
+			}
+			return count;
+		}
+	}
+
+	private final static int BUFFER_SIZE = 64 * 1024;
+
+	private boolean complete;
+	private long created;
+	private boolean ended;
+	private DataInputStream in;
+	private Map<String, String> parameters;
+	private long position;
+	private long recordOffset;
+
+	public FlickrGrabMetadataReader(File directory) throws IOException {
+		this(new File(directory, FlickrGrabMetadata.FILE_NAME), new FileInputStream(new File(directory, FlickrGrabMetadata.FILE_NAME)));
+	}
+
+	/**
+	 * Reads the log through a channel already open, without closing it. Closing another descriptor
+	 * on the file would release the lock the process holds on it.
+	 */
+	FlickrGrabMetadataReader(File file, FileChannel channel) throws IOException {
+		this(file, new ChannelInputStream(channel));
+	}
+
+	private FlickrGrabMetadataReader(File file, InputStream stream) throws IOException {
+		super();
+
+		in = new DataInputStream(new BufferedInputStream(stream, BUFFER_SIZE));
+		parameters = new LinkedHashMap<String, String>();
+		complete = false;
+		ended = false;
+		recordOffset = -1;
+
+		try {
+			if ((in.readInt() != FlickrGrabMetadata.MAGIC) || (in.readInt() != FlickrGrabMetadata.VERSION)) {
+				throw new IOException("Invalid metadata " + file);
+			}
+			created = in.readLong();
+		} catch (EOFException e) {
+			in.close();
+			throw new IOException("Invalid metadata " + file, e);
+		}
+		position = FlickrGrabMetadata.HEADER_SIZE;
+	}
+
+	@Override
+	public void close() throws IOException {
+		in.close();
+	}
+
+	/**
+	 * @return the creation time of the log
+	 */
+	public long getCreated() {
+		return created;
+	}
+
+	public String getParameter(String key) {
+		return parameters.get(key);
+	}
+
+	/**
+	 * @return the parameters read so far
+	 */
+	public Map<String, String> getParameters() {
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	/**
+	 * @return the offset of the last image returned by {@link #next()}
+	 */
+	long getRecordOffset() {
+		return recordOffset;
+	}
+
+	/**
+	 * @return the length of the log up to the end of the last valid record read
+	 */
+	long getValidLength() {
+		return position;
+	}
+
+	/**
+	 * @return true once the footer of a log closed cleanly has been read
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * @return the next image, or null at the end of the log
+	 */
+	public FlickrGrabRecord next() throws IOException {
+		while (true) {
+			ByteBuffer payload = ended ? null : readFrame();
+			if (payload == null) {
+				ended = true;
+				return null;
+			}
+
+			byte type = payload.get();
+			if (type == FlickrGrabMetadata.PARAMETER) {
+				String key = FlickrGrabRecord.getString(payload);
+				parameters.put(key, FlickrGrabRecord.getString(payload));
+			} else if (type == FlickrGrabMetadata.IMAGE) {
+				return FlickrGrabRecord.decode(payload);
+			}
+		}
+	}
+
+	/**
+	 * @return the payload of the next record, null at the footer or at the first invalid record
+	 */
+	private ByteBuffer readFrame() throws IOException {
+		long offset = position;
+		try {
+			int len = in.readInt();
+			if (len == FlickrGrabMetadata.FOOTER_MARK) {
+				in.readLong();
+				long length = in.readLong();
+				complete = (in.readInt() == FlickrGrabMetadata.MAGIC) && (length == offset);
+				return null;
+			}
+			if ((len < 1) || (len > FlickrGrabMetadata.MAX_RECORD_LENGTH)) {
+				return null;
+			}
+
+			int expected = in.readInt();
+			byte[] payload = new byte[len];
+			in.readFully(payload);
+
+			CRC32 crc = new CRC32();
+			crc.update(payload, 0, len);
+			if ((int) crc.getValue() != expected) {
+				return null;
+			}
+
+			position = offset + FlickrGrabMetadata.FRAME_HEADER_SIZE + len;
+			recordOffset = offset;
+			return ByteBuffer.wrap(payload);
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+}
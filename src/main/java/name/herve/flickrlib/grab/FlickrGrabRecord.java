@@ -0,0 +1,221 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.grab;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An image written by a grab session, as kept in its metadata log.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrGrabRecord {
+	/**
+	 * Reads a record encoded by {@link #encode()}.
+	 * 
+	 * @throws IllegalArgumentException
+	 *             if the payload is not a valid record
+	 */
+	static FlickrGrabRecord decode(ByteBuffer payload) {
+		try {
+			FlickrGrabRecord r = new FlickrGrabRecord();
+			r.cell = getString(payload);
+			r.fileName = getString(payload);
+			r.width = payload.getInt();
+			r.height = payload.getInt();
+			r.fileSize = payload.getLong();
+			r.pageUrl = getString(payload);
+			r.id = getString(payload);
+			r.owner = getString(payload);
+			r.license = getString(payload);
+			r.tags = getString(payload);
+			r.title = getString(payload);
+			return r;
+		} catch (BufferUnderflowException e) {
+			throw new IllegalArgumentException("Truncated record", e);
+		}
+	}
+
+	static String getString(ByteBuffer b) {
+		int len = b.getInt();
+		if (len < 0) {
+			return null;
+		}
+		if (len > b.remaining()) {
+			throw new IllegalArgumentException("Invalid string length " + len);
+		}
+		String s = new String(b.array(), b.arrayOffset() + b.position(), len, StandardCharsets.UTF_8);
+		b.position(b.position() + len);
+		return s;
+	}
+
+	static void putString(ByteBuffer b, byte[] s) {
+		if (s == null) {
+			b.putInt(-1);
+		} else {
+			b.putInt(s.length);
+			b.put(s);
+		}
+	}
+
+	static byte[] toBytes(String s) {
+		return (s == null) ? null : s.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private String cell;
+	private String fileName;
+	private long fileSize;
+	private int height;
+	private String id;
+	private String license;
+	private String owner;
+	private String pageUrl;
+	private String tags;
+	private String title;
+	private int width;
+
+	public FlickrGrabRecord() {
+		super();
+	}
+
+	/**
+	 * @return the record as a payload of the metadata log : each string is written as its UTF-8
+	 *         length (-1 for null) followed by its bytes
+	 */
+	byte[] encode() {
+		String[] strings = new String[] { cell, fileName, pageUrl, id, owner, license, tags, title };
+		byte[][] bytes = new byte[strings.length][];
+		int length = 4 + 4 + 8;
+		for (int s = 0; s < strings.length; s++) {
+			bytes[s] = toBytes(strings[s]);
+			length += 4 + ((bytes[s] == null) ? 0 : bytes[s].length);
+		}
+
+		ByteBuffer b = ByteBuffer.allocate(length);
+		putString(b, bytes[0]);
+		putString(b, bytes[1]);
+		b.putInt(width);
+		b.putInt(height);
+		b.putLong(fileSize);
+		for (int s = 2; s < bytes.length; s++) {
+			putString(b, bytes[s]);
+		}
+		return b.array();
+	}
+
+	/**
+	 * @return the cell of the grid the image was grabbed for, null outside of a grid crawl
+	 */
+	public String getCell() {
+		return cell;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * @return the size of the image file, in bytes
+	 */
+	public long getFileSize() {
+		return fileSize;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the name of the license
+	 */
+	public String getLicense() {
+		return license;
+	}
+
+	public String getOwner() {
+		return owner;
+	}
+
+	public String getPageUrl() {
+		return pageUrl;
+	}
+
+	public String getTags() {
+		return tags;
+	}
+
+	public String getTitle() {
+		return title;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public void setCell(String cell) {
+		this.cell = cell;
+	}
+
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public void setFileSize(long fileSize) {
+		this.fileSize = fileSize;
+	}
+
+	public void setHeight(int height) {
+		this.height = height;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public void setLicense(String license) {
+		this.license = license;
+	}
+
+	public void setOwner(String owner) {
+		this.owner = owner;
+	}
+
+	public void setPageUrl(String pageUrl) {
+		this.pageUrl = pageUrl;
+	}
+
+	public void setTags(String tags) {
+		this.tags = tags;
+	}
+
+	public void setTitle(String title) {
+		this.title = title;
+	}
+
+	public void setWidth(int width) {
+		this.width = width;
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.jfr;
+
+/**
+ * Call to the REST API, from the cache lookup to the first byte of the response. The response
+ * body is streamed to the parser, see {@link FlickrParseEvent}.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public abstract class FlickrApiCallEvent extends FlickrEvent {
+	public String method;
+	public String photoId;
+	public boolean cached;
+	public int status;
+	// length of the response, -1 if unknown
+	public long bytes;
+	public long rateLimitWait;
+	public long dns;
+	// TCP connection and TLS handshake, close to zero when a kept-alive connection is reused
+	public long connect;
+	// from the request to the first byte of the response
+	public long serverWait;
+}
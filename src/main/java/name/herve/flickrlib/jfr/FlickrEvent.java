@@ -0,0 +1,40 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.jfr;
+
+/**
+ * Base of the FlickrLib events : the fields are filled by the library, a {@link FlickrEventRecorder}
+ * turns them into flight recorder events. The event classes are not needed, and not loaded, when
+ * the flight recorder is missing.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public abstract class FlickrEvent {
+	public abstract void begin();
+
+	public abstract void commit();
+
+	public abstract void end();
+
+	/**
+	 * @return true if the event is recorded, the fields only need to be filled in that case
+	 */
+	public abstract boolean shouldCommit();
+}
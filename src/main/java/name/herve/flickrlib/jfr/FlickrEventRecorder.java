@@ -0,0 +1,37 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.jfr;
+
+/**
+ * Creates the events, see {@link FlickrEvents}.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public interface FlickrEventRecorder {
+	boolean isNetworkTimingEnabled();
+
+	FlickrApiCallEvent newApiCallEvent();
+
+	FlickrImageDownloadEvent newImageDownloadEvent();
+
+	FlickrPageFetchEvent newPageFetchEvent();
+
+	FlickrParseEvent newParseEvent();
+}
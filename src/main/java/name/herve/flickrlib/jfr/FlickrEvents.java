@@ -0,0 +1,90 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.jfr;
+
+/**
+ * Entry point of the call sites for the flight recorder events. The events are defined in
+ * <code>src/main/jfr</code>, compiled apart from the library so that it builds against the Java 8
+ * API, and loaded by reflection when <code>jdk.jfr</code> is present. Otherwise no event is
+ * created, the factories return null.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrEvents {
+	private final static String RECORDER_CLASS = "name.herve.flickrlib.jfr.FlickrJfrRecorder";
+
+	private final static FlickrEventRecorder RECORDER = loadRecorder();
+
+	/**
+	 * @return true if the events can be created
+	 */
+	public static boolean isAvailable() {
+		return RECORDER != null;
+	}
+
+	public static boolean isNetworkTimingEnabled() {
+		return (RECORDER != null) && RECORDER.isNetworkTimingEnabled();
+	}
+
+	private static FlickrEventRecorder loadRecorder() {
+		ClassLoader loader = FlickrEvents.class.getClassLoader();
+		try {
+			Class.forName("jdk.jfr.Event", false, loader);
+			return (FlickrEventRecorder) Class.forName(RECORDER_CLASS, true, loader).getConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return a started event, or null
+	 */
+	public static FlickrApiCallEvent newApiCallEvent() {
+		return (RECORDER == null) ? null : start(RECORDER.newApiCallEvent());
+	}
+
+	/**
+	 * @return a started event, or null
+	 */
+	public static FlickrImageDownloadEvent newImageDownloadEvent() {
+		return (RECORDER == null) ? null : start(RECORDER.newImageDownloadEvent());
+	}
+
+	/**
+	 * @return a started event, or null
+	 */
+	public static FlickrPageFetchEvent newPageFetchEvent() {
+		return (RECORDER == null) ? null : start(RECORDER.newPageFetchEvent());
+	}
+
+	/**
+	 * @return a started event, or null
+	 */
+	public static FlickrParseEvent newParseEvent() {
+		return (RECORDER == null) ? null : start(RECORDER.newParseEvent());
+	}
+
+	private static <E extends FlickrEvent> E start(E event) {
+		event.begin();
+		return event;
+	}
+}
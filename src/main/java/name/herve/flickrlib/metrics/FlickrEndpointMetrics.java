@@ -0,0 +1,71 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Requests, errors and latencies of one endpoint : an API method or an image host.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrEndpointMetrics {
+	private LongAdder errors;
+	private FlickrLatencyHistogram latency;
+	private String name;
+	private LongAdder requests;
+
+	FlickrEndpointMetrics(String name) {
+		super();
+		this.name = name;
+		errors = new LongAdder();
+		latency = new FlickrLatencyHistogram();
+		requests = new LongAdder();
+	}
+
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	public FlickrLatencyHistogram getLatency() {
+		return latency;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getRequests() {
+		return requests.sum();
+	}
+
+	void record(long nanos, boolean error) {
+		requests.increment();
+		if (error) {
+			errors.increment();
+		}
+		latency.record(nanos);
+	}
+
+	void reset() {
+		errors.reset();
+		requests.reset();
+		latency.reset();
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Images accepted and rejected by one filter class.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrFilterMetrics {
+	private LongAdder accepted;
+	private String name;
+	private LongAdder rejected;
+
+	FlickrFilterMetrics(String name) {
+		super();
+		this.name = name;
+		accepted = new LongAdder();
+		rejected = new LongAdder();
+	}
+
+	public long getAccepted() {
+		return accepted.sum();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	void record(boolean match) {
+		if (match) {
+			accepted.increment();
+		} else {
+			rejected.increment();
+		}
+	}
+
+	void reset() {
+		accepted.reset();
+		rejected.reset();
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free log-linear histogram of durations in nanoseconds. Each power of two is split into 16
+ * buckets, so that any value is known within 6%. Recording does not allocate.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrLatencyHistogram {
+	private final static int SUB_BITS = 4;
+	private final static int SUB_BUCKETS = 1 << SUB_BITS;
+	private final static int NB_BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	static int getBucket(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) Math.max(0, value);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int mantissa = (int) ((value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1));
+		return (exponent - SUB_BITS + 1) * SUB_BUCKETS + mantissa;
+	}
+
+	static long getLowerBound(int bucket) {
+		if (bucket < SUB_BUCKETS) {
+			return bucket;
+		}
+		int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+		long mantissa = bucket % SUB_BUCKETS;
+		return (SUB_BUCKETS + mantissa) << (exponent - SUB_BITS);
+	}
+
+	private AtomicLongArray counts;
+	private AtomicLong max;
+	private LongAdder total;
+
+	public FlickrLatencyHistogram() {
+		super();
+		counts = new AtomicLongArray(NB_BUCKETS);
+		max = new AtomicLong();
+		total = new LongAdder();
+	}
+
+	public long getCount() {
+		long count = 0;
+		for (int b = 0; b < NB_BUCKETS; b++) {
+			count += counts.get(b);
+		}
+		return count;
+	}
+
+	public long getMax() {
+		return max.get();
+	}
+
+	public double getMean() {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+		return total.sum() / (double) count;
+	}
+
+	/**
+	 * @param p
+	 *            between 0 and 1
+	 * @return the value under which this fraction of the recorded values falls, in nanoseconds
+	 */
+	public long getPercentile(double p) {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(p * count));
+		long seen = 0;
+		for (int b = 0; b < NB_BUCKETS; b++) {
+			seen += counts.get(b);
+			if (seen >= rank) {
+				long lower = getLowerBound(b);
+				long upper = (b + 1 < NB_BUCKETS) ? getLowerBound(b + 1) : Long.MAX_VALUE;
+				return Math.min(max.get(), lower + (upper - lower) / 2);
+			}
+		}
+		return max.get();
+	}
+
+	public void record(long nanos) {
+		counts.incrementAndGet(getBucket(nanos));
+		total.add(nanos);
+
+		long m = max.get();
+		while ((nanos > m) && !max.compareAndSet(m, nanos)) {
+			m = max.get();
+		}
+	}
+
+	public void reset() {
+		for (int b = 0; b < NB_BUCKETS; b++) {
+			counts.set(b, 0);
+		}
+		total.reset();
+		max.set(0);
+	}
+}
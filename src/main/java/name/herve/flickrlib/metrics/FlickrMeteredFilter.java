@@ -0,0 +1,60 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.metrics;
+
+import name.herve.flickrlib.FlickrImage;
+import name.herve.flickrlib.filters.ChainedFilters;
+import name.herve.flickrlib.filters.FlickrSearchResponseFilter;
+
+/**
+ * Counts the images accepted and rejected by a filter, under the filter class.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrMeteredFilter implements FlickrSearchResponseFilter {
+	/**
+	 * Wraps the filter, or each filter of a chain so that every class gets its own counts.
+	 */
+	public static FlickrSearchResponseFilter wrap(FlickrSearchResponseFilter filter, FlickrMetrics metrics) {
+		if (filter instanceof ChainedFilters) {
+			ChainedFilters metered = new ChainedFilters();
+			for (FlickrSearchResponseFilter f : (ChainedFilters) filter) {
+				metered.add(wrap(f, metrics));
+			}
+			return metered;
+		}
+		return new FlickrMeteredFilter(filter, metrics);
+	}
+
+	private FlickrSearchResponseFilter filter;
+	private FlickrMetrics metrics;
+
+	public FlickrMeteredFilter(FlickrSearchResponseFilter filter, FlickrMetrics metrics) {
+		super();
+		this.filter = filter;
+		this.metrics = metrics;
+	}
+
+	@Override
+	public boolean match(FlickrImage img) {
+		boolean match = filter.match(img);
+		metrics.recordFilter(filter.getClass(), match);
+		return match;
+	}
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.metrics;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import name.herve.flickrlib.FlickrException;
+
+/**
+ * Counters and latency histograms of a FlickrFrontend and of the searches it runs. Recording only
+ * uses LongAdder and atomic arrays and does not allocate once an endpoint or a filter class has
+ * been seen, so that it may stay enabled on long crawls.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrMetrics implements FlickrMetricsMXBean {
+	public final static String JMX_DOMAIN = "name.herve.flickrlib";
+
+	private static double toMillis(double nanos) {
+		return nanos / 1e6;
+	}
+
+	private LongAdder apiBytes;
+	private LongAdder cacheHits;
+	private LongAdder cacheMisses;
+	private ConcurrentMap<String, FlickrEndpointMetrics> endpoints;
+	private ScheduledExecutorService exportExecutor;
+	private ConcurrentMap<Class<?>, FlickrFilterMetrics> filters;
+	private LongAdder imageBytes;
+	private LongAdder images;
+	private LongAdder inFlight;
+	private ObjectName objectName;
+	private LongAdder pages;
+
+	public FlickrMetrics() {
+		super();
+		apiBytes = new LongAdder();
+		cacheHits = new LongAdder();
+		cacheMisses = new LongAdder();
+		endpoints = new ConcurrentHashMap<String, FlickrEndpointMetrics>();
+		filters = new ConcurrentHashMap<Class<?>, FlickrFilterMetrics>();
+		imageBytes = new LongAdder();
+		images = new LongAdder();
+		inFlight = new LongAdder();
+		pages = new LongAdder();
+		objectName = null;
+		exportExecutor = null;
+	}
+
+	/**
+	 * To be called when a request starts, followed by {@link #requestDone(String, long, boolean)}.
+	 */
+	public void requestStarted() {
+		inFlight.increment();
+	}
+
+	/**
+	 * @param nanos
+	 *            duration of the request, retries included
+	 */
+	public void requestDone(String endpoint, long nanos, boolean error) {
+		inFlight.decrement();
+		getEndpoint(endpoint).record(nanos, error);
+	}
+
+	public void recordApiBytes(long bytes) {
+		apiBytes.add(bytes);
+	}
+
+	public void recordCacheHit() {
+		cacheHits.increment();
+	}
+
+	public void recordCacheMiss() {
+		cacheMisses.increment();
+	}
+
+	public void recordFilter(Class<?> filter, boolean match) {
+		FlickrFilterMetrics m = filters.get(filter);
+		if (m == null) {
+			m = new FlickrFilterMetrics(filter.getSimpleName());
+			FlickrFilterMetrics existing = filters.putIfAbsent(filter, m);
+			if (existing != null) {
+				m = existing;
+			}
+		}
+		m.record(match);
+	}
+
+	public void recordImage(long bytes) {
+		images.increment();
+		imageBytes.add(bytes);
+	}
+
+	public void recordPage() {
+		pages.increment();
+	}
+
+	@Override
+	public long getApiBytes() {
+		return apiBytes.sum();
+	}
+
+	@Override
+	public double getCacheHitRate() {
+		long hits = cacheHits.sum();
+		long total = hits + cacheMisses.sum();
+		if (total == 0) {
+			return 0;
+		}
+		return hits / (double) total;
+	}
+
+	@Override
+	public long getCacheHits() {
+		return cacheHits.sum();
+	}
+
+	@Override
+	public long getCacheMisses() {
+		return cacheMisses.sum();
+	}
+
+	public FlickrEndpointMetrics getEndpoint(String endpoint) {
+		FlickrEndpointMetrics m = endpoints.get(endpoint);
+		if (m == null) {
+			m = new FlickrEndpointMetrics(endpoint);
+			FlickrEndpointMetrics existing = endpoints.putIfAbsent(endpoint, m);
+			if (existing != null) {
+				m = existing;
+			}
+		}
+		return m;
+	}
+
+	public Collection<FlickrEndpointMetrics> getEndpoints() {
+		return endpoints.values();
+	}
+
+	@Override
+	public Map<String, Long> getErrors() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (FlickrEndpointMetrics m : endpoints.values()) {
+			result.put(m.getName(), m.getErrors());
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getFilterAccepted() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (FlickrFilterMetrics m : filters.values()) {
+			result.put(m.getName(), m.getAccepted());
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Long> getFilterRejected() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (FlickrFilterMetrics m : filters.values()) {
+			result.put(m.getName(), m.getRejected());
+		}
+		return result;
+	}
+
+	public Collection<FlickrFilterMetrics> getFilters() {
+		return filters.values();
+	}
+
+	@Override
+	public long getImageBytes() {
+		return imageBytes.sum();
+	}
+
+	@Override
+	public long getImages() {
+		return images.sum();
+	}
+
+	@Override
+	public long getInFlightRequests() {
+		return inFlight.sum();
+	}
+
+	@Override
+	public Map<String, Double> getLatencyMeanMillis() {
+		Map<String, Double> result = new TreeMap<String, Double>();
+		for (FlickrEndpointMetrics m : endpoints.values()) {
+			result.put(m.getName(), toMillis(m.getLatency().getMean()));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Double> getLatencyP50Millis() {
+		return getLatencyPercentileMillis(0.5);
+	}
+
+	private Map<String, Double> getLatencyPercentileMillis(double p) {
+		Map<String, Double> result = new TreeMap<String, Double>();
+		for (FlickrEndpointMetrics m : endpoints.values()) {
+			result.put(m.getName(), toMillis(m.getLatency().getPercentile(p)));
+		}
+		return result;
+	}
+
+	@Override
+	public Map<String, Double> getLatencyP99Millis() {
+		return getLatencyPercentileMillis(0.99);
+	}
+
+	@Override
+	public long getPages() {
+		return pages.sum();
+	}
+
+	@Override
+	public Map<String, Long> getRequests() {
+		Map<String, Long> result = new TreeMap<String, Long>();
+		for (FlickrEndpointMetrics m : endpoints.values()) {
+			result.put(m.getName(), m.getRequests());
+		}
+		return result;
+	}
+
+	/**
+	 * Registers the metrics on the platform MBean server, as name.herve.flickrlib:type=FlickrMetrics,name=...
+	 */
+	public synchronized void registerMBean(String name) throws FlickrException {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName on = new ObjectName(JMX_DOMAIN + ":type=FlickrMetrics,name=" + ObjectName.quote(name));
+			server.registerMBean(this, on);
+			objectName = on;
+		} catch (JMException e) {
+			throw new FlickrException(e);
+		}
+	}
+
+	@Override
+	public void reset() {
+		apiBytes.reset();
+		cacheHits.reset();
+		cacheMisses.reset();
+		imageBytes.reset();
+		images.reset();
+		pages.reset();
+		for (FlickrEndpointMetrics m : endpoints.values()) {
+			m.reset();
+		}
+		for (FlickrFilterMetrics m : filters.values()) {
+			m.reset();
+		}
+	}
+
+	/**
+	 * Calls the exporter every period, in milliseconds, from a daemon thread.
+	 */
+	public synchronized void startExport(final FlickrMetricsExporter exporter, long period) {
+		stopExport();
+		exportExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "FlickrMetrics-export");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		exportExecutor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					exporter.export(FlickrMetrics.this);
+				} catch (IOException e) {
+					// next time
+				} catch (RuntimeException e) {
+					// next time
+				}
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public synchronized void stopExport() {
+		if (exportExecutor != null) {
+			exportExecutor.shutdown();
+			exportExecutor = null;
+		}
+	}
+
+	public synchronized void unregisterMBean() throws FlickrException {
+		if (objectName != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+				objectName = null;
+			} catch (JMException e) {
+				throw new FlickrException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link FlickrMetrics}. Latencies are in milliseconds, maps are keyed by endpoint or
+ * filter class.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public interface FlickrMetricsMXBean {
+	long getApiBytes();
+
+	double getCacheHitRate();
+
+	long getCacheHits();
+
+	long getCacheMisses();
+
+	Map<String, Long> getErrors();
+
+	Map<String, Long> getFilterAccepted();
+
+	Map<String, Long> getFilterRejected();
+
+	long getImageBytes();
+
+	long getImages();
+
+	long getInFlightRequests();
+
+	Map<String, Double> getLatencyMeanMillis();
+
+	Map<String, Double> getLatencyP50Millis();
+
+	Map<String, Double> getLatencyP99Millis();
+
+	long getPages();
+
+	Map<String, Long> getRequests();
+
+	void reset();
+}
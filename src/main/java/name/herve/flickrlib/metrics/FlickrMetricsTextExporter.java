@@ -0,0 +1,54 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.metrics;
+
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * Writes a human readable summary of the metrics.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrMetricsTextExporter implements FlickrMetricsExporter {
+	private PrintStream out;
+
+	public FlickrMetricsTextExporter(PrintStream out) {
+		super();
+		this.out = out;
+	}
+
+	@Override
+	public void export(FlickrMetrics m) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("in flight %d - pages %d - images %d (%.1f MB) - api %.1f MB - cache hit rate %.1f %%", m.getInFlightRequests(), m.getPages(), m.getImages(), m.getImageBytes() / (1024d * 1024d), m.getApiBytes() / (1024d * 1024d), 100 * m.getCacheHitRate()));
+		sb.append(System.lineSeparator());
+		for (FlickrEndpointMetrics e : m.getEndpoints()) {
+			FlickrLatencyHistogram h = e.getLatency();
+			sb.append(String.format("  %s : %d requests, %d errors, p50 %.1f ms, p99 %.1f ms, max %.1f ms", e.getName(), e.getRequests(), e.getErrors(), h.getPercentile(0.5) / 1e6, h.getPercentile(0.99) / 1e6, h.getMax() / 1e6));
+			sb.append(System.lineSeparator());
+		}
+		for (FlickrFilterMetrics f : m.getFilters()) {
+			sb.append(String.format("  %s : %d accepted, %d rejected", f.getName(), f.getAccepted(), f.getRejected()));
+			sb.append(System.lineSeparator());
+		}
+		out.print(sb);
+		out.flush();
+	}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.progress;
+
+/**
+ * Snapshot of the progress of all the downloads followed by a {@link FlickrProgressTracker}.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrProgress {
+	private int active;
+	private long completed;
+	private long length;
+	private long position;
+	private String step;
+
+	FlickrProgress(long position, long length, int active, long completed, String step) {
+		super();
+		this.position = position;
+		this.length = length;
+		this.active = active;
+		this.completed = completed;
+		this.step = step;
+	}
+
+	/**
+	 * @return the number of downloads in progress
+	 */
+	public int getActive() {
+		return active;
+	}
+
+	/**
+	 * @return the number of downloads done
+	 */
+	public long getCompleted() {
+		return completed;
+	}
+
+	/**
+	 * @return the bytes expected, when the length of a download is unknown its position is counted
+	 *         instead
+	 */
+	public long getLength() {
+		return length;
+	}
+
+	/**
+	 * @return the bytes transferred
+	 */
+	public long getPosition() {
+		return position;
+	}
+
+	/**
+	 * @return the position over the length, between 0 and 1
+	 */
+	public double getRatio() {
+		return (length > 0) ? position / (double) length : 0;
+	}
+
+	/**
+	 * @return the last progression step notified by a download
+	 */
+	public String getStep() {
+		return step;
+	}
+
+	@Override
+	public String toString() {
+		return active + " active - " + completed + " completed - " + position + " / " + length + " bytes";
+	}
+}
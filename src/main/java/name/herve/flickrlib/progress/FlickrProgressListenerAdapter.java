@@ -0,0 +1,47 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.progress;
+
+import name.herve.flickrlib.FlickrProgressListener;
+
+/**
+ * Feeds a {@link FlickrProgressListener} with the aggregated progress of a tracker.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrProgressListenerAdapter implements FlickrProgressHandler {
+	private String lastStep;
+	private FlickrProgressListener listener;
+
+	public FlickrProgressListenerAdapter(FlickrProgressListener listener) {
+		super();
+		this.listener = listener;
+		lastStep = null;
+	}
+
+	@Override
+	public boolean progressUpdated(FlickrProgress progress) {
+		String step = progress.getStep();
+		if ((step != null) && !step.equals(lastStep)) {
+			lastStep = step;
+			listener.notifyNewProgressionStep(step);
+		}
+		return listener.notifyProgress(progress.getPosition(), progress.getLength());
+	}
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.progress;
+
+import java.io.Closeable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import name.herve.flickrlib.FlickrProgressListener;
+
+/**
+ * Aggregates the progress of concurrent downloads and hands it over to a
+ * {@link FlickrProgressHandler}. Each download gets its own {@link Download} listener, whose
+ * <code>notifyProgress</code> only updates a few counters on the I/O thread. The handler is called
+ * from a separate thread, once enough bytes have been transferred or enough time has elapsed
+ * since the previous call, and the updates in between are coalesced.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrProgressTracker implements Closeable {
+	/**
+	 * Listener for a single download, to be passed to the {@link name.herve.flickrlib.FlickrFrontend}
+	 * methods. It is not meant to be shared between concurrent downloads.
+	 */
+	public class Download implements FlickrProgressListener {
+		private volatile boolean cancelled;
+		private boolean done;
+		private long length;
+		private long position;
+
+		private Download() {
+			super();
+			cancelled = false;
+			done = false;
+			length = -1;
+			position = 0;
+		}
+
+		/**
+		 * Makes this download stop at its next progress notification.
+		 */
+		public void cancel() {
+			cancelled = true;
+		}
+
+		/**
+		 * To be called once the download is over, successfully or not. The expected length is then
+		 * replaced by the bytes actually transferred.
+		 */
+		public void done() {
+			if (done) {
+				return;
+			}
+			done = true;
+			if (length >= 0) {
+				totalLength.addAndGet(position - length);
+			}
+			active.decrementAndGet();
+			completed.incrementAndGet();
+			update(totalPosition.get());
+		}
+
+		public boolean isCancelled() {
+			return cancelled || FlickrProgressTracker.this.cancelled;
+		}
+
+		@Override
+		public void notifyNewProgressionStep(String step) {
+			lastStep = step;
+		}
+
+		@Override
+		public boolean notifyProgress(double position, double length) {
+			long p = (long) position;
+			long delta = p - this.position;
+			this.position = p;
+
+			if (length < 0) {
+				totalLength.addAndGet(delta);
+			} else if (this.length < 0) {
+				this.length = (long) length;
+				totalLength.addAndGet(this.length);
+			}
+
+			if (delta != 0) {
+				update(totalPosition.addAndGet(delta));
+			}
+
+			return !isCancelled();
+		}
+	}
+
+	public final static long DEFAULT_BYTE_THRESHOLD = 1024 * 1024;
+	public final static long DEFAULT_INTERVAL = 1000;
+
+	private AtomicInteger active;
+	private long byteThreshold;
+	private volatile boolean cancelled;
+	private AtomicLong completed;
+	private Runnable delivery;
+	private Executor executor;
+	private FlickrProgressHandler handler;
+	private long interval;
+	private volatile String lastStep;
+	private ExecutorService ownExecutor;
+	private volatile long publishedPosition;
+	private volatile long publishedTime;
+	private AtomicBoolean scheduled;
+	private AtomicLong totalLength;
+	private AtomicLong totalPosition;
+
+	public FlickrProgressTracker(FlickrProgressHandler handler) {
+		this(handler, DEFAULT_BYTE_THRESHOLD, DEFAULT_INTERVAL, null);
+	}
+
+	/**
+	 * @param byteThreshold
+	 *            bytes transferred, all downloads included, that trigger a call to the handler
+	 * @param interval
+	 *            milliseconds after which a call is triggered by any progress
+	 * @param executor
+	 *            runs the handler, a dedicated daemon thread if null
+	 */
+	public FlickrProgressTracker(FlickrProgressHandler handler, long byteThreshold, long interval, Executor executor) {
+		super();
+
+		this.handler = handler;
+		this.byteThreshold = byteThreshold;
+		this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+
+		if (executor == null) {
+			ownExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "FlickrProgressTracker");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			executor = ownExecutor;
+		}
+		this.executor = executor;
+
+		active = new AtomicInteger();
+		completed = new AtomicLong();
+		totalLength = new AtomicLong();
+		totalPosition = new AtomicLong();
+		scheduled = new AtomicBoolean(false);
+		cancelled = false;
+		publishedPosition = 0;
+		publishedTime = System.nanoTime();
+
+		delivery = new Runnable() {
+			@Override
+			public void run() {
+				scheduled.set(false);
+				deliver();
+			}
+		};
+	}
+
+	/**
+	 * Makes all the downloads stop at their next progress notification.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+
+	/**
+	 * Delivers a last update, then stops the delivery thread if the tracker owns it.
+	 */
+	@Override
+	public void close() {
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					deliver();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// already closed
+		}
+		if (ownExecutor != null) {
+			ownExecutor.shutdown();
+		}
+	}
+
+	private synchronized void deliver() {
+		publishedPosition = totalPosition.get();
+		publishedTime = System.nanoTime();
+		try {
+			if (!handler.progressUpdated(getProgress())) {
+				cancel();
+			}
+		} catch (RuntimeException e) {
+			// next time
+		}
+	}
+
+	public FlickrProgress getProgress() {
+		return new FlickrProgress(totalPosition.get(), totalLength.get(), active.get(), completed.get(), lastStep);
+	}
+
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	public Download newDownload() {
+		active.incrementAndGet();
+		return new Download();
+	}
+
+	private void update(long position) {
+		if ((position - publishedPosition < byteThreshold) && (System.nanoTime() - publishedTime < interval)) {
+			return;
+		}
+		if (scheduled.compareAndSet(false, true)) {
+			try {
+				executor.execute(delivery);
+			} catch (RejectedExecutionException e) {
+				scheduled.set(false);
+			}
+		}
+	}
+}
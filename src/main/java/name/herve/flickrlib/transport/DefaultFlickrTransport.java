@@ -0,0 +1,244 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.transport;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.UnknownHostException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import name.herve.flickrlib.jfr.FlickrEvents;
+
+/**
+ * Default transport, based on {@link HttpURLConnection}. Connections are kept alive and reused by
+ * the JDK as long as the response bodies are fully read and closed. The number of concurrent
+ * requests to a given host (e.g. each <code>farmN.staticflickr.com</code>) is bounded. While the
+ * FlickrLib flight recorder events are enabled, the host name is resolved beforehand so that the
+ * DNS lookup, the connection and the server wait are timed separately.
+ * <p>
+ * The JDK keeps at most <code>http.maxConnections</code> idle connections per destination (5 by
+ * default). This system property is not set by FlickrLib : applications that raise the number of
+ * connections per host should set it to the same value at startup, so that the connections are
+ * reused instead of being closed.
+ * <p>
+ * A request waits for a connection to its host at most for the permit timeout, 5 minutes by
+ * default, as other requests to the same host may be downloading large images. A
+ * {@link SocketTimeoutException} is thrown after that, a failure the retry policy treats as
+ * transient.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class DefaultFlickrTransport implements FlickrTransport {
+	private class PermitInputStream extends FilterInputStream {
+		private Semaphore permits;
+
+		private PermitInputStream(InputStream in, Semaphore permits) {
+			super(in);
+			this.permits = permits;
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				release();
+			}
+		}
+
+		private synchronized void release() {
+			if (permits != null) {
+				permits.release();
+				permits = null;
+			}
+		}
+	}
+
+	public final static int DEFAULT_CONNECT_TIMEOUT = 10000;
+	public final static int DEFAULT_MAX_CONNECTIONS_PER_HOST = 8;
+	public final static long DEFAULT_PERMIT_TIMEOUT = 300000;
+	public final static int DEFAULT_READ_TIMEOUT = 30000;
+
+	private int connectTimeout;
+	private boolean gzip;
+	private ConcurrentMap<String, Semaphore> hostPermits;
+	private int maxConnectionsPerHost;
+	private long permitTimeout;
+	private int readTimeout;
+
+	public DefaultFlickrTransport() {
+		this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_MAX_CONNECTIONS_PER_HOST);
+	}
+
+	public DefaultFlickrTransport(int connectTimeout, int readTimeout, int maxConnectionsPerHost) {
+		super();
+
+		this.connectTimeout = connectTimeout;
+		this.readTimeout = readTimeout;
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+		this.permitTimeout = DEFAULT_PERMIT_TIMEOUT;
+		this.gzip = true;
+
+		hostPermits = new ConcurrentHashMap<String, Semaphore>();
+	}
+
+	@Override
+	public FlickrTransportResponse get(URL url) throws IOException {
+		Semaphore permits = getPermits(url.getHost());
+		try {
+			if (permitTimeout <= 0) {
+				permits.acquire();
+			} else if (!permits.tryAcquire(permitTimeout, TimeUnit.MILLISECONDS)) {
+				throw new SocketTimeoutException("Timed out after " + permitTimeout + " ms while waiting for a connection to " + url.getHost());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for a connection to " + url.getHost(), e);
+		}
+
+		try {
+			boolean timed = FlickrEvents.isNetworkTimingEnabled();
+			long dnsTime = 0;
+			if (timed) {
+				long start = System.nanoTime();
+				try {
+					// warms the JDK address cache, the connection below skips the lookup
+					InetAddress.getAllByName(url.getHost());
+				} catch (UnknownHostException e) {
+					// reported by the connection, or resolved by a proxy
+				}
+				dnsTime = System.nanoTime() - start;
+			}
+
+			URLConnection uc = url.openConnection();
+			uc.setDefaultUseCaches(false);
+			uc.setUseCaches(false);
+			uc.setConnectTimeout(connectTimeout);
+			uc.setReadTimeout(readTimeout);
+			uc.setRequestProperty("Cache-Control", "no-cache");
+			uc.setRequestProperty("Pragma", "no-cache");
+			if (gzip) {
+				uc.setRequestProperty("Accept-Encoding", "gzip");
+			}
+
+			long connectTime = 0;
+			long waitTime = 0;
+			if (timed) {
+				long start = System.nanoTime();
+				uc.connect();
+				connectTime = System.nanoTime() - start;
+			}
+
+			int status = 200;
+			InputStream in = null;
+			if (uc instanceof HttpURLConnection) {
+				HttpURLConnection huc = (HttpURLConnection) uc;
+				long start = timed ? System.nanoTime() : 0;
+				status = huc.getResponseCode();
+				if (timed) {
+					waitTime = System.nanoTime() - start;
+				}
+				in = (status >= 400) ? huc.getErrorStream() : huc.getInputStream();
+			} else {
+				in = uc.getInputStream();
+			}
+
+			long len = uc.getContentLengthLong();
+			if (in == null) {
+				in = new ByteArrayInputStream(new byte[0]);
+			} else if ("gzip".equalsIgnoreCase(uc.getContentEncoding())) {
+				in = new GZIPInputStream(in);
+				len = -1;
+			}
+
+			FlickrTransportResponse response = new FlickrTransportResponse(status, len, new PermitInputStream(in, permits));
+			response.setTimings(dnsTime, connectTime, waitTime);
+			return response;
+		} catch (IOException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	public long getPermitTimeout() {
+		return permitTimeout;
+	}
+
+	private Semaphore getPermits(String host) {
+		Semaphore permits = hostPermits.get(host);
+		if (permits == null) {
+			permits = new Semaphore(maxConnectionsPerHost, true);
+			Semaphore existing = hostPermits.putIfAbsent(host, permits);
+			if (existing != null) {
+				permits = existing;
+			}
+		}
+		return permits;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public boolean isGzip() {
+		return gzip;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public void setGzip(boolean gzip) {
+		this.gzip = gzip;
+	}
+
+	/**
+	 * @param permitTimeout
+	 *            maximum wait, in milliseconds, for one of the connections to a host, 0 for none
+	 */
+	public void setPermitTimeout(long permitTimeout) {
+		this.permitTimeout = permitTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrTransportResponse implements Closeable {
+	private InputStream body;
+	private long connectTime;
+	private long contentLength;
+	private long dnsTime;
+	private int status;
+	private long waitTime;
+
+	public FlickrTransportResponse(int status, long contentLength, InputStream body) {
+		super();
+
+		this.status = status;
+		this.contentLength = contentLength;
+		this.body = body;
+	}
+
+	@Override
+	public void close() throws IOException {
+		body.close();
+	}
+
+	public InputStream getBody() {
+		return body;
+	}
+
+	/**
+	 * @return the length of the (decoded) body, or -1 if unknown
+	 */
+	public long getContentLength() {
+		return contentLength;
+	}
+
+	/**
+	 * @return the time spent in the TCP connection and TLS handshake, in nanoseconds, 0 if not
+	 *         measured
+	 */
+	public long getConnectTime() {
+		return connectTime;
+	}
+
+	/**
+	 * @return the time spent resolving the host name, in nanoseconds, 0 if not measured
+	 */
+	public long getDnsTime() {
+		return dnsTime;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return the time between the request and the first byte of the response, in nanoseconds, 0
+	 *         if not measured
+	 */
+	public long getWaitTime() {
+		return waitTime;
+	}
+
+	public boolean isSuccess() {
+		return (status >= 200) && (status < 300);
+	}
+
+	public void setTimings(long dnsTime, long connectTime, long waitTime) {
+		this.dnsTime = dnsTime;
+		this.connectTime = connectTime;
+		this.waitTime = waitTime;
+	}
+}
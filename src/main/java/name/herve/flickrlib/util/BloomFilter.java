@@ -0,0 +1,128 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Approximate set of longs in a fixed amount of memory, sized for an expected number of values and
+ * a false positive rate : a value that was never added is reported as present with that
+ * probability, beyond that number of values the rate grows. The bits are set with atomic
+ * operations, two threads adding the same value at the same time may both see it as new.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class BloomFilter implements LongSet {
+	private LongAdder added;
+	private AtomicLongArray bits;
+	private long mask;
+	private int nbHashes;
+
+	/**
+	 * @param expectedValues
+	 *            number of values the filter is sized for
+	 * @param falsePositiveRate
+	 *            probability, between 0 and 1, that a value never added is reported as present
+	 *            once the expected number of values is reached
+	 */
+	public BloomFilter(long expectedValues, double falsePositiveRate) {
+		super();
+
+		if ((expectedValues < 1) || (falsePositiveRate <= 0) || (falsePositiveRate >= 1)) {
+			throw new IllegalArgumentException("Invalid Bloom filter sizing : " + expectedValues + " values, " + falsePositiveRate + " false positive rate");
+		}
+
+		double optimalBits = -expectedValues * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+		long nbWords = Math.max(1, (long) Math.ceil(optimalBits / 64));
+		nbWords = Long.highestOneBit(nbWords - 1) << 1;
+		if (nbWords == 0) {
+			nbWords = 1;
+		}
+		if (nbWords > Integer.MAX_VALUE / 2) {
+			throw new IllegalArgumentException("Bloom filter too large : " + nbWords + " words");
+		}
+
+		bits = new AtomicLongArray((int) nbWords);
+		mask = nbWords * 64 - 1;
+		nbHashes = Math.max(1, (int) Math.round((nbWords * 64d / expectedValues) * Math.log(2)));
+		nbHashes = Math.min(nbHashes, 16);
+		added = new LongAdder();
+	}
+
+	@Override
+	public boolean add(long value) {
+		long h1 = ConcurrentLongHashSet.mix(value);
+		long h2 = ConcurrentLongHashSet.mix(h1) | 1;
+		boolean changed = false;
+		for (int i = 0; i < nbHashes; i++) {
+			long bit = (h1 + i * h2) & mask;
+			int word = (int) (bit >>> 6);
+			long m = 1L << bit;
+			while (true) {
+				long w = bits.get(word);
+				if ((w & m) != 0) {
+					break;
+				}
+				if (bits.compareAndSet(word, w, w | m)) {
+					changed = true;
+					break;
+				}
+			}
+		}
+		if (changed) {
+			added.increment();
+		}
+		return changed;
+	}
+
+	@Override
+	public boolean contains(long value) {
+		long h1 = ConcurrentLongHashSet.mix(value);
+		long h2 = ConcurrentLongHashSet.mix(h1) | 1;
+		for (int i = 0; i < nbHashes; i++) {
+			long bit = (h1 + i * h2) & mask;
+			if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return the size of the filter, in bits
+	 */
+	public long getNbBits() {
+		return mask + 1;
+	}
+
+	public int getNbHashes() {
+		return nbHashes;
+	}
+
+	/**
+	 * @return the number of values seen as new, below the number of distinct values added because
+	 *         of the false positives
+	 */
+	@Override
+	public long size() {
+		return added.sum();
+	}
+}
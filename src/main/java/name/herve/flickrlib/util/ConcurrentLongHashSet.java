@@ -0,0 +1,168 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.util;
+
+/**
+ * Exact set of longs, split into segments that are each an open addressing table of primitive
+ * longs with its own lock. Adding and looking up a value allocate nothing, apart from a segment
+ * doubling when it is 3/4 full.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class ConcurrentLongHashSet implements LongSet {
+	private static class Segment {
+		private boolean hasZero;
+		private int size;
+		private long[] table;
+
+		private Segment(int capacity) {
+			super();
+			table = new long[capacity];
+		}
+
+		private synchronized boolean add(long value, long hash) {
+			if (value == 0) {
+				boolean added = !hasZero;
+				hasZero = true;
+				size += added ? 1 : 0;
+				return added;
+			}
+
+			int mask = table.length - 1;
+			int slot = (int) hash & mask;
+			while (table[slot] != 0) {
+				if (table[slot] == value) {
+					return false;
+				}
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = value;
+			size++;
+			if (size * 4l > table.length * 3l) {
+				grow();
+			}
+			return true;
+		}
+
+		private synchronized boolean contains(long value, long hash) {
+			if (value == 0) {
+				return hasZero;
+			}
+
+			int mask = table.length - 1;
+			int slot = (int) hash & mask;
+			while (table[slot] != 0) {
+				if (table[slot] == value) {
+					return true;
+				}
+				slot = (slot + 1) & mask;
+			}
+			return false;
+		}
+
+		private void grow() {
+			long[] old = table;
+			table = new long[old.length * 2];
+			int mask = table.length - 1;
+			for (long v : old) {
+				if (v != 0) {
+					int slot = (int) mix(v) & mask;
+					while (table[slot] != 0) {
+						slot = (slot + 1) & mask;
+					}
+					table[slot] = v;
+				}
+			}
+		}
+
+		private synchronized int size() {
+			return size;
+		}
+	}
+
+	public final static int DEFAULT_CAPACITY = 1024;
+	public final static int DEFAULT_SEGMENTS = 16;
+
+	/**
+	 * Spreads the bits of a value, the low bits pick the slot and the high bits the segment.
+	 */
+	static long mix(long v) {
+		v ^= (v >>> 33);
+		v *= 0xff51afd7ed558ccdL;
+		v ^= (v >>> 33);
+		v *= 0xc4ceb9fe1a85ec53L;
+		v ^= (v >>> 33);
+		return v;
+	}
+
+	private Segment[] segments;
+	private int segmentShift;
+
+	public ConcurrentLongHashSet() {
+		this(DEFAULT_CAPACITY, DEFAULT_SEGMENTS);
+	}
+
+	/**
+	 * @param initialCapacity
+	 *            number of slots over all the segments
+	 * @param nbSegments
+	 *            number of segments, rounded up to a power of 2, bounds the number of threads
+	 *            that add values at the same time
+	 */
+	public ConcurrentLongHashSet(int initialCapacity, int nbSegments) {
+		super();
+
+		int nb = Integer.highestOneBit(Math.max(1, nbSegments - 1)) << 1;
+		if (nbSegments == 1) {
+			nb = 1;
+		}
+		int capacity = Integer.highestOneBit(Math.max(16, initialCapacity / nb - 1)) << 1;
+		segments = new Segment[nb];
+		for (int s = 0; s < nb; s++) {
+			segments[s] = new Segment(capacity);
+		}
+		segmentShift = 64 - Integer.numberOfTrailingZeros(nb);
+	}
+
+	@Override
+	public boolean add(long value) {
+		long hash = mix(value);
+		return segment(hash).add(value, hash);
+	}
+
+	@Override
+	public boolean contains(long value) {
+		long hash = mix(value);
+		return segment(hash).contains(value, hash);
+	}
+
+	private Segment segment(long hash) {
+		return (segmentShift == 64) ? segments[0] : segments[(int) (hash >>> segmentShift)];
+	}
+
+	@Override
+	public long size() {
+		long size = 0;
+		for (Segment s : segments) {
+			size += s.size();
+		}
+		return size;
+	}
+}
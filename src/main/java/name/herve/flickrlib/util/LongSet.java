@@ -0,0 +1,41 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.util;
+
+/**
+ * Set of longs, safe for concurrent use.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public interface LongSet {
+	/**
+	 * Adds a value, atomically with the check for its presence.
+	 * 
+	 * @return true if the value was not in the set
+	 */
+	boolean add(long value);
+
+	boolean contains(long value);
+
+	/**
+	 * @return the number of values in the set, an estimate for approximate sets
+	 */
+	long size();
+}
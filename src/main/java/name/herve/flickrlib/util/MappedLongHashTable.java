@@ -0,0 +1,319 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+/**
+ * Memory mapped open addressing hash table of long keys, each with a fixed number of long values.
+ * Opening a table costs nothing and its size does not weigh on the heap.
+ * <p>
+ * The file starts with a header : magic, version, capacity, number of keys, then the bytes the
+ * owner of the table keeps there. The slots follow, a key then its values, 0 marking an empty
+ * slot. The table doubles when it is 3/4 full : it is rebuilt in a new file that replaces the
+ * current one. It is not thread safe, its owner guards it.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class MappedLongHashTable implements Closeable {
+	/**
+	 * Size of the part of the header common to all the tables.
+	 */
+	public final static int BASE_HEADER_SIZE = 16;
+
+	private final static int MIN_CAPACITY = 16;
+
+	private static int hash(long key) {
+		key ^= (key >>> 33);
+		key *= 0xff51afd7ed558ccdL;
+		key ^= (key >>> 33);
+		return (int) key;
+	}
+
+	private int capacity;
+	private FileChannel channel;
+	private int count;
+	private boolean created;
+	private File file;
+	private int headerSize;
+	private FileLock lock;
+	private int magic;
+	private int slotSize;
+	private MappedByteBuffer slots;
+	private int version;
+
+	/**
+	 * Opens the table, or creates it if the file is missing or empty.
+	 * 
+	 * @param headerSize
+	 *            size of the header, at least {@link #BASE_HEADER_SIZE}
+	 * @param nbValues
+	 *            number of values of each key
+	 * @param initialCapacity
+	 *            number of slots of a new table, rounded up to a power of 2
+	 * @param locked
+	 *            whether the file is locked against other processes while open
+	 * @throws IOException
+	 *             if the file is not a valid table, or is locked by another process
+	 */
+	public MappedLongHashTable(File file, int magic, int version, int headerSize, int nbValues, int initialCapacity, boolean locked) throws IOException {
+		super();
+
+		this.file = file;
+		this.magic = magic;
+		this.version = version;
+		this.headerSize = headerSize;
+		slotSize = 8 * (1 + nbValues);
+
+		if (file.getParentFile() != null) {
+			file.getParentFile().mkdirs();
+		}
+		channel = new RandomAccessFile(file, "rw").getChannel();
+		if (locked) {
+			lock = channel.tryLock();
+			if (lock == null) {
+				channel.close();
+				throw new IOException(file + " is already in use by another process");
+			}
+		}
+
+		try {
+			if (channel.size() > headerSize) {
+				slots = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+				capacity = slots.getInt(8);
+				count = slots.getInt(12);
+				if ((slots.getInt(0) != magic) || (slots.getInt(4) != version) || (capacity < 1) || (Integer.bitCount(capacity) != 1) || (channel.size() != headerSize + (long) capacity * slotSize)) {
+					throw new IOException("Invalid file " + file);
+				}
+				created = false;
+			} else {
+				slots = create(channel, Integer.highestOneBit(Math.max(MIN_CAPACITY, initialCapacity - 1)) << 1);
+				created = true;
+			}
+		} catch (IOException e) {
+			slots = null;
+			close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Adds a key, with its values left to 0.
+	 * 
+	 * @return true if the key was not in the table
+	 */
+	public boolean add(long key) throws IOException {
+		checkKey(key);
+		int slot = find(key);
+		if (getKey(slot) != 0) {
+			return false;
+		}
+		insert(slot, key);
+		return true;
+	}
+
+	private void checkKey(long key) {
+		if (key == 0) {
+			throw new IllegalArgumentException("0 is not a valid key");
+		}
+	}
+
+	/**
+	 * Drops all the keys, the rest of the header is kept.
+	 */
+	public void clear() throws IOException {
+		rebuild(MIN_CAPACITY, false);
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (slots != null) {
+			slots.force();
+			slots = null;
+		}
+		if (lock != null) {
+			lock.release();
+			lock = null;
+		}
+		channel.close();
+	}
+
+	public boolean contains(long key) {
+		return (key != 0) && (getKey(find(key)) == key);
+	}
+
+	private MappedByteBuffer create(FileChannel fc, int cap) throws IOException {
+		MappedByteBuffer s = fc.map(FileChannel.MapMode.READ_WRITE, 0, headerSize + (long) cap * slotSize);
+		s.putInt(0, magic);
+		s.putInt(4, version);
+		s.putInt(8, cap);
+		s.putInt(12, 0);
+		capacity = cap;
+		count = 0;
+		return s;
+	}
+
+	private int find(long key) {
+		int mask = capacity - 1;
+		int slot = hash(key) & mask;
+		while (true) {
+			long k = getKey(slot);
+			if ((k == key) || (k == 0)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Forces the table to the disk.
+	 */
+	public void force() {
+		slots.force();
+	}
+
+	/**
+	 * @return a value of the key, or the given default if the key is not in the table
+	 */
+	public long get(long key, int value, long defaultValue) {
+		if (key == 0) {
+			return defaultValue;
+		}
+		int slot = find(key);
+		if (getKey(slot) != key) {
+			return defaultValue;
+		}
+		return slots.getLong(headerSize + slot * slotSize + 8 * (1 + value));
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * @param offset
+	 *            offset in the header, from {@link #BASE_HEADER_SIZE}
+	 */
+	public long getHeaderLong(int offset) {
+		return slots.getLong(offset);
+	}
+
+	private long getKey(int slot) {
+		return slots.getLong(headerSize + slot * slotSize);
+	}
+
+	private void insert(int slot, long key) throws IOException {
+		slots.putLong(headerSize + slot * slotSize, key);
+		count++;
+		slots.putInt(12, count);
+		if (count * 4l > capacity * 3l) {
+			rebuild(capacity * 2, true);
+		}
+	}
+
+	/**
+	 * @return true if the table was created when it was opened
+	 */
+	public boolean isCreated() {
+		return created;
+	}
+
+	/**
+	 * Sets a value of the key, adding the key if needed. The values are written before the key, so
+	 * that a key is never found with values it was not given.
+	 * 
+	 * @return true if the key was not in the table
+	 */
+	public boolean put(long key, int value, long v) throws IOException {
+		checkKey(key);
+		int slot = find(key);
+		slots.putLong(headerSize + slot * slotSize + 8 * (1 + value), v);
+		if (getKey(slot) != 0) {
+			return false;
+		}
+		insert(slot, key);
+		return true;
+	}
+
+	public void putHeaderLong(int offset, long v) {
+		slots.putLong(offset, v);
+	}
+
+	/**
+	 * The table is rebuilt in a new file that replaces the current one, keeping the lock on the
+	 * current one until then.
+	 */
+	private void rebuild(int newCapacity, boolean copy) throws IOException {
+		int oldCapacity = capacity;
+		MappedByteBuffer oldSlots = slots;
+
+		File tmp = new File(file.getPath() + ".tmp");
+		tmp.delete();
+		FileChannel rebuilt = new RandomAccessFile(tmp, "rw").getChannel();
+		slots = create(rebuilt, newCapacity);
+		for (int h = BASE_HEADER_SIZE; h < headerSize; h++) {
+			slots.put(h, oldSlots.get(h));
+		}
+
+		if (copy) {
+			for (int s = 0; s < oldCapacity; s++) {
+				int from = headerSize + s * slotSize;
+				long key = oldSlots.getLong(from);
+				if (key != 0) {
+					int to = headerSize + find(key) * slotSize;
+					for (int b = 8; b < slotSize; b += 8) {
+						slots.putLong(to + b, oldSlots.getLong(from + b));
+					}
+					slots.putLong(to, key);
+					count++;
+				}
+			}
+			slots.putInt(12, count);
+		}
+		slots.force();
+
+		FileLock rebuiltLock = (lock != null) ? rebuilt.tryLock() : null;
+		if (lock != null) {
+			lock.release();
+		}
+		channel.close();
+		if (!tmp.renameTo(file)) {
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				throw new IOException("Unable to replace " + file);
+			}
+		}
+		channel = rebuilt;
+		lock = rebuiltLock;
+	}
+
+	/**
+	 * @return the number of keys
+	 */
+	public int size() {
+		return count;
+	}
+}
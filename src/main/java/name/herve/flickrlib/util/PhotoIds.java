@@ -0,0 +1,50 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.util;
+
+/**
+ * Photo ids are decimal numbers : they are kept as longs in the indexes and the compact models.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class PhotoIds {
+	/**
+	 * @return the id as a positive long, or -1 if it is not 1 to 18 decimal digits without leading
+	 *         zero, so that it can be written back exactly by {@link Long#toString(long)}
+	 */
+	public static long parse(String id) {
+		if (id == null) {
+			return -1;
+		}
+		int len = id.length();
+		if ((len == 0) || (len > 18) || (id.charAt(0) < '1') || (id.charAt(0) > '9')) {
+			return -1;
+		}
+		long v = 0;
+		for (int i = 0; i < len; i++) {
+			char c = id.charAt(i);
+			if ((c < '0') || (c > '9')) {
+				return -1;
+			}
+			v = v * 10 + (c - '0');
+		}
+		return v;
+	}
+}
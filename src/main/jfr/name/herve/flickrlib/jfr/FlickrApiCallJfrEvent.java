@@ -0,0 +1,73 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for a call to the REST API, from the cache lookup to the first byte of
+ * the response. The response body is streamed to the parser, see {@link FlickrParseJfrEvent}.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+@Name("name.herve.flickrlib.ApiCall")
+@Label("Flickr API Call")
+@Category("FlickrLib")
+class FlickrApiCallJfrEvent extends Event {
+	@Label("Method")
+	public String method;
+
+	@Label("Photo Id")
+	public String photoId;
+
+	@Label("Cached")
+	public boolean cached;
+
+	@Label("HTTP Status")
+	public int status;
+
+	@Label("Bytes")
+	@Description("Length of the response, -1 if unknown")
+	@DataAmount
+	public long bytes;
+
+	@Label("Rate Limit Wait")
+	@Timespan
+	public long rateLimitWait;
+
+	@Label("DNS Lookup")
+	@Timespan
+	public long dns;
+
+	@Label("Connect")
+	@Description("TCP connection and TLS handshake, close to zero when a kept-alive connection is reused")
+	@Timespan
+	public long connect;
+
+	@Label("Server Wait")
+	@Description("From the request to the first byte of the response")
+	@Timespan
+	public long serverWait;
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight recorder event for an image download, either decoded in memory or written to a file.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+@Name("name.herve.flickrlib.ImageDownload")
+@Label("Flickr Image Download")
+@Category("FlickrLib")
+class FlickrImageDownloadJfrEvent extends Event {
+	@Label("Photo Id")
+	public String photoId;
+
+	@Label("Size")
+	public String size;
+
+	@Label("Host")
+	public String host;
+
+	@Label("HTTP Status")
+	public int status;
+
+	@Label("Bytes")
+	@DataAmount
+	public long bytes;
+
+	@Label("Rate Limit Wait")
+	@Timespan
+	public long rateLimitWait;
+
+	@Label("DNS Lookup")
+	@Timespan
+	public long dns;
+
+	@Label("Connect")
+	@Timespan
+	public long connect;
+
+	@Label("Server Wait")
+	@Timespan
+	public long serverWait;
+
+	@Label("Transfer")
+	@Timespan
+	public long transfer;
+
+	@Label("Decode")
+	@Timespan
+	public long decode;
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package name.herve.flickrlib.jfr;
+
+import jdk.jfr.EventType;
+
+/**
+ * Records the FlickrLib events with the flight recorder. Loaded by {@link FlickrEvents} only when
+ * <code>jdk.jfr</code> is present.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+public class FlickrJfrRecorder implements FlickrEventRecorder {
+	private static class ApiCall extends FlickrApiCallEvent {
+		private FlickrApiCallJfrEvent jfr = new FlickrApiCallJfrEvent();
+
+		@Override
+		public void begin() {
+			jfr.begin();
+		}
+
+		@Override
+		public void commit() {
+			jfr.method = method;
+			jfr.photoId = photoId;
+			jfr.cached = cached;
+			jfr.status = status;
+			jfr.bytes = bytes;
+			jfr.rateLimitWait = rateLimitWait;
+			jfr.dns = dns;
+			jfr.connect = connect;
+			jfr.serverWait = serverWait;
+			jfr.commit();
+		}
+
+		@Override
+		public void end() {
+			jfr.end();
+		}
+
+		@Override
+		public boolean shouldCommit() {
+			return jfr.shouldCommit();
+		}
+	}
+
+	private static class ImageDownload extends FlickrImageDownloadEvent {
+		private FlickrImageDownloadJfrEvent jfr = new FlickrImageDownloadJfrEvent();
+
+		@Override
+		public void begin() {
+			jfr.begin();
+		}
+
+		@Override
+		public void commit() {
+			jfr.photoId = photoId;
+			jfr.size = size;
+			jfr.host = host;
+			jfr.status = status;
+			jfr.bytes = bytes;
+			jfr.rateLimitWait = rateLimitWait;
+			jfr.dns = dns;
+			jfr.connect = connect;
+			jfr.serverWait = serverWait;
+			jfr.transfer = transfer;
+			jfr.decode = decode;
+			jfr.commit();
+		}
+
+		@Override
+		public void end() {
+			jfr.end();
+		}
+
+		@Override
+		public boolean shouldCommit() {
+			return jfr.shouldCommit();
+		}
+	}
+
+	private static class PageFetch extends FlickrPageFetchEvent {
+		private FlickrPageFetchJfrEvent jfr = new FlickrPageFetchJfrEvent();
+
+		@Override
+		public void begin() {
+			jfr.begin();
+		}
+
+		@Override
+		public void commit() {
+			jfr.query = query;
+			jfr.page = page;
+			jfr.perPage = perPage;
+			jfr.images = images;
+			jfr.prefetched = prefetched;
+			jfr.commit();
+		}
+
+		@Override
+		public void end() {
+			jfr.end();
+		}
+
+		@Override
+		public boolean shouldCommit() {
+			return jfr.shouldCommit();
+		}
+	}
+
+	private static class Parse extends FlickrParseEvent {
+		private FlickrParseJfrEvent jfr = new FlickrParseJfrEvent();
+
+		@Override
+		public void begin() {
+			jfr.begin();
+		}
+
+		@Override
+		public void commit() {
+			jfr.images = images;
+			jfr.page = page;
+			jfr.pages = pages;
+			jfr.total = total;
+			jfr.commit();
+		}
+
+		@Override
+		public void end() {
+			jfr.end();
+		}
+
+		@Override
+		public boolean shouldCommit() {
+			return jfr.shouldCommit();
+		}
+	}
+
+	private EventType apiCall;
+	private EventType imageDownload;
+
+	public FlickrJfrRecorder() {
+		super();
+
+		apiCall = EventType.getEventType(FlickrApiCallJfrEvent.class);
+		imageDownload = EventType.getEventType(FlickrImageDownloadJfrEvent.class);
+	}
+
+	@Override
+	public boolean isNetworkTimingEnabled() {
+		return apiCall.isEnabled() || imageDownload.isEnabled();
+	}
+
+	@Override
+	public FlickrApiCallEvent newApiCallEvent() {
+		return new ApiCall();
+	}
+
+	@Override
+	public FlickrImageDownloadEvent newImageDownloadEvent() {
+		return new ImageDownload();
+	}
+
+	@Override
+	public FlickrPageFetchEvent newPageFetchEvent() {
+		return new PageFetch();
+	}
+
+	@Override
+	public FlickrParseEvent newParseEvent() {
+		return new Parse();
+	}
+}
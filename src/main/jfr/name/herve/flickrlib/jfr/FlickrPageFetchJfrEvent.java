@@ -0,0 +1,49 @@
+/*
+ * Copyright 2011-2013 Nicolas Hervé.
+ * 
+ * This file is part of FlickrLib.
+ * 
+ * FlickrLib is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * FlickrLib is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with FlickrLib. If not, see <http://www.gnu.org/licenses/>.
+ */
+package name.herve.flickrlib.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight recorder event for a page of search results consumed by the iterator.
+ * 
+ * @author Nicolas HERVE - n.herve@laposte.net
+ */
+@Name("name.herve.flickrlib.PageFetch")
+@Label("Flickr Page Fetch")
+@Category("FlickrLib")
+class FlickrPageFetchJfrEvent extends Event {
+	@Label("Query")
+	public String query;
+
+	@Label("Page")
+	public int page;
+
+	@Label("Per Page")
+	public int perPage;
+
+	@Label("Images")
+	public int images;
+
+	@Label("Prefetched")
+	public boolean prefetched;
+}